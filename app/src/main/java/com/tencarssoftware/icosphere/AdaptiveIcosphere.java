@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2015 10cars Software
+ */
+
+package com.tencarssoftware.icosphere;
+
+import com.tencarssoftware.icosphere.geometry.AdaptiveTessellator;
+import com.tencarssoftware.icosphere.geometry.Mesh;
+import com.tencarssoftware.icosphere.geometry.MeshBaker;
+import com.tencarssoftware.icosphere.geometry.MeshCache;
+import com.tencarssoftware.icosphere.geometry.MeshData;
+import com.tencarssoftware.icosphere.geometry.Patches;
+import com.tencarssoftware.icosphere.geometry.PhaseTrace;
+import com.tencarssoftware.icosphere.geometry.VertexFormat;
+
+import java.util.Arrays;
+
+/**
+ * A smooth sphere tessellated for the view by an AdaptiveTessellator, on the scheduler's thread.
+ * The level caps the depth.
+ */
+public class AdaptiveIcosphere extends Icosphere {
+    // the depth of a silhouette face of level 7 costs about a fifth of the uniform level 7
+    public static final int MAX_LEVEL = 7;
+
+    private final MeshBuildScheduler scheduler;
+    private final float maxErrorPixels;
+    // GL thread only
+    private AdaptiveTessellator tessellator;
+    private int maxLevel;
+    private long traceStart;
+    private boolean tessellating;
+    // the view of the last tessellation
+    private final float[] lastCamera = new float[3];
+    private float lastPixelsPerUnit;
+
+    public AdaptiveIcosphere(MeshCache meshCache, VertexFormat vertexFormat, MeshBuildScheduler scheduler,
+                             float maxErrorPixels) {
+        super(meshCache, vertexFormat);
+        this.scheduler = scheduler;
+        this.maxErrorPixels = maxErrorPixels;
+    }
+
+    /**
+     * The level change requested at start is traced once its first tessellation is drawn.
+     */
+    public void setMaxLevel(int level, long start) {
+        maxLevel = Math.min(level, MAX_LEVEL);
+        tessellator = new AdaptiveTessellator(maxLevel, maxErrorPixels);
+        traceStart = start;
+        lastPixelsPerUnit = 0;
+    }
+
+    public int getMaxLevel() {
+        return maxLevel;
+    }
+
+    /**
+     * Starts a tessellation for the view unless one is still tessellated or uploaded.
+     *
+     * @param pixelsPerUnit the size of one unit at a distance of one on the screen
+     */
+    public void updateView(float[] mvMatrix, float pixelsPerUnit) {
+        if (tessellating || isUploading()) {
+            return;
+        }
+        float[] camera = new float[3];
+        Patches.getCameraPosition(mvMatrix, camera);
+        if (pixelsPerUnit == lastPixelsPerUnit && Arrays.equals(camera, lastCamera)) {
+            return;
+        }
+        tessellating = scheduler.tessellate(this, tessellator, camera, pixelsPerUnit);
+        if (tessellating) {
+            System.arraycopy(camera, 0, lastCamera, 0, 3);
+            lastPixelsPerUnit = pixelsPerUnit;
+        }
+    }
+
+    // on the scheduler's thread, null if no face changed its depth
+    MeshData[] tessellate(AdaptiveTessellator tessellator, float[] camera, float pixelsPerUnit) {
+        long start = PhaseTrace.begin("tessellate");
+        if (!tessellator.update(camera, pixelsPerUnit)) {
+            PhaseTrace.end("tessellate", start, 0, 0);
+            return null;
+        }
+        Mesh mesh = tessellator.getMesh();
+        MeshData[] data = MeshBaker.fill(mesh, getVertexFormat(), useIntIndices());
+        PhaseTrace.end("tessellate", start, MeshData.getByteSize(data), 0);
+        return data;
+    }
+
+    // GL thread only, once the result of tessellate() is in or dropped
+    void endTessellation(AdaptiveTessellator tessellator, boolean dropped) {
+        tessellating = false;
+        if (dropped && tessellator == this.tessellator) {
+            // it is ahead of the mesh that is drawn, start over
+            this.tessellator = new AdaptiveTessellator(maxLevel, maxErrorPixels);
+            lastPixelsPerUnit = 0;
+        }
+    }
+
+    // GL thread only, 0 after the first mesh of the level went out
+    long takeTraceStart() {
+        long start = traceStart;
+        traceStart = 0;
+        return start;
+    }
+
+    @Override
+    public int getMaxSharedLevel() {
+        return -1;
+    }
+
+}
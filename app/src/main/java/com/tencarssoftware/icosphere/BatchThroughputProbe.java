@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2015 10cars Software
+ */
+
+package com.tencarssoftware.icosphere;
+
+import android.util.Log;
+
+import com.tencarssoftware.icosphere.render.IcosphereBatch;
+
+import java.util.Random;
+
+/**
+ * Finds how many instances an IcosphereBatch can draw per frame at 60 fps on this device. Starts
+ * with a few hundred instances and doubles them while the average frame interval stays within
+ * the frame budget, then bisects between the last count that made it and the first that didn't.
+ * Needs continuous rendering; the result goes to the log.
+ */
+public class BatchThroughputProbe {
+    private static final String TAG = "BatchThroughputProbe";
+    // a bit over 16.7 ms, vsync makes a missed frame 33 ms so there is no need to be exact
+    private static final long FRAME_BUDGET_NANOS = 17500000L;
+    private static final int WARMUP_FRAMES = 30;
+    private static final int MEASURED_FRAMES = 120;
+    private static final int START_COUNT = 256;
+    private static final int MAX_COUNT = 1 << 20;
+
+    private final IcosphereBatch batch;
+    private final Random random = new Random(42);
+    private float[] instances = new float[0];
+    private int count;
+    private int passed;
+    private int failed = -1;
+    private int frame;
+    private long start;
+    private boolean done;
+
+    public BatchThroughputProbe(IcosphereBatch batch) {
+        this.batch = batch;
+        setCount(START_COUNT);
+    }
+
+    /**
+     * Call once per frame on the GL thread, returns false once the probe is done.
+     */
+    public boolean onFrame(long now) {
+        if (done) {
+            return false;
+        }
+        frame++;
+        if (frame == WARMUP_FRAMES) {
+            start = now;
+        } else if (frame == WARMUP_FRAMES + MEASURED_FRAMES) {
+            long interval = (now - start) / MEASURED_FRAMES;
+            Log.d(TAG, count + " instances: " + interval / 1000 + " us per frame");
+            if (interval <= FRAME_BUDGET_NANOS) {
+                passed = count;
+            } else {
+                failed = count;
+            }
+            int next = failed < 0 ? count * 2 : (passed + failed) / 2;
+            if (next <= passed || next >= MAX_COUNT || (failed >= 0 && failed - passed <= passed / 32)) {
+                done = true;
+                Log.i(TAG, "Instances per frame at 60 fps: " + passed + " (" +
+                        (batch.usesInstancing() ? "instanced" : "uniform arrays, " + batch.getBatchSize() + " per draw") + ")");
+                return false;
+            }
+            setCount(next);
+        }
+        return true;
+    }
+
+    private void setCount(int count) {
+        this.count = count;
+        frame = 0;
+        int length = count * IcosphereBatch.FLOATS_PER_INSTANCE;
+        if (instances.length < length) {
+            float[] grown = new float[length];
+            System.arraycopy(instances, 0, grown, 0, instances.length);
+            for (int i = instances.length; i < length; i += IcosphereBatch.FLOATS_PER_INSTANCE) {
+                // inside the view frustum around the sphere, small enough to not all overlap
+                grown[i] = random.nextFloat() * 3f - 1.5f;
+                grown[i + 1] = random.nextFloat() * 3f - 1.5f;
+                grown[i + 2] = random.nextFloat() * 2f - 1f;
+                grown[i + 3] = 0.02f + random.nextFloat() * 0.03f;
+                grown[i + 4] = random.nextFloat();
+                grown[i + 5] = random.nextFloat();
+                grown[i + 6] = random.nextFloat();
+                grown[i + 7] = 1f;
+            }
+            instances = grown;
+        }
+        batch.setInstances(instances, count);
+    }
+
+}
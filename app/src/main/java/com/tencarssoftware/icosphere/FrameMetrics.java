@@ -0,0 +1,250 @@
+/*
+ * Copyright (c) 2015 10cars Software
+ */
+
+package com.tencarssoftware.icosphere;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * CPU time, GPU time, triangles, draw calls and GL state changes of the last frames in a ring
+ * buffer, and whether a frame was part of a level change. Only the GL thread records, any thread
+ * can summarize or dump them without a lock: a reader copies the rows and then drops the ones the
+ * GL thread may have started to overwrite in the meantime.
+ */
+public class FrameMetrics {
+    // a power of two, a bit over 8 seconds at 60 fps
+    public static final int CAPACITY = 512;
+    private static final int MASK = CAPACITY - 1;
+    // no GPU time, not measured or the result isn't there yet
+    private static final long NO_TIME = -1;
+
+    private final long[] cpuNanos = new long[CAPACITY];
+    private final long[] gpuNanos = new long[CAPACITY];
+    private final int[] triangles = new int[CAPACITY];
+    private final int[] drawCalls = new int[CAPACITY];
+    private final int[] stateChanges = new int[CAPACITY];
+    private final int[] skippedStateChanges = new int[CAPACITY];
+    private final boolean[] levelChanges = new boolean[CAPACITY];
+    // written last by record(), so a reader that sees a count sees the rows before it
+    private volatile long frameCount;
+
+    /**
+     * Adds a frame, GL thread only. Returns the frame's number for setGpuTime. The CPU time
+     * includes the uploads the GL thread ran since the last frame. The state changes are the
+     * calls GLState issued and skipped during the frame. A level change frame is drawn between a
+     * new mesh arriving on the GL thread and the first frame that shows all of it.
+     */
+    public long record(long cpuNanos, int triangleCount, int drawCallCount, int stateChangeCount, int skippedStateChangeCount,
+                       boolean levelChange) {
+        long frame = frameCount;
+        int i = (int) (frame & MASK);
+        this.cpuNanos[i] = cpuNanos;
+        gpuNanos[i] = NO_TIME;
+        triangles[i] = triangleCount;
+        drawCalls[i] = drawCallCount;
+        stateChanges[i] = stateChangeCount;
+        skippedStateChanges[i] = skippedStateChangeCount;
+        levelChanges[i] = levelChange;
+        frameCount = frame + 1;
+        return frame;
+    }
+
+    /**
+     * Sets the GPU time of a frame recorded earlier once its timer query has a result, GL thread
+     * only. Readers see it with the next recorded frame.
+     */
+    public void setGpuTime(long frame, long nanos) {
+        if (frame >= frameCount - CAPACITY) {
+            gpuNanos[(int) (frame & MASK)] = nanos;
+        }
+    }
+
+    public Summary summarize() {
+        Rows rows = copy();
+        long[] cpu = Arrays.copyOf(rows.cpuNanos, rows.count);
+        long[] gpu = new long[rows.count];
+        int gpuCount = 0;
+        long triangleSum = 0;
+        long drawCallSum = 0;
+        long stateChangeSum = 0;
+        long skippedSum = 0;
+        int levelChangeCount = 0;
+        long levelChangeMax = -1;
+        for (int i = 0; i < rows.count; i++) {
+            if (rows.gpuNanos[i] != NO_TIME) {
+                gpu[gpuCount++] = rows.gpuNanos[i];
+            }
+            triangleSum += rows.triangles[i];
+            drawCallSum += rows.drawCalls[i];
+            stateChangeSum += rows.stateChanges[i];
+            skippedSum += rows.skippedStateChanges[i];
+            if (rows.levelChanges[i]) {
+                levelChangeCount++;
+                levelChangeMax = Math.max(levelChangeMax, rows.cpuNanos[i]);
+            }
+        }
+        int n = Math.max(rows.count, 1);
+        return new Summary(rows.count, cpu, Arrays.copyOf(gpu, gpuCount),
+                triangleSum / n, drawCallSum / n, stateChangeSum / n, skippedSum / n, levelChangeCount, levelChangeMax);
+    }
+
+    /**
+     * Writes the frames as CSV, times in microseconds, an empty GPU time where there is none.
+     */
+    public void dump(File file) throws IOException {
+        Rows rows = copy();
+        PrintWriter writer = new PrintWriter(new FileWriter(file));
+        try {
+            writer.println("frame,cpu_us,gpu_us,triangles,draw_calls,state_changes,skipped_state_changes,level_change");
+            for (int i = 0; i < rows.count; i++) {
+                writer.print(rows.firstFrame + i);
+                writer.print(',');
+                writer.print(rows.cpuNanos[i] / 1000);
+                writer.print(',');
+                if (rows.gpuNanos[i] != NO_TIME) {
+                    writer.print(rows.gpuNanos[i] / 1000);
+                }
+                writer.print(',');
+                writer.print(rows.triangles[i]);
+                writer.print(',');
+                writer.print(rows.drawCalls[i]);
+                writer.print(',');
+                writer.print(rows.stateChanges[i]);
+                writer.print(',');
+                writer.print(rows.skippedStateChanges[i]);
+                writer.print(',');
+                writer.println(rows.levelChanges[i] ? 1 : 0);
+            }
+        } finally {
+            writer.close();
+        }
+        if (writer.checkError()) {
+            throw new IOException("Unable to write " + file);
+        }
+    }
+
+    private Rows copy() {
+        Rows rows = new Rows();
+        long end = frameCount;
+        long start = Math.max(0, end - CAPACITY);
+        for (long frame = start; frame < end; frame++) {
+            int i = (int) (frame & MASK);
+            int row = (int) (frame - start);
+            rows.cpuNanos[row] = cpuNanos[i];
+            rows.gpuNanos[row] = gpuNanos[i];
+            rows.triangles[row] = triangles[i];
+            rows.drawCalls[row] = drawCalls[i];
+            rows.stateChanges[row] = stateChanges[i];
+            rows.skippedStateChanges[row] = skippedStateChanges[i];
+            rows.levelChanges[row] = levelChanges[i];
+        }
+        // while frame n is being recorded it overwrites frame n - CAPACITY
+        long valid = Math.max(start, frameCount - CAPACITY + 1);
+        int skipped = (int) Math.min(end - start, valid - start);
+        rows.firstFrame = start + skipped;
+        rows.count = (int) (end - start) - skipped;
+        System.arraycopy(rows.cpuNanos, skipped, rows.cpuNanos, 0, rows.count);
+        System.arraycopy(rows.gpuNanos, skipped, rows.gpuNanos, 0, rows.count);
+        System.arraycopy(rows.triangles, skipped, rows.triangles, 0, rows.count);
+        System.arraycopy(rows.drawCalls, skipped, rows.drawCalls, 0, rows.count);
+        System.arraycopy(rows.stateChanges, skipped, rows.stateChanges, 0, rows.count);
+        System.arraycopy(rows.skippedStateChanges, skipped, rows.skippedStateChanges, 0, rows.count);
+        System.arraycopy(rows.levelChanges, skipped, rows.levelChanges, 0, rows.count);
+        return rows;
+    }
+
+    private static class Rows {
+        final long[] cpuNanos = new long[CAPACITY];
+        final long[] gpuNanos = new long[CAPACITY];
+        final int[] triangles = new int[CAPACITY];
+        final int[] drawCalls = new int[CAPACITY];
+        final int[] stateChanges = new int[CAPACITY];
+        final int[] skippedStateChanges = new int[CAPACITY];
+        final boolean[] levelChanges = new boolean[CAPACITY];
+        long firstFrame;
+        int count;
+    }
+
+    /**
+     * Percentiles of the frames in the buffer, times in nanoseconds, -1 when there are none.
+     */
+    public static class Summary {
+        public final int frameCount;
+        public final long cpuP50;
+        public final long cpuP95;
+        public final long cpuP99;
+        public final int gpuFrameCount;
+        public final long gpuP50;
+        public final long gpuP95;
+        public final long gpuP99;
+        public final long averageTriangles;
+        public final long averageDrawCalls;
+        public final long averageStateChanges;
+        public final long averageSkippedStateChanges;
+        // the slowest frame while the level changed, what a streamed upload keeps down
+        public final int levelChangeFrameCount;
+        public final long levelChangeCpuMax;
+
+        private Summary(int frameCount, long[] cpu, long[] gpu, long averageTriangles, long averageDrawCalls,
+                        long averageStateChanges, long averageSkippedStateChanges, int levelChangeFrameCount,
+                        long levelChangeCpuMax) {
+            Arrays.sort(cpu);
+            Arrays.sort(gpu);
+            this.frameCount = frameCount;
+            cpuP50 = percentile(cpu, 50);
+            cpuP95 = percentile(cpu, 95);
+            cpuP99 = percentile(cpu, 99);
+            gpuFrameCount = gpu.length;
+            gpuP50 = percentile(gpu, 50);
+            gpuP95 = percentile(gpu, 95);
+            gpuP99 = percentile(gpu, 99);
+            this.averageTriangles = averageTriangles;
+            this.averageDrawCalls = averageDrawCalls;
+            this.averageStateChanges = averageStateChanges;
+            this.averageSkippedStateChanges = averageSkippedStateChanges;
+            this.levelChangeFrameCount = levelChangeFrameCount;
+            this.levelChangeCpuMax = levelChangeCpuMax;
+        }
+
+        // nearest rank
+        private static long percentile(long[] sorted, int p) {
+            if (sorted.length == 0) {
+                return -1;
+            }
+            return sorted[(sorted.length * p + 99) / 100 - 1];
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder();
+            appendTimes(sb, "CPU", frameCount, cpuP50, cpuP95, cpuP99);
+            appendTimes(sb, "GPU", gpuFrameCount, gpuP50, gpuP95, gpuP99);
+            sb.append(averageTriangles).append(" triangles, ").append(averageDrawCalls).append(" draw calls\n");
+            sb.append(averageStateChanges).append(" state changes, ").append(averageSkippedStateChanges).append(" skipped\n");
+            if (levelChangeFrameCount == 0) {
+                sb.append("level change CPU max ms: n/a\n");
+            } else {
+                sb.append(String.format(Locale.US, "level change CPU max ms: %.2f over %d frames\n",
+                        levelChangeCpuMax / 1e6, levelChangeFrameCount));
+            }
+            sb.append(frameCount).append(" frames");
+            return sb.toString();
+        }
+
+        private static void appendTimes(StringBuilder sb, String name, int count, long p50, long p95, long p99) {
+            if (count == 0) {
+                sb.append(name).append(" ms: n/a\n");
+            } else {
+                sb.append(String.format(Locale.US, "%s ms p50/95/99: %.2f / %.2f / %.2f\n",
+                        name, p50 / 1e6, p95 / 1e6, p99 / 1e6));
+            }
+        }
+    }
+
+}
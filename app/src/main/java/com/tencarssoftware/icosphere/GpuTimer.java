@@ -0,0 +1,87 @@
+/*
+ * Copyright (c) 2015 10cars Software
+ */
+
+package com.tencarssoftware.icosphere;
+
+import com.tencarssoftware.icosphere.render.GL;
+import com.tencarssoftware.icosphere.render.GLState;
+
+/**
+ * Measures the GPU time of frames with GL_EXT_disjoint_timer_query. The extension has no Java
+ * bindings, but in an ES 3.0 context its query functions are the core ones. Results arrive a few
+ * frames late and go to FrameMetrics. A frame gets no GPU time while all queries are still in
+ * flight, or when the GPU was disjoint (e.g. changed its clock) during it.
+ */
+public class GpuTimer {
+    private static final int GL_TIME_ELAPSED_EXT = 0x88BF;
+    private static final int GL_GPU_DISJOINT_EXT = 0x8FBB;
+    // drivers usually run two or three frames behind
+    private static final int QUERY_COUNT = 4;
+    // a query whose result is thrown away
+    private static final long DISCARDED = -1;
+
+    private final GL gl;
+    private final int[] queries = new int[QUERY_COUNT];
+    private final long[] frames = new long[QUERY_COUNT];
+    private final int[] result = new int[1];
+    // the oldest query in flight and how many there are
+    private int first;
+    private int pending;
+    private boolean running;
+
+    public GpuTimer() {
+        gl = GLState.get().getGL();
+        gl.glGenQueries(QUERY_COUNT, queries, 0);
+    }
+
+    public static boolean isSupported() {
+        return Icosphere.hasES30() && Icosphere.hasExtension("GL_EXT_disjoint_timer_query");
+    }
+
+    public void begin() {
+        if (pending == QUERY_COUNT) {
+            return;
+        }
+        gl.glBeginQuery(GL_TIME_ELAPSED_EXT, queries[(first + pending) % QUERY_COUNT]);
+        running = true;
+    }
+
+    public void end(long frame) {
+        if (!running) {
+            return;
+        }
+        gl.glEndQuery(GL_TIME_ELAPSED_EXT);
+        frames[(first + pending) % QUERY_COUNT] = frame;
+        pending++;
+        running = false;
+    }
+
+    /**
+     * Passes the results that are available to the metrics, call once per frame after end().
+     */
+    public void collect(FrameMetrics metrics) {
+        // reading the flag clears it, it covers every query in flight
+        gl.glGetIntegerv(GL_GPU_DISJOINT_EXT, result, 0);
+        if (result[0] != 0) {
+            for (int i = 0; i < pending; i++) {
+                frames[(first + i) % QUERY_COUNT] = DISCARDED;
+            }
+        }
+        while (pending > 0) {
+            int query = queries[first];
+            gl.glGetQueryObjectuiv(query, GL.GL_QUERY_RESULT_AVAILABLE, result, 0);
+            if (result[0] == 0) {
+                break;
+            }
+            gl.glGetQueryObjectuiv(query, GL.GL_QUERY_RESULT, result, 0);
+            if (frames[first] != DISCARDED) {
+                // 32 bits of nanoseconds are over 4 seconds
+                metrics.setGpuTime(frames[first], result[0] & 0xffffffffL);
+            }
+            first = (first + 1) % QUERY_COUNT;
+            pending--;
+        }
+    }
+
+}
@@ -4,29 +4,52 @@
 
 package com.tencarssoftware.icosphere;
 
-import android.annotation.TargetApi;
-import android.opengl.GLES20;
-import android.opengl.Matrix;
 import android.os.Build;
-import android.support.v4.util.LongSparseArray;
 
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.FloatBuffer;
-import java.nio.ShortBuffer;
+import com.tencarssoftware.icosphere.geometry.Mesh;
+import com.tencarssoftware.icosphere.geometry.MeshBaker;
+import com.tencarssoftware.icosphere.geometry.MeshCache;
+import com.tencarssoftware.icosphere.geometry.MeshData;
+import com.tencarssoftware.icosphere.geometry.OctahedralEncoding;
+import com.tencarssoftware.icosphere.geometry.PhaseTrace;
+import com.tencarssoftware.icosphere.geometry.Shading;
+import com.tencarssoftware.icosphere.geometry.SharedLevelData;
+import com.tencarssoftware.icosphere.geometry.VertexCacheOptimizer;
+import com.tencarssoftware.icosphere.geometry.VertexFormat;
+import com.tencarssoftware.icosphere.render.GL;
+import com.tencarssoftware.icosphere.render.GLState;
+import com.tencarssoftware.icosphere.render.MeshBuffers;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 public class Icosphere {
-    public static final int[] sizeList = new int[]{12, 42, 162, 642, 2562, 10242};
+    // from this level on the faces are built on all cores
+    private static final int PARALLEL_REFINEMENT = 7;
+    // entries of the post-transform cache the draw list is optimized for, 0 keeps the generation order
+    private static final int VERTEX_CACHE_SIZE = VertexCacheOptimizer.DEFAULT_CACHE_SIZE;
+    // highest level kept in the shared buffers, about 7 MB with float vertices
+    private static final int MAX_SHARED_LEVEL = 7;
+    // the highest level whose vertices can be indexed with shorts
+    private static final int MAX_SHORT_INDEX_SHARED_LEVEL = 6;
+    private static ExecutorService buildExecutor;
+    private static final String octahedralDecodeCode =
+                    "vec3 octDecode(vec2 e) {" +
+                    "    vec3 v = vec3(e, 1.0 - abs(e.x) - abs(e.y));" +
+                    "    if (v.z < 0.0) v.xy = (1.0 - abs(v.yx)) * (step(0.0, v.xy) * 2.0 - 1.0);" +
+                    "    return normalize(v);" +
+                    "}";
     private static final String vertexShaderCode =
                     "uniform mat4 uMVPMatrix;" +
                     "uniform mat4 uMVMatrix;" +
-                    "attribute vec4 aPosition;" +
                     "varying vec3 vPosition;" +
                     "varying vec3 vNormal;" +
                     "void main() {" +
-                    "    vPosition = vec3(uMVMatrix * aPosition);" +
-                    "    vNormal = vec3(uMVMatrix * vec4(aPosition.xyz, 0.0));" +
-                    "    gl_Position = uMVPMatrix * aPosition;" +
+                    "    vec4 position = vec4(getPosition(), 1.0);" +
+                    "    vPosition = vec3(uMVMatrix * position);" +
+                    "    vNormal = vec3(uMVMatrix * vec4(position.xyz, 0.0));" +
+                    "    gl_Position = uMVPMatrix * position;" +
                     "}";
     private static final String fragmentShaderCode =
                     "precision mediump float;" +
@@ -41,274 +64,322 @@ public class Icosphere {
                     "    diffuse = diffuse * (1.0 / (1.0 + (0.25 * (distance - 1.0) * (distance - 1.0))));" +
                     "    gl_FragColor = uColor * diffuse;" +
                     "}";
-    private static final float t = (float) ((1.0 + Math.sqrt(5.0)) / 2.0);
-    private static final short initialDrawList[] = {
-            0, 11, 5,
-            0, 5, 1,
-            0, 1, 7,
-            0, 7, 10,
-            0, 10, 11,
-
-            1, 5, 9,
-            5, 11, 4,
-            11, 10, 2,
-            10, 7, 6,
-            7, 1, 8,
-
-            3, 9, 4,
-            3, 4, 2,
-            3, 2, 6,
-            3, 6, 8,
-            3, 8, 9,
-
-            4, 9, 5,
-            2, 4, 11,
-            6, 2, 10,
-            8, 6, 7,
-            9, 8, 1
-    };
-    private final int program;
+    private int program;
     private final boolean useVBOs;
-    protected float[] vertices;
-    protected short[] drawList;
+    private final boolean useIntIndices;
+    private final MeshCache meshCache;
+    private final VertexFormat vertexFormat;
 
     private int positionHandle;
-    private int colorHandle;
-    private int mvMatrixHandle;
-    private int mvpMatrixHandle;
-    private int lightPositionHandle;
-
-    private FloatBuffer vertexBuffer;
-    private ShortBuffer drawListBuffer;
-    private int sphereVertexBufferHandle;
-    private int sphereDrawListBufferHandle;
-    private int sphereDrawListLength;
-
-    public Icosphere(int refinementCount) {
+    private GLState.Uniform colorUniform;
+    private GLState.Uniform mvMatrixUniform;
+    private GLState.Uniform mvpMatrixUniform;
+    private GLState.Uniform lightPositionUniform;
+
+    private final MeshBuffers buffers;
+
+    public Icosphere(MeshCache meshCache) {
+        this(meshCache, VertexFormat.FLOAT);
+    }
+
+    public Icosphere(MeshCache meshCache, VertexFormat vertexFormat) {
         useVBOs = canUseVBOs();
-        int vertexShader = getVertexShader();
-        int fragmentShader = getFragmentShader();
-        program = GLES20.glCreateProgram();
-        GLES20.glAttachShader(program, vertexShader);
-        GLES20.glAttachShader(program, fragmentShader);
-        GLES20.glLinkProgram(program);
+        useIntIndices = canUseIntIndices();
+        this.meshCache = meshCache;
+        this.vertexFormat = vertexFormat;
+        buffers = new MeshBuffers(useVBOs, vertexFormat);
+        program = ProgramCache.get().getProgram(getVertexShaderCode(), getFragmentShaderCode());
         setupHandles(program);
-        if (useVBOs) {
-            setupBuffers();
+    }
+
+    /**
+     * Returns the mesh data for the level, from the cache, mapped from a MeshStore file or freshly
+     * built. Makes no GL calls, so it can run on any thread.
+     */
+    public MeshData[] build(int refinementCount) {
+        MeshData[] data = meshCache.get(refinementCount, getShading(), vertexFormat);
+        if (data == null) {
+            MeshStore store = MeshStore.get();
+            data = store.load(refinementCount, getShading(), vertexFormat, useIntIndices);
+            if (data == null) {
+                ExecutorService executor = refinementCount >= PARALLEL_REFINEMENT ? getBuildExecutor() : null;
+                data = createMeshData(meshCache.getIndexedMesh(refinementCount, executor));
+                store.save(refinementCount, getShading(), vertexFormat, data);
+            }
+            meshCache.put(refinementCount, getShading(), vertexFormat, data);
         }
-        recreate(refinementCount);
+        return data;
     }
 
-    public void recreate(int refinementCount) {
-        createModel(refinementCount);
-        fillBuffers();
-        if (useVBOs) {
-            bindBuffers();
+    /**
+     * GL thread only, the old mesh's buffers are reused where the new one fits.
+     */
+    public void upload(MeshData[] data) {
+        long start = PhaseTrace.begin("bindBuffers");
+        buffers.upload(data);
+        PhaseTrace.end("bindBuffers", start, 0, useVBOs ? MeshData.getByteSize(data) : 0);
+    }
+
+    /**
+     * Highest level buildSharedLevels can go to, -1 if this sphere can't draw shared levels.
+     */
+    public int getMaxSharedLevel() {
+        return useIntIndices ? MAX_SHARED_LEVEL : MAX_SHORT_INDEX_SHARED_LEVEL;
+    }
+
+    /**
+     * Builds the shared buffers for all levels up to maxLevel or maps them from a MeshStore file,
+     * makes no GL calls.
+     */
+    public SharedLevelData buildSharedLevels(int maxLevel) {
+        MeshStore store = MeshStore.get();
+        SharedLevelData data = store.loadSharedLevels(maxLevel, vertexFormat);
+        if (data == null) {
+            data = MeshBaker.bakeSharedLevels(maxLevel, vertexFormat, VERTEX_CACHE_SIZE);
+            store.saveSharedLevels(data, vertexFormat);
         }
+        return data;
+    }
+
+    /**
+     * Uploads the shared buffers, must run on the GL thread. They stay on the GPU next to the
+     * parts, so going back to a shared level after upload(MeshData[]) is free too.
+     */
+    public void uploadSharedLevels(SharedLevelData data) {
+        long start = PhaseTrace.begin("uploadSharedLevels");
+        buffers.uploadSharedLevels(data);
+        PhaseTrace.end("uploadSharedLevels", start, 0, useVBOs ? data.data.getByteSize() : 0);
+    }
+
+    /**
+     * GL thread only, the old mesh is drawn until continueUpload() is done.
+     */
+    public void beginUpload(MeshData[] data) {
+        buffers.beginUpload(data);
+    }
+
+    /**
+     * GL thread only.
+     */
+    public void beginUploadSharedLevels(SharedLevelData data, int level) {
+        buffers.beginUploadSharedLevels(data, level);
+    }
+
+    /**
+     * GL thread only, true once the upload is done.
+     */
+    public boolean continueUpload(long budgetNanos) {
+        long start = PhaseTrace.begin("streamUpload");
+        boolean done = buffers.continueUpload(budgetNanos);
+        PhaseTrace.end("streamUpload", start, 0, 0);
+        return done;
+    }
+
+    /**
+     * Draws the shared levels of a streamed upload as they come in.
+     */
+    public void setDrawPartialUploads(boolean drawPartialUploads) {
+        buffers.setDrawPartialUploads(drawPartialUploads);
+    }
+
+    public boolean canDraw() {
+        return buffers.canDraw();
+    }
+
+    public boolean isUploading() {
+        return buffers.isUploading();
+    }
+
+    /**
+     * GL thread only, draws nothing until the next upload.
+     */
+    public void release() {
+        buffers.release();
+    }
+
+    /**
+     * Keeps the uploaded mesh data, so restore() can bring the sphere back into a new context
+     * without building it again. Set before the first upload.
+     */
+    public void setRetainData(boolean retainData) {
+        buffers.setRetainData(retainData);
+    }
+
+    /**
+     * Makes the sphere draw in a new context, must run on the GL thread after the caches were
+     * reset. False if the mesh data wasn't retained, the sphere has to be built again then.
+     */
+    public boolean restore() {
+        program = ProgramCache.get().getProgram(getVertexShaderCode(), getFragmentShaderCode());
+        setupHandles(program);
+        long start = PhaseTrace.begin("restore");
+        boolean restored = buffers.restore();
+        PhaseTrace.end("restore", start, 0, 0);
+        return restored;
+    }
+
+    public boolean hasSharedLevel(int level) {
+        return buffers.hasSharedLevel(level);
+    }
+
+    /**
+     * Draws the level from the shared buffers from now on, must run on the GL thread.
+     */
+    public void setSharedLevel(int level) {
+        buffers.setSharedLevel(level);
     }
 
     public void draw(float[] mvpMatrix, float[] mvMatrix, float[] lightPosInEyeSpace, float[] color) {
-        GLES20.glUseProgram(getProgram());
-        GLES20.glEnableVertexAttribArray(positionHandle);
-
-        if (useVBOs) {
-            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, sphereVertexBufferHandle);
-            glVertexAttribPointer(positionHandle, 3, GLES20.GL_FLOAT, false, 0, 0);
-            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
-        } else {
-            GLES20.glVertexAttribPointer(positionHandle, 3, GLES20.GL_FLOAT, false, 0, vertexBuffer);
-        }
+        GLState state = GLState.get();
+        state.useProgram(getProgram());
+        state.setAttribArrays(GLState.attrib(positionHandle));
 
-        GLES20.glUniform4fv(colorHandle, 1, color, 0);
-        GLES20.glUniform3f(lightPositionHandle, lightPosInEyeSpace[0], lightPosInEyeSpace[1], lightPosInEyeSpace[2]);
-
-        GLES20.glUniformMatrix4fv(mvMatrixHandle, 1, false, mvMatrix, 0);
-        GLES20.glUniformMatrix4fv(mvpMatrixHandle, 1, false, mvpMatrix, 0);
-        if (useVBOs) {
-            GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, sphereDrawListBufferHandle);
-            glDrawElements(GLES20.GL_TRIANGLES, sphereDrawListLength, GLES20.GL_UNSIGNED_SHORT, 0);
-            GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
-        } else {
-            GLES20.glDrawElements(GLES20.GL_TRIANGLES, sphereDrawListLength, GLES20.GL_UNSIGNED_SHORT, drawListBuffer);
-        }
-        GLES20.glDisableVertexAttribArray(positionHandle);
-    }
-
-    private void addVertex(float x, float y, float z, int i) {
-        float length = Matrix.length(x, y, z);
-        vertices[i * 3] = x / length;
-        vertices[i * 3 + 1] = y / length;
-        vertices[i * 3 + 2] = z / length;
-    }
-
-    private short initialize() {
-        short vCount = 0;
-        addVertex(0f, 1f, 1f / t, vCount++);
-        addVertex(0f, 1f, -1f / t, vCount++);
-        addVertex(0f, -1f, 1f / t, vCount++);
-        addVertex(0f, -1f, -1f / t, vCount++);
-
-        addVertex(1f, -1f / t, 0f, vCount++);
-        addVertex(1f, 1f / t, 0f, vCount++);
-        addVertex(-1f, -1f / t, 0f, vCount++);
-        addVertex(-1f, 1f / t, 0f, vCount++);
-
-        addVertex(-1f / t, 0f, -1f, vCount++);
-        addVertex(1f / t, 0f, -1f, vCount++);
-        addVertex(-1f / t, 0f, 1f, vCount++);
-        addVertex(1f / t, 0f, 1f, vCount++);
-        return vCount;
-    }
-
-    private short findMidPoint(short v1, short v2, short vCount, LongSparseArray<Short> vertexCache) {
-        float x = (vertices[v1 * 3] + vertices[v2 * 3]) / 2f;
-        float y = (vertices[v1 * 3 + 1] + vertices[v2 * 3 + 1]) / 2f;
-        float z = (vertices[v1 * 3 + 2] + vertices[v2 * 3 + 2]) / 2f;
-        short tmp;
-        if (v1 > v2) {
-            tmp = v1;
-            v1 = v2;
-            v2 = tmp;
-        }
-        Short index = vertexCache.get((long) v1 << 32 | (long) v2);
-        if (index == null) {
-            addVertex(x, y, z, vCount);
-            vertexCache.put((long) v1 << 32 | (long) v2, vCount);
-            index = vCount;
+        colorUniform.set4fv(1, color, 0);
+        lightPositionUniform.set3f(lightPosInEyeSpace[0], lightPosInEyeSpace[1], lightPosInEyeSpace[2]);
+
+        mvMatrixUniform.setMatrix4fv(mvMatrix, 0);
+        mvpMatrixUniform.setMatrix4fv(mvpMatrix, 0);
+        buffers.draw(positionHandle, mvpMatrix, mvMatrix);
+    }
+
+    public boolean hasHardEdges() {
+        return false;
+    }
+
+    public int getDrawCallCount() {
+        return buffers.getDrawCallCount();
+    }
+
+    public int getTriangleCount() {
+        return buffers.getTriangleCount();
+    }
+
+    protected void resetDrawCounts() {
+        buffers.resetDrawCounts();
+    }
+
+    protected void countDraw(int vertexCount) {
+        buffers.countDraw(vertexCount);
+    }
+
+    protected Shading getShading() {
+        return Shading.SMOOTH;
+    }
+
+    protected MeshData[] createMeshData(Mesh mesh) {
+        return MeshBaker.bake(mesh, vertexFormat, useIntIndices, VERTEX_CACHE_SIZE);
+    }
+
+    protected String getVertexShaderCode() {
+        return getVertexDecoder("Position") + vertexShaderCode;
+    }
+
+    /**
+     * Declares an attribute a&lt;name&gt; for each name and a function vec3 get&lt;name&gt;() that
+     * returns it decoded from the vertex format.
+     */
+    protected String getVertexDecoder(String... names) {
+        StringBuilder sb = new StringBuilder();
+        if (vertexFormat == VertexFormat.OCTAHEDRAL) {
+            sb.append(octahedralDecodeCode);
         }
-        return index;
-    }
-
-    private void refine(short vCount, int refinementCount) {
-        int length = drawList.length;
-        int index;
-
-        LongSparseArray<Short> vertexCache = new LongSparseArray<>();
-        for (int k = 0; k < refinementCount; k++) {
-            short newDrawList[] = new short[(20 * (int) Math.pow(4, k + 1)) * 3];
-            index = 0;
-            for (int faceCount = 0; faceCount < length / 3; faceCount++) {
-                short v1 = drawList[faceCount * 3];
-                short v2 = drawList[faceCount * 3 + 1];
-                short v3 = drawList[faceCount * 3 + 2];
-
-                short a = findMidPoint(v1, v2, vCount, vertexCache);
-                if (a == vCount)
-                    vCount++;
-                short b = findMidPoint(v2, v3, vCount, vertexCache);
-                if (b == vCount)
-                    vCount++;
-                short c = findMidPoint(v3, v1, vCount, vertexCache);
-                if (c == vCount)
-                    vCount++;
-
-                newDrawList[index++] = v1;
-                newDrawList[index++] = a;
-                newDrawList[index++] = c;
-
-                newDrawList[index++] = c;
-                newDrawList[index++] = b;
-                newDrawList[index++] = v3;
-
-                newDrawList[index++] = a;
-                newDrawList[index++] = v2;
-                newDrawList[index++] = b;
-
-                newDrawList[index++] = a;
-                newDrawList[index++] = b;
-                newDrawList[index++] = c;
+        for (String name : names) {
+            if (vertexFormat == VertexFormat.OCTAHEDRAL) {
+                sb.append("attribute vec2 a").append(name).append(';');
+                sb.append("vec3 get").append(name).append("() { return octDecode(a").append(name)
+                        .append(" * (1.0 / ").append(OctahedralEncoding.SCALE).append(")); }");
+            } else {
+                sb.append("attribute vec3 a").append(name).append(';');
+                sb.append("vec3 get").append(name).append("() { return a").append(name).append("; }");
             }
-
-            drawList = newDrawList;
-            length = index;
         }
+        return sb.toString();
     }
 
-    protected int getVertexShader() {
-        return MyGLRenderer.loadShader(GLES20.GL_VERTEX_SHADER, vertexShaderCode);
+    protected VertexFormat getVertexFormat() {
+        return vertexFormat;
     }
 
-    protected int getFragmentShader() {
-        return MyGLRenderer.loadShader(GLES20.GL_FRAGMENT_SHADER, fragmentShaderCode);
+    protected int getVertexType() {
+        return MeshBuffers.getVertexType(vertexFormat);
+    }
+
+    protected String getFragmentShaderCode() {
+        return fragmentShaderCode;
     }
 
     protected void setupHandles(int program) {
-        positionHandle = GLES20.glGetAttribLocation(program, "aPosition");
-        colorHandle = GLES20.glGetUniformLocation(program, "uColor");
-        mvMatrixHandle = GLES20.glGetUniformLocation(program, "uMVMatrix");
-        mvpMatrixHandle = GLES20.glGetUniformLocation(program, "uMVPMatrix");
-        lightPositionHandle = GLES20.glGetUniformLocation(program, "uLightPosition");
-    }
-
-    protected void setupBuffers() {
-        final int buffers[] = new int[2];
-        GLES20.glGenBuffers(2, buffers, 0);
-        sphereVertexBufferHandle = buffers[0];
-        sphereDrawListBufferHandle = buffers[1];
-    }
-
-    private void createModel(int refinementCount) {
-        drawList = initialDrawList.clone();
-        vertices = new float[sizeList[refinementCount] * 3];
-        short count = initialize();
-        refine(count, refinementCount);
-    }
-
-    protected void fillBuffers() {
-        ByteBuffer bb = ByteBuffer.allocateDirect(vertices.length * 4);
-        bb.order(ByteOrder.nativeOrder());
-        vertexBuffer = bb.asFloatBuffer();
-        vertexBuffer.put(vertices);
-        vertexBuffer.position(0);
-        vertices = null;
-
-        ByteBuffer dlb = ByteBuffer.allocateDirect(drawList.length * 2);
-        dlb.order(ByteOrder.nativeOrder());
-        drawListBuffer = dlb.asShortBuffer();
-        drawListBuffer.put(drawList);
-        drawListBuffer.position(0);
-        drawList = null;
-
-        sphereDrawListLength = drawListBuffer.capacity();
-    }
-
-    protected void bindBuffers() {
-        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, sphereVertexBufferHandle);
-        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, vertexBuffer.capacity() * 4, vertexBuffer, GLES20.GL_STATIC_DRAW);
-        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, sphereDrawListBufferHandle);
-        GLES20.glBufferData(GLES20.GL_ELEMENT_ARRAY_BUFFER, drawListBuffer.capacity() * 2, drawListBuffer, GLES20.GL_STATIC_DRAW);
-        vertexBuffer.limit(0);
-        vertexBuffer = null;
-        drawListBuffer.limit(0);
-        drawListBuffer = null;
-        GLES20.glBindBuffer(GLES20.GL_ELEMENT_ARRAY_BUFFER, 0);
-        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+        GLState state = GLState.get();
+        positionHandle = state.getGL().glGetAttribLocation(program, "aPosition");
+        colorUniform = state.getUniform(program, "uColor");
+        mvMatrixUniform = state.getUniform(program, "uMVMatrix");
+        mvpMatrixUniform = state.getUniform(program, "uMVPMatrix");
+        lightPositionUniform = state.getUniform(program, "uLightPosition");
     }
 
-    protected int getProgram() {
-        return program;
+    protected int getPartCount() {
+        return buffers.getPartCount();
     }
 
-    @TargetApi(Build.VERSION_CODES.GINGERBREAD)
-    private void glDrawElements(int mode, int count, int type, int offset) {
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD) {
-            GLES20.glDrawElements(mode, count, type, offset);
-        }
+    protected MeshData getPart(int i) {
+        return buffers.getPart(i);
     }
 
-    @TargetApi(Build.VERSION_CODES.GINGERBREAD)
-    protected void glVertexAttribPointer(int indx, int size, int type, boolean normalized, int stride, int offset) {
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD) {
-            GLES20.glVertexAttribPointer(indx, size, type, normalized, stride, offset);
-        }
+    protected int getVertexCount(int i) {
+        return buffers.getVertexCount(i);
+    }
+
+    protected int getVertexBufferHandle(int i) {
+        return buffers.getVertexBufferHandle(i);
+    }
+
+    protected int getProgram() {
+        return program;
     }
 
     protected boolean useVBOs() {
         return useVBOs;
     }
 
+    protected boolean useIntIndices() {
+        return useIntIndices;
+    }
+
+    private static synchronized ExecutorService getBuildExecutor() {
+        if (buildExecutor == null) {
+            // daemon threads, idle ones don't keep the process alive
+            buildExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "IcosphereBuild");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return buildExecutor;
+    }
+
     private boolean canUseVBOs() {
         return Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD;
     }
 
+    private boolean canUseIntIndices() {
+        return hasExtension("GL_OES_element_index_uint");
+    }
+
+    // the ES 3.0 functions have Java bindings from API 18 on, the context has to be 3.0 as well
+    protected static boolean hasES30() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            return false;
+        }
+        String version = GLState.get().getGL().glGetString(GL.GL_VERSION);
+        return version != null && version.startsWith("OpenGL ES 3");
+    }
+
+    protected static boolean hasExtension(String name) {
+        String extensions = GLState.get().getGL().glGetString(GL.GL_EXTENSIONS);
+        return extensions != null && extensions.contains(name);
+    }
+
 }
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2015 10cars Software
+ */
+
+package com.tencarssoftware.icosphere;
+
+import com.tencarssoftware.icosphere.geometry.MeshCache;
+import com.tencarssoftware.icosphere.geometry.VertexFormat;
+
+/**
+ * Hard edges drawn from the same indexed mesh as the smooth sphere. The fragment shader gets the
+ * face normal from the screen space derivatives of the position, so no vertex is duplicated and
+ * the mesh data is shared with Icosphere in the cache. Needs GL_OES_standard_derivatives,
+ * IcosphereHardEdges is the fallback without it.
+ */
+public class IcosphereFlatDerivatives extends Icosphere {
+    private static final String vertexShaderCode =
+                    "uniform mat4 uMVPMatrix;" +
+                    "uniform mat4 uMVMatrix;" +
+                    "varying vec3 vPosition;" +
+                    "void main() {" +
+                    "    vec4 position = vec4(getPosition(), 1.0);" +
+                    "    vPosition = vec3(uMVMatrix * position);" +
+                    "    gl_Position = uMVPMatrix * position;" +
+                    "}";
+
+    // the derivatives of small triangles lose too much in mediump, so highp where there is one
+    private static final String fragmentShaderCode =
+                    "#extension GL_OES_standard_derivatives : enable\n" +
+                    "#ifdef GL_FRAGMENT_PRECISION_HIGH\n" +
+                    "precision highp float;\n" +
+                    "#else\n" +
+                    "precision mediump float;\n" +
+                    "#endif\n" +
+                    "uniform vec3 uLightPosition;" +
+                    "uniform vec4 uColor;" +
+                    "varying vec3 vPosition;" +
+                    "void main() {" +
+                    "    vec3 normal = normalize(cross(dFdx(vPosition), dFdy(vPosition)));" +
+                    "    float distance = length(uLightPosition - vPosition);" +
+                    "    vec3 lightVector = normalize(uLightPosition - vPosition);" +
+                    "    float diffuse = max(dot(normal, lightVector), 0.1);" +
+                    "    diffuse = diffuse * (1.0 / (1.0 + (0.25 * (distance - 1.0) * (distance - 1.0))));" +
+                    "    gl_FragColor = uColor * diffuse;" +
+                    "}";
+
+    public IcosphereFlatDerivatives(MeshCache meshCache) {
+        super(meshCache);
+    }
+
+    public IcosphereFlatDerivatives(MeshCache meshCache, VertexFormat vertexFormat) {
+        super(meshCache, vertexFormat);
+    }
+
+    /**
+     * Must be called on the GL thread.
+     */
+    public static boolean isSupported() {
+        return hasExtension("GL_OES_standard_derivatives");
+    }
+
+    @Override
+    public boolean hasHardEdges() {
+        return true;
+    }
+
+    @Override
+    protected String getVertexShaderCode() {
+        return getVertexDecoder("Position") + vertexShaderCode;
+    }
+
+    @Override
+    protected String getFragmentShaderCode() {
+        return fragmentShaderCode;
+    }
+
+}
@@ -4,25 +4,29 @@
 
 package com.tencarssoftware.icosphere;
 
-import android.opengl.GLES20;
-import android.opengl.Matrix;
+import com.tencarssoftware.icosphere.geometry.FlatShading;
+import com.tencarssoftware.icosphere.geometry.Mesh;
+import com.tencarssoftware.icosphere.geometry.MeshCache;
+import com.tencarssoftware.icosphere.geometry.MeshData;
+import com.tencarssoftware.icosphere.geometry.PhaseTrace;
+import com.tencarssoftware.icosphere.geometry.Shading;
+import com.tencarssoftware.icosphere.geometry.VertexFormat;
+import com.tencarssoftware.icosphere.render.GL;
+import com.tencarssoftware.icosphere.render.GLState;
 
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
-import java.nio.FloatBuffer;
 
 public class IcosphereHardEdges extends Icosphere {
     private static final String vertexShaderCode =
                     "uniform mat4 uMVPMatrix;" +
                     "uniform mat4 uMVMatrix;" +
-                    "attribute vec4 aPosition;" +
-                    "attribute vec3 aNormal;" +
                     "varying vec3 vPosition;" +
                     "varying vec3 vNormal;" +
                     "void main() {" +
-                    "    vPosition = vec3(uMVMatrix * aPosition);" +
-                    "    vNormal = vec3(uMVMatrix * vec4(aNormal, 0.0));" +
-                    "    gl_Position = uMVPMatrix * aPosition;" +
+                    "    vec4 position = vec4(getPosition(), 1.0);" +
+                    "    vPosition = vec3(uMVMatrix * position);" +
+                    "    vNormal = vec3(uMVMatrix * vec4(getNormal(), 0.0));" +
+                    "    gl_Position = uMVPMatrix * position;" +
                     "}";
 
     private static final String fragmentShaderCode =
@@ -42,135 +46,103 @@ public class IcosphereHardEdges extends Icosphere {
 
     private int positionHandle;
     private int normalHandle;
-    private int colorHandle;
-    private int mvMatrixHandle;
-    private int mvpMatrixHandle;
-    private int lightPositionHandle;
-
-    private FloatBuffer vertexBuffer;
-    private FloatBuffer normalBuffer;
-    private int sphereVertexBufferHandle;
-    private int sphereNormalsBufferHandle;
-    private int vertexBufferCapacity;
-
-    public IcosphereHardEdges(int refinementCount) {
-        super(refinementCount);
+    private GLState.Uniform colorUniform;
+    private GLState.Uniform mvMatrixUniform;
+    private GLState.Uniform mvpMatrixUniform;
+    private GLState.Uniform lightPositionUniform;
+
+    // view of the first normal, only used when drawing without VBOs
+    private MeshData normalBufferPart;
+    private ByteBuffer normalBuffer;
+
+    public IcosphereHardEdges(MeshCache meshCache) {
+        super(meshCache);
+    }
+
+    public IcosphereHardEdges(MeshCache meshCache, VertexFormat vertexFormat) {
+        super(meshCache, vertexFormat);
     }
 
     @Override
     public void draw(float[] mvpMatrix, float[] mvMatrix, float[] lightPosInEyeSpace, float[] color) {
-        GLES20.glUseProgram(getProgram());
-        GLES20.glEnableVertexAttribArray(positionHandle);
-        GLES20.glEnableVertexAttribArray(normalHandle);
+        resetDrawCounts();
+        GLState state = GLState.get();
+        state.useProgram(getProgram());
+        state.setAttribArrays(GLState.attrib(positionHandle) | GLState.attrib(normalHandle));
+        VertexFormat format = getVertexFormat();
+        int size = format.getComponentCount();
+        int type = getVertexType();
+        int stride = FlatShading.getStride(format);
         if (useVBOs()) {
-            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, sphereVertexBufferHandle);
-            glVertexAttribPointer(positionHandle, 3, GLES20.GL_FLOAT, false, 0, 0);
-            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, sphereNormalsBufferHandle);
-            glVertexAttribPointer(normalHandle, 3, GLES20.GL_FLOAT, false, 0, 0);
-            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+            int buffer = getVertexBufferHandle(0);
+            state.vertexAttribPointer(buffer, positionHandle, size, type, false, stride, 0);
+            state.vertexAttribPointer(buffer, normalHandle, size, type, false, stride, FlatShading.getNormalOffset(format));
         } else {
-            GLES20.glVertexAttribPointer(positionHandle, 3, GLES20.GL_FLOAT, false, 0, vertexBuffer);
-            GLES20.glVertexAttribPointer(normalHandle, 3, GLES20.GL_FLOAT, false, 0, normalBuffer);
+            MeshData part = getPart(0);
+            if (normalBufferPart != part) {
+                normalBuffer = part.vertices.duplicate();
+                normalBuffer.position(FlatShading.getNormalOffset(format));
+                normalBufferPart = part;
+            }
+            state.vertexAttribPointer(positionHandle, size, type, false, stride, part.vertices);
+            state.vertexAttribPointer(normalHandle, size, type, false, stride, normalBuffer);
         }
-        GLES20.glUniform4fv(colorHandle, 1, color, 0);
-        GLES20.glUniform3f(lightPositionHandle, lightPosInEyeSpace[0], lightPosInEyeSpace[1], lightPosInEyeSpace[2]);
-        GLES20.glUniformMatrix4fv(mvMatrixHandle, 1, false, mvMatrix, 0);
-        GLES20.glUniformMatrix4fv(mvpMatrixHandle, 1, false, mvpMatrix, 0);
-        GLES20.glDrawArrays(GLES20.GL_TRIANGLES, 0, vertexBufferCapacity / 3);
-        GLES20.glDisableVertexAttribArray(positionHandle);
-        GLES20.glDisableVertexAttribArray(normalHandle);
+        colorUniform.set4fv(1, color, 0);
+        lightPositionUniform.set3f(lightPosInEyeSpace[0], lightPosInEyeSpace[1], lightPosInEyeSpace[2]);
+        mvMatrixUniform.setMatrix4fv(mvMatrix, 0);
+        mvpMatrixUniform.setMatrix4fv(mvpMatrix, 0);
+        state.getGL().glDrawArrays(GL.GL_TRIANGLES, 0, getVertexCount(0));
+        countDraw(getVertexCount(0));
     }
 
+    // the triangle soup has no shared vertices
     @Override
-    protected int getVertexShader() {
-        return MyGLRenderer.loadShader(GLES20.GL_VERTEX_SHADER, vertexShaderCode);
+    public int getMaxSharedLevel() {
+        return -1;
     }
 
     @Override
-    protected int getFragmentShader() {
-        return MyGLRenderer.loadShader(GLES20.GL_FRAGMENT_SHADER, fragmentShaderCode);
+    public boolean hasHardEdges() {
+        return true;
     }
 
     @Override
-    protected void setupHandles(int program) {
-        positionHandle = GLES20.glGetAttribLocation(program, "aPosition");
-        normalHandle = GLES20.glGetAttribLocation(program, "aNormal");
-        colorHandle = GLES20.glGetUniformLocation(program, "uColor");
-        mvMatrixHandle = GLES20.glGetUniformLocation(program, "uMVMatrix");
-        mvpMatrixHandle = GLES20.glGetUniformLocation(program, "uMVPMatrix");
-        lightPositionHandle = GLES20.glGetUniformLocation(program, "uLightPosition");
+    protected Shading getShading() {
+        return Shading.FLAT;
     }
 
     @Override
-    protected void setupBuffers() {
-        final int buffers[] = new int[2];
-        GLES20.glGenBuffers(2, buffers, 0);
-        sphereVertexBufferHandle = buffers[0];
-        sphereNormalsBufferHandle = buffers[1];
-    }
-
-    private float[] getVertex(short index) {
-        float[] v = new float[3];
-        v[0] = vertices[index * 3];
-        v[1] = vertices[index * 3 + 1];
-        v[2] = vertices[index * 3 + 2];
-        return v;
+    protected MeshData[] createMeshData(Mesh mesh) {
+        long start = PhaseTrace.begin("fillBuffers");
+        ByteBuffer bb = MeshData.allocate(FlatShading.getByteSize(mesh.drawList, getVertexFormat()));
+        if (getVertexFormat() == VertexFormat.OCTAHEDRAL) {
+            FlatShading.fill(mesh.vertices, mesh.drawList, bb.asShortBuffer());
+        } else {
+            FlatShading.fill(mesh.vertices, mesh.drawList, bb.asFloatBuffer());
+        }
+        PhaseTrace.end("fillBuffers", start, bb.capacity(), 0);
+        return new MeshData[]{new MeshData(bb, mesh.drawList.length, null, 0, 0)};
     }
 
-    private float[] createNormal(float[] v1, float[] v2, float[] v3) {
-        float[] vU = {v2[0] - v1[0], v2[1] - v1[1], v2[2] - v1[2]};
-        float[] vV = {v3[0] - v1[0], v3[1] - v1[1], v3[2] - v1[2]};
-
-        float[] normal = {
-                (vU[1] * vV[2]) - (vU[2] * vV[1]),
-                (vU[2] * vV[0]) - (vU[0] * vV[2]),
-                (vU[0] * vV[1]) - (vU[1] * vV[0])};
-
-        // normalise the normal
-        final float length = Matrix.length(normal[0], normal[1], normal[2]);
-
-        normal[0] /= length;
-        normal[1] /= length;
-        normal[2] /= length;
-        return normal;
+    @Override
+    protected String getVertexShaderCode() {
+        return getVertexDecoder("Position", "Normal") + vertexShaderCode;
     }
 
     @Override
-    protected void fillBuffers() {
-        vertexBuffer = ByteBuffer.allocateDirect(drawList.length * 4 * 3).order(ByteOrder.nativeOrder()).asFloatBuffer();
-        normalBuffer = ByteBuffer.allocateDirect(drawList.length * 4 * 3).order(ByteOrder.nativeOrder()).asFloatBuffer();
-        int i = 0;
-        while (i < drawList.length) {
-            float[] v1 = getVertex(drawList[i++]);
-            vertexBuffer.put(v1);
-            float[] v2 = getVertex(drawList[i++]);
-            vertexBuffer.put(v2);
-            float[] v3 = getVertex(drawList[i++]);
-            vertexBuffer.put(v3);
-            float[] normal = createNormal(v1, v2, v3);
-            normalBuffer.put(normal);
-            normalBuffer.put(normal);
-            normalBuffer.put(normal);
-        }
-        vertexBuffer.position(0);
-        vertices = null;
-        normalBuffer.position(0);
-        drawList = null;
-        // save the capacity for drawing, if using VBOs we'll get rid of the actual buffer later
-        vertexBufferCapacity = vertexBuffer.capacity();
+    protected String getFragmentShaderCode() {
+        return fragmentShaderCode;
     }
 
     @Override
-    protected void bindBuffers() {
-        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, sphereVertexBufferHandle);
-        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, vertexBuffer.capacity() * 4, vertexBuffer, GLES20.GL_STATIC_DRAW);
-        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, sphereNormalsBufferHandle);
-        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, normalBuffer.capacity() * 4, normalBuffer, GLES20.GL_STATIC_DRAW);
-        vertexBuffer.limit(0);
-        vertexBuffer = null;
-        normalBuffer.limit(0);
-        normalBuffer = null;
-        GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, 0);
+    protected void setupHandles(int program) {
+        GLState state = GLState.get();
+        positionHandle = state.getGL().glGetAttribLocation(program, "aPosition");
+        normalHandle = state.getGL().glGetAttribLocation(program, "aNormal");
+        colorUniform = state.getUniform(program, "uColor");
+        mvMatrixUniform = state.getUniform(program, "uMVMatrix");
+        mvpMatrixUniform = state.getUniform(program, "uMVPMatrix");
+        lightPositionUniform = state.getUniform(program, "uLightPosition");
     }
 
 }
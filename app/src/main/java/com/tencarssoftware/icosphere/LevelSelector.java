@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2015 10cars Software
+ */
+
+package com.tencarssoftware.icosphere;
+
+import com.tencarssoftware.icosphere.geometry.IcosphereGenerator;
+
+/**
+ * Picks the lowest refinement level whose geometric error, projected on the screen, stays under
+ * maxErrorPixels. To go down a level the lower one has to be under half of that, so a sphere
+ * sitting right at a threshold doesn't switch back and forth.
+ */
+public class LevelSelector {
+    private static final float HYSTERESIS = 0.5f;
+
+    private final float maxErrorPixels;
+    private final int maxLevel;
+    private int level = -1;
+
+    public LevelSelector(float maxErrorPixels, int maxLevel) {
+        this.maxErrorPixels = maxErrorPixels;
+        this.maxLevel = maxLevel;
+    }
+
+    /**
+     * @param pixelsPerUnit the size of one unit at the sphere's center on the screen, for a unit
+     *                      sphere also its projected radius
+     */
+    public int select(float pixelsPerUnit) {
+        int up = getLevel(pixelsPerUnit, maxErrorPixels);
+        if (level < 0 || up > level) {
+            level = up;
+        } else {
+            int down = getLevel(pixelsPerUnit, maxErrorPixels * HYSTERESIS);
+            if (down < level) {
+                level = down;
+            }
+        }
+        return level;
+    }
+
+    public int getMaxLevel() {
+        return maxLevel;
+    }
+
+    private int getLevel(float pixelsPerUnit, float threshold) {
+        int l = 0;
+        while (l < maxLevel && IcosphereGenerator.getMaxError(l) * pixelsPerUnit > threshold) {
+            l++;
+        }
+        return l;
+    }
+
+}
@@ -5,9 +5,12 @@
 package com.tencarssoftware.icosphere;
 
 
+import android.annotation.TargetApi;
 import android.graphics.Color;
 import android.opengl.GLSurfaceView;
+import android.os.Build;
 import android.os.Bundle;
+import android.util.Log;
 import android.support.v4.app.Fragment;
 import android.support.v4.view.GestureDetectorCompat;
 import android.support.v7.widget.Toolbar;
@@ -20,12 +23,66 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
 
-public class MainFragment extends Fragment implements OnSurfaceCreatedCallback {
+import com.tencarssoftware.icosphere.geometry.IcosphereGenerator;
+import com.tencarssoftware.icosphere.geometry.MeshCache;
+import com.tencarssoftware.icosphere.geometry.PhaseTrace;
+import com.tencarssoftware.icosphere.geometry.VertexFormat;
+import com.tencarssoftware.icosphere.render.BufferPool;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Locale;
+
+public class MainFragment extends Fragment implements OnSurfaceCreatedCallback, OnLevelSelectedCallback {
     private static final float TOUCH_SCALE_FACTOR = 180f / 320f;
-    private static final int MAX_REFINEMENT = 5;
+    private static final int MAX_REFINEMENT = 9;
+    // the triangle soup of IcosphereHardEdges needs 72 bytes per triangle, level 8 would be over 90 MB
+    private static final int MAX_HARD_EDGES_REFINEMENT = 7;
+    // room for every level up to 6 with both shadings, or a few of the bigger ones
+    private static final long MESH_CACHE_BUDGET = 32 * 1024 * 1024;
+    // OCTAHEDRAL stores the vertices in a third of the memory, see OctahedralEncoding
+    private static final VertexFormat VERTEX_FORMAT = VertexFormat.FLOAT;
+    // upload all levels the sphere can share at once, so changing between them is instant
+    private static final boolean SHARED_LEVELS = true;
+    // the automatic refinement keeps the distance between mesh and sphere under this on the screen
+    private static final float MAX_ERROR_PIXELS = 1f;
+    // logs how many small spheres an IcosphereBatch draws at 60 fps, see BatchThroughputProbe
+    private static final boolean BATCH_BENCHMARK = false;
+    // shows frame times next to the info and writes them to frame_metrics.csv in the app's files when paused
+    private static final boolean FRAME_METRICS = false;
+    private static final long METRICS_INTERVAL_MILLIS = 500;
+    // keeps linked programs in the app's cache, so later starts don't compile shaders (needs ES 3.0)
+    private static final boolean PROGRAM_BINARIES = true;
+    // systrace sections and log lines for the phases of every mesh rebuild, see PhaseTrace
+    private static final boolean PHASE_TRACE = false;
+    // maps built meshes from the app's cache and the baked assets instead of generating them, see MeshStore
+    private static final boolean MESH_FILES = true;
+    // keeps the GL context while paused where the device allows it (API 11+), nothing to recover on resume then
+    private static final boolean PRESERVE_CONTEXT = true;
+    // keeps the sphere's mesh data off the Java heap, so a lost context only takes an upload instead of a rebuild
+    private static final boolean RETAIN_MESH_DATA = true;
+    // uploads a new mesh a bit per frame while the old one is drawn, instead of stalling a frame on it
+    private static final boolean STREAMING_UPLOADS = true;
+    // draws the shared levels that are already in while the rest is streamed
+    private static final boolean DRAW_PARTIAL_UPLOADS = false;
+    // tessellates the smooth sphere for the view, fine at the silhouette and coarse elsewhere, see AdaptiveTessellator
+    private static final boolean ADAPTIVE_TESSELLATION = false;
+
+    private final MeshCache meshCache = new MeshCache(MESH_CACHE_BUDGET);
+    private final FrameMetrics frameMetrics = FRAME_METRICS ? new FrameMetrics() : null;
+    private final Runnable updateMetrics = new Runnable() {
+        @Override
+        public void run() {
+            BufferPool pool = BufferPool.get();
+            metrics.setText(String.format(Locale.US, "%s\nGPU buffers: %.1f MB, %.1f MB pooled", frameMetrics.summarize(),
+                    pool.getLiveBytes() / 1048576f, pool.getPooledBytes() / 1048576f));
+            metrics.postDelayed(this, METRICS_INTERVAL_MILLIS);
+        }
+    };
 
     private GLSurfaceView mGLView;
     private MyGLRenderer renderer;
+    private MeshBuildScheduler scheduler;
     private GestureDetectorCompat gestureDetector;
     private MenuItem menuDecrease;
     private MenuItem menuIncrease;
@@ -35,10 +92,15 @@ public class MainFragment extends Fragment implements OnSurfaceCreatedCallback {
     private MenuItem menuDisableX;
     private MenuItem menuEnableY;
     private MenuItem menuDisableY;
+    private MenuItem menuAutoRefinement;
     private TextView info;
+    private TextView metrics;
     private Toolbar toolbar;
     private int refinementLevel;
     private boolean hardEdges;
+    // hard edges are drawn from the triangle soup until the GL thread finds derivatives supported
+    private volatile boolean hardEdgesSoup = true;
+    private boolean autoRefinement;
     private boolean enableX;
     private boolean enableY;
     private float angleX;
@@ -46,7 +108,36 @@ public class MainFragment extends Fragment implements OnSurfaceCreatedCallback {
 
     @Override
     public void onSurfaceCreated() {
+        hardEdgesSoup = !IcosphereFlatDerivatives.isSupported();
         createSphere();
+        if (getActivity() == null) {
+            return;
+        }
+        getActivity().runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                updateLevelSelector();
+                setupMenuItems();
+            }
+        });
+    }
+
+    @Override
+    public void onLevelSelected(final int level) {
+        if (getActivity() == null) {
+            return;
+        }
+        getActivity().runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                if (autoRefinement && level != refinementLevel) {
+                    refinementLevel = level;
+                    createSphere();
+                    updateInfo();
+                    setupMenuItems();
+                }
+            }
+        });
     }
 
     @Override
@@ -55,6 +146,7 @@ public class MainFragment extends Fragment implements OnSurfaceCreatedCallback {
         mGLView = (GLSurfaceView) rootView.findViewById(R.id.glview);
         toolbar = (Toolbar) rootView.findViewById(R.id.toolbar);
         info = (TextView) rootView.findViewById(R.id.info);
+        metrics = (TextView) rootView.findViewById(R.id.metrics);
         return rootView;
     }
 
@@ -64,6 +156,7 @@ public class MainFragment extends Fragment implements OnSurfaceCreatedCallback {
         if (savedInstanceState != null) {
             refinementLevel = savedInstanceState.getInt("refinementLevel");
             hardEdges = savedInstanceState.getBoolean("hardEdges");
+            autoRefinement = savedInstanceState.getBoolean("autoRefinement");
             enableX = savedInstanceState.getBoolean("enableX");
             enableY = savedInstanceState.getBoolean("enableY");
             angleX = savedInstanceState.getFloat("angleX");
@@ -83,13 +176,37 @@ public class MainFragment extends Fragment implements OnSurfaceCreatedCallback {
             }
         });
         mGLView.setEGLContextClientVersion(2);
+        if (PRESERVE_CONTEXT && Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+            preserveContext();
+        }
         renderer = new MyGLRenderer(this);
         renderer.setColor(convertColor(R.color.android_blue));
         renderer.setAngleX(angleX);
         renderer.setAngleY(angleY);
+        updateLevelSelector();
+        if (BATCH_BENCHMARK) {
+            renderer.enableBatchBenchmark();
+        }
+        if (STREAMING_UPLOADS) {
+            renderer.enableStreamingUploads(mGLView, DRAW_PARTIAL_UPLOADS);
+        }
+        if (frameMetrics != null) {
+            renderer.enableFrameMetrics(frameMetrics);
+            metrics.setVisibility(View.VISIBLE);
+        }
 
         mGLView.setRenderer(renderer);
-        mGLView.setRenderMode(GLSurfaceView.RENDERMODE_WHEN_DIRTY);
+        mGLView.setRenderMode(BATCH_BENCHMARK ? GLSurfaceView.RENDERMODE_CONTINUOUSLY : GLSurfaceView.RENDERMODE_WHEN_DIRTY);
+        if (PHASE_TRACE) {
+            PhaseTrace.setSink(new SystraceSink());
+        }
+        ProgramCache.get().setBinaryDirectory(PROGRAM_BINARIES ? new File(getActivity().getCacheDir(), "programs") : null);
+        MeshStore.get().setDirectory(MESH_FILES ? new File(getActivity().getCacheDir(), "meshes") : null);
+        MeshStore.get().setAssets(MESH_FILES ? getActivity().getAssets() : null);
+        scheduler = new MeshBuildScheduler(mGLView, renderer, meshCache, VERTEX_FORMAT, SHARED_LEVELS, RETAIN_MESH_DATA);
+        if (ADAPTIVE_TESSELLATION) {
+            scheduler.enableAdaptiveTessellation(MAX_ERROR_PIXELS);
+        }
 
         setupToolbar();
         updateInfo();
@@ -100,6 +217,7 @@ public class MainFragment extends Fragment implements OnSurfaceCreatedCallback {
         super.onSaveInstanceState(outState);
         outState.putInt("refinementLevel", refinementLevel);
         outState.putBoolean("hardEdges", hardEdges);
+        outState.putBoolean("autoRefinement", autoRefinement);
         outState.putBoolean("enableX", enableX);
         outState.putBoolean("enableY", enableY);
         outState.putFloat("angleX", angleX);
@@ -110,12 +228,37 @@ public class MainFragment extends Fragment implements OnSurfaceCreatedCallback {
     public void onPause() {
         super.onPause();
         mGLView.onPause();
+        if (frameMetrics != null) {
+            metrics.removeCallbacks(updateMetrics);
+            dumpFrameMetrics();
+        }
     }
 
     @Override
     public void onResume() {
         super.onResume();
+        renderer.traceResume(PhaseTrace.isEnabled() ? System.nanoTime() : 0);
         mGLView.onResume();
+        if (frameMetrics != null) {
+            metrics.post(updateMetrics);
+        }
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+    }
+
+    private void dumpFrameMetrics() {
+        File file = new File(getActivity().getFilesDir(), "frame_metrics.csv");
+        try {
+            frameMetrics.dump(file);
+        } catch (IOException e) {
+            Log.w("MainFragment", "Unable to write frame metrics", e);
+        }
     }
 
     private float[] convertColor(int id) {
@@ -136,7 +279,7 @@ public class MainFragment extends Fragment implements OnSurfaceCreatedCallback {
             sb.append(getString(R.string.shape_icosphere));
         sb.append('\n');
         sb.append(getString(R.string.shape_vertex_count));
-        sb.append(Icosphere.sizeList[refinementLevel]);
+        sb.append(IcosphereGenerator.getVertexCount(refinementLevel));
         sb.append('\n');
         if (hardEdges)
             sb.append(getString(R.string.shape_hard_edges));
@@ -146,11 +289,11 @@ public class MainFragment extends Fragment implements OnSurfaceCreatedCallback {
     }
 
     private void setupMenuItems() {
-        if (refinementLevel <= 0)
+        if (refinementLevel <= 0 || autoRefinement)
             disableMenuItem(menuDecrease);
         else
             enableMenuItem(menuDecrease);
-        if (refinementLevel >= MAX_REFINEMENT)
+        if (refinementLevel >= getMaxRefinement() || autoRefinement)
             disableMenuItem(menuIncrease);
         else
             enableMenuItem(menuIncrease);
@@ -175,6 +318,7 @@ public class MainFragment extends Fragment implements OnSurfaceCreatedCallback {
             menuEnableY.setVisible(true);
             menuDisableY.setVisible(false);
         }
+        menuAutoRefinement.setChecked(autoRefinement);
     }
 
     private void setupToolbar() {
@@ -188,6 +332,7 @@ public class MainFragment extends Fragment implements OnSurfaceCreatedCallback {
         menuDisableX = menu.findItem(R.id.action_disable_x);
         menuEnableY = menu.findItem(R.id.action_enable_y);
         menuDisableY = menu.findItem(R.id.action_disable_y);
+        menuAutoRefinement = menu.findItem(R.id.action_auto_refinement);
         setupMenuItems();
         toolbar.setOnMenuItemClickListener(new Toolbar.OnMenuItemClickListener() {
             @Override
@@ -220,6 +365,9 @@ public class MainFragment extends Fragment implements OnSurfaceCreatedCallback {
                     case R.id.action_disable_y:
                         enableY = false;
                         break;
+                    case R.id.action_auto_refinement:
+                        setAutoRefinement(!autoRefinement);
+                        break;
                 }
                 updateInfo();
                 setupMenuItems();
@@ -228,33 +376,45 @@ public class MainFragment extends Fragment implements OnSurfaceCreatedCallback {
         });
     }
 
+    @TargetApi(Build.VERSION_CODES.HONEYCOMB)
+    private void preserveContext() {
+        mGLView.setPreserveEGLContextOnPause(true);
+    }
+
     private void createSphere() {
-        if (hardEdges) {
-            mGLView.queueEvent(new Runnable() {
-                @Override
-                public void run() {
-                    renderer.setSphere(new IcosphereHardEdges(refinementLevel));
-                    mGLView.requestRender();
-                }
-            });
-        } else {
-            mGLView.queueEvent(new Runnable() {
-                @Override
-                public void run() {
-                    renderer.setSphere(new Icosphere(refinementLevel));
-                    mGLView.requestRender();
-                }
-            });
-        }
+        scheduler.request(hardEdges, refinementLevel);
     }
 
     private void setHardEdges(boolean flag) {
         if (hardEdges != flag) {
             hardEdges = flag;
+            refinementLevel = Math.min(refinementLevel, getMaxRefinement());
+            updateLevelSelector();
             createSphere();
         }
     }
 
+    private void setAutoRefinement(boolean flag) {
+        autoRefinement = flag;
+        updateLevelSelector();
+        mGLView.requestRender();
+    }
+
+    private void updateLevelSelector() {
+        if (autoRefinement) {
+            renderer.setLevelSelector(new LevelSelector(MAX_ERROR_PIXELS, getMaxRefinement()), this);
+        } else {
+            renderer.setLevelSelector(null, null);
+        }
+    }
+
+    private int getMaxRefinement() {
+        if (hardEdges) {
+            return hardEdgesSoup ? MAX_HARD_EDGES_REFINEMENT : MAX_REFINEMENT;
+        }
+        return ADAPTIVE_TESSELLATION ? AdaptiveIcosphere.MAX_LEVEL : MAX_REFINEMENT;
+    }
+
     private void center() {
         angleX = 0f;
         angleY = 0f;
@@ -266,26 +426,14 @@ public class MainFragment extends Fragment implements OnSurfaceCreatedCallback {
     private void decreaseRefinement() {
         if (refinementLevel > 0) {
             refinementLevel--;
-            mGLView.queueEvent(new Runnable() {
-                @Override
-                public void run() {
-                    renderer.getSphere().recreate(refinementLevel);
-                    mGLView.requestRender();
-                }
-            });
+            createSphere();
         }
     }
 
     private void increaseRefinement() {
-        if (refinementLevel < MAX_REFINEMENT) {
+        if (refinementLevel < getMaxRefinement()) {
             refinementLevel++;
-            mGLView.queueEvent(new Runnable() {
-                @Override
-                public void run() {
-                    renderer.getSphere().recreate(refinementLevel);
-                    mGLView.requestRender();
-                }
-            });
+            createSphere();
         }
     }
 
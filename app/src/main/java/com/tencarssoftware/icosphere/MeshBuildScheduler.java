@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2015 10cars Software
+ */
+
+package com.tencarssoftware.icosphere;
+
+import android.opengl.GLSurfaceView;
+
+import com.tencarssoftware.icosphere.geometry.AdaptiveTessellator;
+import com.tencarssoftware.icosphere.geometry.MeshCache;
+import com.tencarssoftware.icosphere.geometry.MeshData;
+import com.tencarssoftware.icosphere.geometry.PhaseTrace;
+import com.tencarssoftware.icosphere.geometry.SharedLevelData;
+import com.tencarssoftware.icosphere.geometry.VertexFormat;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Builds meshes on a background thread and only hands the upload to the GL thread, so frames
+ * keep coming (with the old sphere) while a new one is built. Only the latest request counts:
+ * every step of an older request checks whether it has been superseded and drops out, so
+ * tapping "increase" three times builds one mesh, not three. With shared levels the first
+ * request builds every level up to the sphere's max shared level at once, after that changing
+ * between those levels is done on the GL thread without building or uploading anything.
+ * With adaptive tessellation smooth spheres are AdaptiveIcospheres, tessellated here for the view
+ * whenever it changes and streamed in like a built mesh.
+ * With PhaseTrace enabled every request is timed until the first frame drawn with its mesh.
+ */
+public class MeshBuildScheduler {
+    private final GLSurfaceView view;
+    private final MyGLRenderer renderer;
+    private final MeshCache meshCache;
+    private final VertexFormat vertexFormat;
+    private final boolean sharedLevels;
+    private final boolean retainData;
+    // 0 unless smooth spheres are tessellated for the view
+    private float adaptiveErrorPixels;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final AtomicInteger generation = new AtomicInteger();
+
+    public MeshBuildScheduler(GLSurfaceView view, MyGLRenderer renderer, MeshCache meshCache, VertexFormat vertexFormat,
+                              boolean sharedLevels, boolean retainData) {
+        this.view = view;
+        this.renderer = renderer;
+        this.meshCache = meshCache;
+        this.vertexFormat = vertexFormat;
+        this.sharedLevels = sharedLevels;
+        this.retainData = retainData;
+    }
+
+    /**
+     * Draws smooth spheres as AdaptiveIcospheres with the error on the screen under maxErrorPixels.
+     * Call before the first request.
+     */
+    public void enableAdaptiveTessellation(float maxErrorPixels) {
+        adaptiveErrorPixels = maxErrorPixels;
+    }
+
+    public void request(final boolean hardEdges, final int refinementLevel) {
+        final int id = generation.incrementAndGet();
+        final long start = PhaseTrace.isEnabled() ? System.nanoTime() : 0;
+        view.queueEvent(new Runnable() {
+            @Override
+            public void run() {
+                if (id != generation.get()) {
+                    return;
+                }
+                // shaders can only be compiled on the GL thread, the mesh is built on ours
+                Icosphere sphere = renderer.getSphere();
+                if (adaptiveErrorPixels > 0 && !hardEdges) {
+                    setAdaptiveSphere(sphere, refinementLevel, start);
+                    return;
+                }
+                if (sphere == null || sphere.hasHardEdges() != hardEdges) {
+                    sphere = hardEdges ? createHardEdgesSphere() : new Icosphere(meshCache, vertexFormat);
+                    sphere.setRetainData(retainData);
+                }
+                int maxSharedLevel = sharedLevels ? sphere.getMaxSharedLevel() : -1;
+                if (refinementLevel > maxSharedLevel) {
+                    build(id, sphere, refinementLevel, start);
+                } else if (sphere.hasSharedLevel(refinementLevel)) {
+                    sphere.setSharedLevel(refinementLevel);
+                    renderer.setSphere(sphere);
+                    renderer.traceRebuild(refinementLevel, start);
+                    view.requestRender();
+                } else {
+                    buildSharedLevels(id, sphere, maxSharedLevel, refinementLevel, start);
+                }
+            }
+        });
+    }
+
+    // GL thread only, the sphere is tessellated once the next frame has its view
+    private void setAdaptiveSphere(Icosphere sphere, int refinementLevel, long start) {
+        AdaptiveIcosphere adaptiveSphere;
+        if (sphere instanceof AdaptiveIcosphere) {
+            adaptiveSphere = (AdaptiveIcosphere) sphere;
+        } else {
+            adaptiveSphere = new AdaptiveIcosphere(meshCache, vertexFormat, this, adaptiveErrorPixels);
+            adaptiveSphere.setRetainData(retainData);
+        }
+        adaptiveSphere.setMaxLevel(refinementLevel, start);
+        renderer.setSphere(adaptiveSphere);
+        view.requestRender();
+    }
+
+    /**
+     * GL thread only, false if nothing was started. A newer request drops the result.
+     */
+    public boolean tessellate(final AdaptiveIcosphere sphere, final AdaptiveTessellator tessellator,
+                              final float[] camera, final float pixelsPerUnit) {
+        if (executor.isShutdown()) {
+            return false;
+        }
+        final int id = generation.get();
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final MeshData[] data = id == generation.get() ? sphere.tessellate(tessellator, camera, pixelsPerUnit) : null;
+                view.queueEvent(new Runnable() {
+                    @Override
+                    public void run() {
+                        boolean dropped = id != generation.get();
+                        sphere.endTessellation(tessellator, data != null && dropped);
+                        if (data == null || dropped) {
+                            return;
+                        }
+                        renderer.uploadSphere(sphere, data, sphere.getMaxLevel(), sphere.takeTraceStart());
+                        view.requestRender();
+                    }
+                });
+            }
+        });
+        return true;
+    }
+
+    private Icosphere createHardEdgesSphere() {
+        if (IcosphereFlatDerivatives.isSupported()) {
+            return new IcosphereFlatDerivatives(meshCache, vertexFormat);
+        }
+        return new IcosphereHardEdges(meshCache, vertexFormat);
+    }
+
+    public void shutdown() {
+        generation.incrementAndGet();
+        executor.shutdown();
+    }
+
+    private void build(final int id, final Icosphere sphere, final int refinementLevel, final long start) {
+        if (executor.isShutdown()) {
+            return;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (id != generation.get()) {
+                    return;
+                }
+                final MeshData[] data = sphere.build(refinementLevel);
+                view.queueEvent(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (id != generation.get()) {
+                            return;
+                        }
+                        renderer.uploadSphere(sphere, data, refinementLevel, start);
+                        view.requestRender();
+                    }
+                });
+            }
+        });
+    }
+
+    private void buildSharedLevels(final int id, final Icosphere sphere, final int maxLevel, final int refinementLevel,
+                                   final long start) {
+        if (executor.isShutdown()) {
+            return;
+        }
+        executor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (id != generation.get()) {
+                    return;
+                }
+                final SharedLevelData data = sphere.buildSharedLevels(maxLevel);
+                view.queueEvent(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (id != generation.get()) {
+                            return;
+                        }
+                        renderer.uploadSharedLevels(sphere, data, refinementLevel, start);
+                        view.requestRender();
+                    }
+                });
+            }
+        });
+    }
+
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright (c) 2015 10cars Software
+ */
+
+package com.tencarssoftware.icosphere;
+
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+import android.util.Log;
+
+import com.tencarssoftware.icosphere.geometry.MeshData;
+import com.tencarssoftware.icosphere.geometry.MeshFile;
+import com.tencarssoftware.icosphere.geometry.PhaseTrace;
+import com.tencarssoftware.icosphere.geometry.Shading;
+import com.tencarssoftware.icosphere.geometry.SharedLevelData;
+import com.tencarssoftware.icosphere.geometry.VertexFormat;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * Built meshes as MeshFiles, so a level is mapped from a file instead of generated. Looks in the
+ * directory first, then in the meshes the bakeMeshes task put into the assets (stored
+ * uncompressed, so they can be mapped too). Built meshes are written to the directory. The
+ * lower levels are generated faster than they are read and aren't stored. Any thread.
+ */
+public class MeshStore {
+    private static final String TAG = "MeshStore";
+    private static final String ASSET_DIRECTORY = "meshes";
+    private static final int MIN_LEVEL = 5;
+    private static final MeshStore instance = new MeshStore();
+
+    private volatile File directory;
+    private volatile AssetManager assets;
+
+    private MeshStore() {
+    }
+
+    public static MeshStore get() {
+        return instance;
+    }
+
+    /**
+     * Keeps built meshes in the directory, null to keep none.
+     */
+    public void setDirectory(File directory) {
+        this.directory = directory;
+    }
+
+    public void setAssets(AssetManager assets) {
+        this.assets = assets;
+    }
+
+    /**
+     * The parts of the level, null if no file has them. Parts with 32 bit indices are only
+     * taken when they can be drawn.
+     */
+    public MeshData[] load(int level, Shading shading, VertexFormat format, boolean useIntIndices) {
+        if (level < MIN_LEVEL) {
+            return null;
+        }
+        String name = MeshFile.getName(level, shading, format);
+        long start = PhaseTrace.begin("mapMesh");
+        MeshData[] parts = null;
+        try {
+            File file = getFile(name);
+            if (file != null) {
+                parts = MeshFile.map(file, level, shading, format);
+            }
+            if (!fits(parts, useIntIndices)) {
+                AssetFileDescriptor fd = openAsset(name);
+                if (fd != null) {
+                    try {
+                        FileInputStream in = fd.createInputStream();
+                        try {
+                            parts = MeshFile.map(in.getChannel(), fd.getStartOffset(), fd.getLength(), level, shading, format);
+                        } finally {
+                            in.close();
+                        }
+                    } finally {
+                        fd.close();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to map " + name, e);
+            parts = null;
+        }
+        PhaseTrace.end("mapMesh", start, 0, 0);
+        return fits(parts, useIntIndices) ? parts : null;
+    }
+
+    public SharedLevelData loadSharedLevels(int maxLevel, VertexFormat format) {
+        String name = MeshFile.getSharedLevelsName(maxLevel, format);
+        long start = PhaseTrace.begin("mapMesh");
+        SharedLevelData levels = null;
+        try {
+            File file = getFile(name);
+            if (file != null) {
+                levels = MeshFile.mapSharedLevels(file, maxLevel, format);
+            }
+            if (levels == null) {
+                AssetFileDescriptor fd = openAsset(name);
+                if (fd != null) {
+                    try {
+                        FileInputStream in = fd.createInputStream();
+                        try {
+                            levels = MeshFile.mapSharedLevels(in.getChannel(), fd.getStartOffset(), fd.getLength(), maxLevel, format);
+                        } finally {
+                            in.close();
+                        }
+                    } finally {
+                        fd.close();
+                    }
+                }
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to map " + name, e);
+            levels = null;
+        }
+        PhaseTrace.end("mapMesh", start, 0, 0);
+        return levels;
+    }
+
+    public void save(int level, Shading shading, VertexFormat format, MeshData[] parts) {
+        File directory = this.directory;
+        if (level < MIN_LEVEL || directory == null) {
+            return;
+        }
+        File file = new File(directory, MeshFile.getName(level, shading, format));
+        long start = PhaseTrace.begin("writeMesh");
+        try {
+            MeshFile.write(file, level, shading, format, parts);
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to write " + file, e);
+        }
+        PhaseTrace.end("writeMesh", start, 0, 0);
+    }
+
+    public void saveSharedLevels(SharedLevelData levels, VertexFormat format) {
+        File directory = this.directory;
+        if (directory == null) {
+            return;
+        }
+        File file = new File(directory, MeshFile.getSharedLevelsName(levels.getMaxLevel(), format));
+        long start = PhaseTrace.begin("writeMesh");
+        try {
+            MeshFile.write(file, levels, format);
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to write " + file, e);
+        }
+        PhaseTrace.end("writeMesh", start, 0, 0);
+    }
+
+    private File getFile(String name) {
+        File directory = this.directory;
+        if (directory == null) {
+            return null;
+        }
+        File file = new File(directory, name);
+        return file.exists() ? file : null;
+    }
+
+    // null when the mesh wasn't baked
+    private AssetFileDescriptor openAsset(String name) {
+        AssetManager assets = this.assets;
+        if (assets == null) {
+            return null;
+        }
+        try {
+            return assets.openFd(ASSET_DIRECTORY + "/" + name);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static boolean fits(MeshData[] parts, boolean useIntIndices) {
+        if (parts == null) {
+            return false;
+        }
+        for (MeshData part : parts) {
+            if (part.drawListElementSize == 4 && !useIntIndices) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+}
@@ -4,15 +4,27 @@
 
 package com.tencarssoftware.icosphere;
 
-import android.opengl.GLES20;
 import android.opengl.GLSurfaceView;
 import android.opengl.Matrix;
 import android.util.Log;
 
+import com.tencarssoftware.icosphere.geometry.IcosphereGenerator;
+import com.tencarssoftware.icosphere.geometry.MeshData;
+import com.tencarssoftware.icosphere.geometry.PhaseTrace;
+import com.tencarssoftware.icosphere.geometry.SharedLevelData;
+import com.tencarssoftware.icosphere.render.BufferPool;
+import com.tencarssoftware.icosphere.render.GL;
+import com.tencarssoftware.icosphere.render.GLState;
+import com.tencarssoftware.icosphere.render.IcosphereBatch;
+
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
 
 public class MyGLRenderer implements GLSurfaceView.Renderer {
+    // the spheres of the batch benchmark, 320 triangles each
+    private static final int BATCH_REFINEMENT = 2;
+    // of a frame's CPU time that goes into a streamed upload, leaves most of 16 ms for the rest
+    private static final long UPLOAD_BUDGET_NANOS = 2000000;
     private final float[] lightPosInEyeSpace = new float[4];
     private final float[] mvMatrix = new float[16];
     private final float[] mvpMatrix = new float[16];
@@ -21,7 +33,37 @@ public class MyGLRenderer implements GLSurfaceView.Renderer {
     private final float[] viewMatrix = new float[16];
 
     private final OnSurfaceCreatedCallback callback;
-    private Icosphere sphere;
+    private volatile Icosphere sphere;
+    private volatile LevelSelector levelSelector;
+    private volatile OnLevelSelectedCallback levelCallback;
+    // GL thread only
+    private LevelSelector activeSelector;
+    private int selectedLevel;
+    private int height;
+    // GL thread only, set while the batch benchmark runs
+    private boolean batchBenchmark;
+    private IcosphereBatch batch;
+    private BatchThroughputProbe batchProbe;
+    // null unless frame metrics are enabled, the timer also needs GL_EXT_disjoint_timer_query
+    private FrameMetrics frameMetrics;
+    private GpuTimer gpuTimer;
+    private final int[] stateCounts = new int[2];
+    // null unless uploads are streamed, the view renders frames until they are done
+    private GLSurfaceView streamingView;
+    private boolean drawPartialUploads;
+    // GL thread only, the sphere whose mesh is streamed and the level change it is for
+    private Icosphere uploadingSphere;
+    private int uploadingLevel;
+    private long uploadingStart;
+    // GL thread only, upload time since the last frame and whether the frame is part of a level change
+    private long uploadNanos;
+    private boolean levelChange;
+    // GL thread only, the mesh change waiting for its first frame, 0 when none is traced
+    private long rebuildStart;
+    private int rebuildLevel;
+    // the resume waiting for its first frame with a sphere, 0 when none is traced, and how the context came back
+    private volatile long resumeStart;
+    private volatile String contextRecovery;
     private float angleX;
     private float angleY;
     private float color[];
@@ -31,14 +73,15 @@ public class MyGLRenderer implements GLSurfaceView.Renderer {
     }
 
     public static int loadShader(int type, String code) {
-        int shader = GLES20.glCreateShader(type);
-        GLES20.glShaderSource(shader, code);
-        GLES20.glCompileShader(shader);
+        GL gl = GLState.get().getGL();
+        int shader = gl.glCreateShader(type);
+        gl.glShaderSource(shader, code);
+        gl.glCompileShader(shader);
         int[] params = new int[1];
-        GLES20.glGetShaderiv(shader, GLES20.GL_COMPILE_STATUS, params, 0);
+        gl.glGetShaderiv(shader, GL.GL_COMPILE_STATUS, params, 0);
         if (params[0] == 0) {
-            Log.d("MyGLRenderer", "Shader info log: " + GLES20.glGetShaderInfoLog(shader));
-            GLES20.glDeleteShader(shader);
+            Log.d("MyGLRenderer", "Shader info log: " + gl.glGetShaderInfoLog(shader));
+            gl.glDeleteShader(shader);
             throw new RuntimeException("Unable to compile shader.");
         }
         return shader;
@@ -46,9 +89,14 @@ public class MyGLRenderer implements GLSurfaceView.Renderer {
 
     @Override
     public void onSurfaceCreated(GL10 unused, EGLConfig config) {
-        GLES20.glClearColor(0f, 0f, 0f, 1f);
-        GLES20.glEnable(GLES20.GL_CULL_FACE);
-        GLES20.glEnable(GLES20.GL_DEPTH_TEST);
+        // a new context, whatever the spheres had on the GPU is gone
+        GLState.get().reset(new AndroidGL());
+        ProgramCache.get().reset();
+        BufferPool.get().reset();
+        GL gl = GLState.get().getGL();
+        gl.glClearColor(0f, 0f, 0f, 1f);
+        gl.glEnable(GL.GL_CULL_FACE);
+        gl.glEnable(GL.GL_DEPTH_TEST);
         Matrix.setLookAtM(viewMatrix, 0, 0, 0, -0.5f, 0f, 0f, -10f, 0f, 1f, 0f);
         float[] mLightModelMatrix = new float[16];
         float[] lightPosInModelSpace = new float[]{0f, 0f, 0f, 1f};
@@ -56,30 +104,241 @@ public class MyGLRenderer implements GLSurfaceView.Renderer {
         Matrix.setIdentityM(mLightModelMatrix, 0);
         Matrix.multiplyMV(lightPosInWorldSpace, 0, mLightModelMatrix, 0, lightPosInModelSpace, 0);
         Matrix.multiplyMV(lightPosInEyeSpace, 0, viewMatrix, 0, lightPosInWorldSpace, 0);
-        callback.onSurfaceCreated();
+        if (batchBenchmark) {
+            batch = new IcosphereBatch(IcosphereGenerator.create(BATCH_REFINEMENT), Icosphere.hasES30(), ProgramCache.get());
+            batchProbe = new BatchThroughputProbe(batch);
+        }
+        // the queries of the old timer went with the old context
+        gpuTimer = frameMetrics != null && GpuTimer.isSupported() ? new GpuTimer() : null;
+        // a sphere with retained data only needs an upload, otherwise it is built again. One that
+        // was being streamed in is newer than the one drawn, it is restored with all of its mesh
+        Icosphere sphere = uploadingSphere != null ? uploadingSphere : this.sphere;
+        uploadingSphere = null;
+        if (sphere != null && sphere.restore()) {
+            this.sphere = sphere;
+            contextRecovery = "restored";
+        } else {
+            this.sphere = null;
+            contextRecovery = sphere != null ? "rebuilt" : "created";
+            callback.onSurfaceCreated();
+        }
     }
 
     @Override
     public void onDrawFrame(GL10 unused) {
-        GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
+        long start = 0;
+        if (frameMetrics != null) {
+            start = System.nanoTime();
+            if (gpuTimer != null) {
+                gpuTimer.begin();
+            }
+        }
+        if (uploadingSphere != null) {
+            continueUpload();
+        }
+        Icosphere sphere = this.sphere;
+        GLState.get().getGL().glClear(GL.GL_COLOR_BUFFER_BIT | GL.GL_DEPTH_BUFFER_BIT);
+        Matrix.setIdentityM(modelMatrix, 0);
+        Matrix.translateM(modelMatrix, 0, 0f, 0f, -2.5f); // push away a bit
+        Matrix.rotateM(modelMatrix, 0, angleX, 0f, 1f, 0f); // apply rotation x
+        Matrix.rotateM(modelMatrix, 0, angleY, 1f, 0f, 0f); // apply rotation y
+        Matrix.multiplyMM(mvMatrix, 0, viewMatrix, 0, modelMatrix, 0);
+        Matrix.multiplyMM(mvpMatrix, 0, projectionMatrix, 0, mvMatrix, 0);
+        if (sphere instanceof AdaptiveIcosphere) {
+            ((AdaptiveIcosphere) sphere).updateView(mvMatrix, projectionMatrix[5] * height / 2f);
+        }
         if (sphere != null) {
-            Matrix.setIdentityM(modelMatrix, 0);
-            Matrix.translateM(modelMatrix, 0, 0f, 0f, -2.5f); // push away a bit
-            Matrix.rotateM(modelMatrix, 0, angleX, 0f, 1f, 0f); // apply rotation x
-            Matrix.rotateM(modelMatrix, 0, angleY, 1f, 0f, 0f); // apply rotation y
-            Matrix.multiplyMM(mvMatrix, 0, viewMatrix, 0, modelMatrix, 0);
-            Matrix.multiplyMM(mvpMatrix, 0, projectionMatrix, 0, mvMatrix, 0);
             sphere.draw(mvpMatrix, mvMatrix, lightPosInEyeSpace, color);
+            selectLevel();
+        }
+        if (batch != null) {
+            batch.draw(mvpMatrix, mvMatrix, lightPosInEyeSpace);
+            if (!batchProbe.onFrame(System.nanoTime())) {
+                batch.release();
+                batch = null;
+                batchProbe = null;
+            }
+        }
+        if (frameMetrics != null) {
+            recordFrame(sphere, start);
+        }
+        if (rebuildStart != 0) {
+            PhaseTrace.endRebuild(rebuildLevel, rebuildStart);
+            rebuildStart = 0;
+        }
+        if (resumeStart != 0 && sphere != null) {
+            PhaseTrace.endResume(contextRecovery, resumeStart);
+            resumeStart = 0;
         }
     }
 
     @Override
     public void onSurfaceChanged(GL10 unused, int width, int height) {
-        GLES20.glViewport(0, 0, width, height);
+        GLState.get().getGL().glViewport(0, 0, width, height);
+        this.height = height;
         float ratio = (float) width / height;
         Matrix.frustumM(projectionMatrix, 0, -ratio, ratio, -1f, 1f, 1f, 15f);
     }
 
+    private void recordFrame(Icosphere sphere, long start) {
+        int triangles = 0;
+        int drawCalls = 0;
+        if (sphere != null) {
+            triangles += sphere.getTriangleCount();
+            drawCalls += sphere.getDrawCallCount();
+        }
+        if (batch != null) {
+            triangles += batch.getTriangleCount();
+            drawCalls += batch.getDrawCallCount();
+        }
+        GLState.get().takeCounts(stateCounts);
+        long frame = frameMetrics.record(System.nanoTime() - start + uploadNanos, triangles, drawCalls,
+                stateCounts[0], stateCounts[1], levelChange);
+        uploadNanos = 0;
+        levelChange = uploadingSphere != null;
+        if (gpuTimer != null) {
+            gpuTimer.end(frame);
+            gpuTimer.collect(frameMetrics);
+        }
+    }
+
+    // switches to the sphere once its mesh is in, or once it can draw some of it
+    private void continueUpload() {
+        Icosphere uploading = uploadingSphere;
+        if (uploading.continueUpload(UPLOAD_BUDGET_NANOS)) {
+            uploadingSphere = null;
+            setSphere(uploading);
+            traceRebuild(uploadingLevel, uploadingStart);
+        } else {
+            if (uploading != sphere && uploading.canDraw()) {
+                setSphere(uploading);
+            }
+            streamingView.requestRender();
+        }
+    }
+
+    private void selectLevel() {
+        LevelSelector selector = levelSelector;
+        if (selector == null) {
+            return;
+        }
+        if (selector != activeSelector) {
+            activeSelector = selector;
+            selectedLevel = -1;
+        }
+        // the distance of the center from the eye along the view direction, mvMatrix[14] is its z in eye space
+        float distance = -mvMatrix[14];
+        float pixelsPerUnit = projectionMatrix[5] * height / 2f / distance;
+        int level = selector.select(pixelsPerUnit);
+        if (level != selectedLevel) {
+            selectedLevel = level;
+            levelCallback.onLevelSelected(level);
+        }
+    }
+
+    /**
+     * With a selector the renderer picks the level from the sphere's size on the screen and
+     * reports changes to the callback, null goes back to manual selection.
+     */
+    public void setLevelSelector(LevelSelector levelSelector, OnLevelSelectedCallback levelCallback) {
+        this.levelCallback = levelCallback;
+        this.levelSelector = levelSelector;
+    }
+
+    /**
+     * Runs BatchThroughputProbe next to the sphere once the surface is created, needs
+     * continuous rendering. Call before the renderer is set on the view.
+     */
+    public void enableBatchBenchmark() {
+        batchBenchmark = true;
+    }
+
+    /**
+     * Records every frame into the metrics, without them the renderer doesn't measure anything.
+     * Call before the renderer is set on the view.
+     */
+    public void enableFrameMetrics(FrameMetrics frameMetrics) {
+        this.frameMetrics = frameMetrics;
+    }
+
+    /**
+     * Streams uploads over several frames, at most UPLOAD_BUDGET_NANOS of each, instead of
+     * uploading a mesh at once. The old sphere is drawn until the new mesh is in, with
+     * drawPartialUploads the levels of shared buffers are drawn as they come. Call before the
+     * renderer is set on the view.
+     */
+    public void enableStreamingUploads(GLSurfaceView view, boolean drawPartialUploads) {
+        streamingView = view;
+        this.drawPartialUploads = drawPartialUploads;
+    }
+
+    /**
+     * Uploads the mesh and draws the sphere, GL thread only. The level change requested at start
+     * is traced once the mesh is drawn, see traceRebuild().
+     */
+    public void uploadSphere(Icosphere sphere, MeshData[] data, int level, long start) {
+        if (streamingView != null) {
+            sphere.beginUpload(data);
+            streamSphere(sphere, level, start);
+            return;
+        }
+        long uploadStart = System.nanoTime();
+        sphere.upload(data);
+        uploadNanos += System.nanoTime() - uploadStart;
+        levelChange = true;
+        setSphere(sphere);
+        traceRebuild(level, start);
+    }
+
+    /**
+     * Uploads the shared buffers and draws the level of them, GL thread only.
+     */
+    public void uploadSharedLevels(Icosphere sphere, SharedLevelData data, int level, long start) {
+        if (streamingView != null) {
+            sphere.beginUploadSharedLevels(data, level);
+            streamSphere(sphere, level, start);
+            return;
+        }
+        long uploadStart = System.nanoTime();
+        sphere.uploadSharedLevels(data);
+        sphere.setSharedLevel(level);
+        uploadNanos += System.nanoTime() - uploadStart;
+        levelChange = true;
+        setSphere(sphere);
+        traceRebuild(level, start);
+    }
+
+    private void streamSphere(Icosphere sphere, int level, long start) {
+        Icosphere uploading = uploadingSphere;
+        if (uploading != null && uploading != sphere && uploading != this.sphere) {
+            uploading.release();
+        }
+        sphere.setDrawPartialUploads(drawPartialUploads);
+        uploadingSphere = sphere;
+        uploadingLevel = level;
+        uploadingStart = start;
+        levelChange = true;
+    }
+
+    /**
+     * Reports the mesh change requested at start to PhaseTrace once the next frame is drawn.
+     * Call on the GL thread after setSphere(), a start of 0 traces nothing.
+     */
+    public void traceRebuild(int level, long start) {
+        rebuildLevel = level;
+        rebuildStart = start;
+    }
+
+    /**
+     * Reports the time from start to the first frame with a sphere to PhaseTrace, along with
+     * whether the context was preserved, restored or the sphere had to be rebuilt. Call before
+     * GLSurfaceView.onResume(), a start of 0 traces nothing.
+     */
+    public void traceResume(long start) {
+        contextRecovery = "preserved";
+        resumeStart = start;
+    }
+
     public void setAngleX(float angleX) {
         this.angleX = angleX % 360f;
     }
@@ -96,8 +355,23 @@ public class MyGLRenderer implements GLSurfaceView.Renderer {
         return sphere;
     }
 
+    /**
+     * GL thread only, a sphere that is replaced gives its buffers back, as does one that was
+     * being streamed in for an older request.
+     */
     public void setSphere(Icosphere sphere) {
+        Icosphere uploading = uploadingSphere;
+        if (uploading != null && uploading != sphere) {
+            uploadingSphere = null;
+            if (uploading != this.sphere) {
+                uploading.release();
+            }
+        }
+        Icosphere old = this.sphere;
         this.sphere = sphere;
+        if (old != null && old != sphere) {
+            old.release();
+        }
     }
 
 }
@@ -0,0 +1,10 @@
+/*
+ * Copyright (c) 2015 10cars Software
+ */
+
+package com.tencarssoftware.icosphere;
+
+public interface OnLevelSelectedCallback {
+    // called on the GL thread
+    void onLevelSelected(int refinementLevel);
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright (c) 2015 10cars Software
+ */
+
+package com.tencarssoftware.icosphere;
+
+import android.util.Log;
+
+import com.tencarssoftware.icosphere.geometry.MeshData;
+import com.tencarssoftware.icosphere.geometry.PhaseTrace;
+import com.tencarssoftware.icosphere.render.GL;
+import com.tencarssoftware.icosphere.render.GLState;
+import com.tencarssoftware.icosphere.render.ProgramLinker;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Linked programs by their shader source, with ES 3.0 also kept as binaries in a directory.
+ * GL thread only.
+ */
+public class ProgramCache implements ProgramLinker {
+    private static final String TAG = "ProgramCache";
+    private static final ProgramCache instance = new ProgramCache();
+
+    private final Map<String, Integer> programs = new HashMap<String, Integer>();
+    private File binaryDirectory;
+    // set on the first program of a context, a binary only fits the driver that made it
+    private String driver;
+    private boolean useBinaries;
+
+    private ProgramCache() {
+    }
+
+    public static ProgramCache get() {
+        return instance;
+    }
+
+    /**
+     * Keeps program binaries in the directory, null to always compile.
+     */
+    public void setBinaryDirectory(File binaryDirectory) {
+        this.binaryDirectory = binaryDirectory;
+    }
+
+    // the programs went with the old context
+    public void reset() {
+        programs.clear();
+        driver = null;
+    }
+
+    @Override
+    public int getProgram(String vertexShaderCode, String fragmentShaderCode) {
+        String source = vertexShaderCode + '\0' + fragmentShaderCode;
+        Integer program = programs.get(source);
+        if (program != null) {
+            return program;
+        }
+        if (driver == null) {
+            GL gl = GLState.get().getGL();
+            driver = gl.glGetString(GL.GL_RENDERER) + '\0' + gl.glGetString(GL.GL_VERSION);
+            useBinaries = binaryDirectory != null && canUseBinaries();
+        }
+        File file = useBinaries ? new File(binaryDirectory, hash(driver + '\0' + source)) : null;
+        int p = file != null && file.exists() ? loadBinary(file) : 0;
+        if (p == 0) {
+            p = link(vertexShaderCode, fragmentShaderCode);
+            if (file != null) {
+                saveBinary(p, file);
+            }
+        }
+        programs.put(source, p);
+        return p;
+    }
+
+    private static int link(String vertexShaderCode, String fragmentShaderCode) {
+        long start = PhaseTrace.begin("linkProgram");
+        try {
+            GL gl = GLState.get().getGL();
+            int vertexShader = MyGLRenderer.loadShader(GL.GL_VERTEX_SHADER, vertexShaderCode);
+            int fragmentShader = MyGLRenderer.loadShader(GL.GL_FRAGMENT_SHADER, fragmentShaderCode);
+            int program = gl.glCreateProgram();
+            gl.glAttachShader(program, vertexShader);
+            gl.glAttachShader(program, fragmentShader);
+            if (Icosphere.hasES30()) {
+                setRetrievable(program);
+            }
+            gl.glLinkProgram(program);
+            // the program keeps what it needs, the shaders are only in the way now
+            gl.glDetachShader(program, vertexShader);
+            gl.glDetachShader(program, fragmentShader);
+            gl.glDeleteShader(vertexShader);
+            gl.glDeleteShader(fragmentShader);
+            if (!isLinked(program)) {
+                Log.d(TAG, "Program info log: " + gl.glGetProgramInfoLog(program));
+                gl.glDeleteProgram(program);
+                throw new RuntimeException("Unable to link program.");
+            }
+            return program;
+        } finally {
+            PhaseTrace.end("linkProgram", start, 0, 0);
+        }
+    }
+
+    private static boolean isLinked(int program) {
+        int[] params = new int[1];
+        GLState.get().getGL().glGetProgramiv(program, GL.GL_LINK_STATUS, params, 0);
+        return params[0] != 0;
+    }
+
+    private static boolean canUseBinaries() {
+        if (!Icosphere.hasES30()) {
+            return false;
+        }
+        int[] formats = new int[1];
+        GLState.get().getGL().glGetIntegerv(GL.GL_NUM_PROGRAM_BINARY_FORMATS, formats, 0);
+        return formats[0] > 0;
+    }
+
+    private static void setRetrievable(int program) {
+        GLState.get().getGL().glProgramParameteri(program, GL.GL_PROGRAM_BINARY_RETRIEVABLE_HINT, GL.GL_TRUE);
+    }
+
+    // 0 when the file can't be read or the driver rejects the binary, e.g. after an update
+    private static int loadBinary(File file) {
+        long start = PhaseTrace.begin("loadProgramBinary");
+        int program = readBinary(file);
+        PhaseTrace.end("loadProgramBinary", start, file.length(), 0);
+        return program;
+    }
+
+    private static int readBinary(File file) {
+        int format;
+        ByteBuffer binary;
+        try {
+            DataInputStream in = new DataInputStream(new FileInputStream(file));
+            try {
+                format = in.readInt();
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                binary = MeshData.allocate(bytes.length);
+                binary.put(bytes).position(0);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to read " + file, e);
+            return 0;
+        }
+        GL gl = GLState.get().getGL();
+        int program = gl.glCreateProgram();
+        gl.glProgramBinary(program, format, binary, binary.capacity());
+        if (!isLinked(program)) {
+            gl.glDeleteProgram(program);
+            file.delete();
+            return 0;
+        }
+        return program;
+    }
+
+    private static void saveBinary(int program, File file) {
+        GL gl = GLState.get().getGL();
+        int[] length = new int[1];
+        gl.glGetProgramiv(program, GL.GL_PROGRAM_BINARY_LENGTH, length, 0);
+        if (length[0] == 0) {
+            return;
+        }
+        ByteBuffer binary = MeshData.allocate(length[0]);
+        int[] format = new int[1];
+        gl.glGetProgramBinary(program, length[0], length, 0, format, 0, binary);
+        byte[] bytes = new byte[length[0]];
+        binary.get(bytes);
+        // readers never see a half written file
+        File parent = file.getParentFile();
+        parent.mkdirs();
+        try {
+            File temp = File.createTempFile(file.getName(), ".tmp", parent);
+            try {
+                DataOutputStream out = new DataOutputStream(new FileOutputStream(temp));
+                try {
+                    out.writeInt(format[0]);
+                    out.writeInt(bytes.length);
+                    out.write(bytes);
+                } finally {
+                    out.close();
+                }
+                if (!temp.renameTo(file)) {
+                    throw new IOException("Unable to rename " + temp + " to " + file);
+                }
+            } finally {
+                temp.delete();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to write " + file, e);
+        }
+    }
+
+    private static String hash(String s) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(s.getBytes("UTF-8"));
+            StringBuilder sb = new StringBuilder();
+            for (byte b : digest) {
+                sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+}
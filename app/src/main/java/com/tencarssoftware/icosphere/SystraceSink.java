@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2015 10cars Software
+ */
+
+package com.tencarssoftware.icosphere;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Trace;
+import android.util.Log;
+
+import com.tencarssoftware.icosphere.geometry.TraceSink;
+
+import java.util.Locale;
+
+/**
+ * Turns the phases of PhaseTrace into android.os.Trace sections (from API 18 on), so they show up
+ * in systrace next to the frames, and logs each of them with its duration and bytes.
+ */
+@TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+public class SystraceSink implements TraceSink {
+    private static final String TAG = "PhaseTrace";
+
+    private final boolean systrace = Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2;
+
+    @Override
+    public void beginPhase(String name) {
+        if (systrace) {
+            Trace.beginSection(name);
+        }
+    }
+
+    @Override
+    public void endPhase(String name, long durationNanos, long outputBytes, long bytesUploaded) {
+        if (systrace) {
+            Trace.endSection();
+        }
+        Log.d(TAG, String.format(Locale.US, "%s: %.2f ms, %d bytes out, %d bytes uploaded",
+                name, durationNanos / 1e6, outputBytes, bytesUploaded));
+    }
+
+    @Override
+    public void endRebuild(int level, long latencyNanos) {
+        Log.d(TAG, String.format(Locale.US, "level %d: %.2f ms to the first frame", level, latencyNanos / 1e6));
+    }
+
+    @Override
+    public void endResume(String contextRecovery, long latencyNanos) {
+        Log.d(TAG, String.format(Locale.US, "resume, context %s: %.2f ms to the first frame", contextRecovery, latencyNanos / 1e6));
+    }
+
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (c) 2015 10cars Software
+ */
+
+package com.tencarssoftware.icosphere.benchmark;
+
+import com.tencarssoftware.icosphere.geometry.AdaptiveTessellator;
+import com.tencarssoftware.icosphere.geometry.IcosphereGenerator;
+import com.tencarssoftware.icosphere.geometry.Mesh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of tessellating the sphere for the view, from scratch and per frame while it turns by a
+ * degree, with the error budget of the uniform level on a 1080p screen at the app's distance.
+ * BenchmarkReport shows the triangles against that uniform level.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AdaptiveTessellationBenchmark implements ReportingBenchmark {
+    // projection[5] * height / 2 of the app's frustum on a 1920 pixel high screen
+    private static final float PIXELS_PER_UNIT = 960f;
+    private static final float DISTANCE = 2.5f;
+
+    @Param({"5", "6", "7"})
+    public int level;
+
+    private final float[] camera = new float[3];
+    private float maxErrorPixels;
+    private AdaptiveTessellator tessellator;
+    private int degrees;
+    private String report;
+
+    @Setup
+    public void setup() {
+        // the budget the uniform level just meets
+        maxErrorPixels = IcosphereGenerator.getMaxError(level) * PIXELS_PER_UNIT / DISTANCE;
+        tessellator = new AdaptiveTessellator(level, maxErrorPixels);
+        turn(0);
+        tessellator.update(camera, PIXELS_PER_UNIT);
+        int triangles = tessellator.getTriangleCount();
+        int uniform = IcosphereGenerator.getTriangleCount(level);
+        report = String.format(Locale.US, "%d triangles, %d%% of uniform level %d at %.3f pixels", triangles,
+                triangles * 100L / uniform, level, maxErrorPixels);
+    }
+
+    @Override
+    public String getReport() {
+        return report;
+    }
+
+    @Benchmark
+    public Mesh full() {
+        AdaptiveTessellator t = new AdaptiveTessellator(level, maxErrorPixels);
+        t.update(camera, PIXELS_PER_UNIT);
+        return t.getMesh();
+    }
+
+    @Benchmark
+    public Mesh turnByADegree() {
+        turn(++degrees);
+        return tessellator.update(camera, PIXELS_PER_UNIT) ? tessellator.getMesh() : null;
+    }
+
+    // around the y axis
+    private void turn(int degrees) {
+        double angle = Math.toRadians(degrees);
+        camera[0] = (float) (DISTANCE * Math.sin(angle));
+        camera[1] = 0;
+        camera[2] = (float) (DISTANCE * Math.cos(angle));
+    }
+
+}
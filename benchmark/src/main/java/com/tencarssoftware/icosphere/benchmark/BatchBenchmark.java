@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2015 10cars Software
+ */
+
+package com.tencarssoftware.icosphere.benchmark;
+
+import com.tencarssoftware.icosphere.geometry.IcosphereGenerator;
+import com.tencarssoftware.icosphere.render.BufferPool;
+import com.tencarssoftware.icosphere.render.GLState;
+import com.tencarssoftware.icosphere.render.IcosphereBatch;
+import com.tencarssoftware.icosphere.render.ProgramLinker;
+import com.tencarssoftware.icosphere.render.RecordingGL;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CPU cost of a frame of an IcosphereBatch against RecordingGL, with instancing and with the
+ * uniform arrays, while all instances move. BenchmarkReport shows the draw calls and the bytes
+ * that go to the uniforms and the instance buffer per frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BatchBenchmark implements ReportingBenchmark {
+    // 320 triangles per sphere, as the app's batch benchmark
+    private static final int LEVEL = 2;
+
+    @Param({"256", "4096", "65536"})
+    public int instanceCount;
+
+    @Param({"true", "false"})
+    public boolean instancing;
+
+    private final float[] mvMatrix = new float[16];
+    private final float[] mvpMatrix = new float[16];
+    private final float[] lightPosition = new float[3];
+    private RecordingGL gl;
+    private IcosphereBatch batch;
+    private float[] instances;
+    private int frame;
+    private String report;
+
+    @Setup
+    public void setup() {
+        gl = new RecordingGL();
+        GLState.get().reset(gl);
+        BufferPool.get().reset();
+        batch = new IcosphereBatch(IcosphereGenerator.create(LEVEL), instancing, new ProgramLinker() {
+            @Override
+            public int getProgram(String vertexShaderCode, String fragmentShaderCode) {
+                int program = gl.glCreateProgram();
+                gl.glLinkProgram(program);
+                return program;
+            }
+        });
+        mvMatrix[0] = mvMatrix[5] = mvMatrix[10] = mvMatrix[15] = 1;
+        mvpMatrix[0] = mvpMatrix[5] = mvpMatrix[10] = mvpMatrix[15] = 1;
+        Random random = new Random(42);
+        instances = new float[instanceCount * IcosphereBatch.FLOATS_PER_INSTANCE];
+        for (int i = 0; i < instances.length; i++) {
+            instances[i] = random.nextFloat();
+        }
+
+        draw();
+        gl.resetCounts();
+        draw();
+        report = String.format(Locale.US, "%s%n%d instances per draw, %d draw calls, %d uniform bytes per frame",
+                gl, batch.usesInstancing() ? instanceCount : batch.getBatchSize(), gl.getDrawCallCount(),
+                gl.getUniformBytes());
+    }
+
+    @Benchmark
+    public int draw() {
+        // every instance moves, so nothing the batch sends can be skipped
+        float dx = (++frame & 1) == 0 ? 0.01f : -0.01f;
+        for (int i = 0; i < instances.length; i += IcosphereBatch.FLOATS_PER_INSTANCE) {
+            instances[i] += dx;
+        }
+        batch.setInstances(instances, instanceCount);
+        batch.draw(mvpMatrix, mvMatrix, lightPosition);
+        return batch.getDrawCallCount();
+    }
+
+    @Override
+    public String getReport() {
+        return report;
+    }
+
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2015 10cars Software
+ */
+
+package com.tencarssoftware.icosphere.benchmark;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Setup;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs the setup of every ReportingBenchmark once per combination of its parameters and prints
+ * the reports, without timing anything. The arguments pick benchmarks by class name.
+ */
+public class BenchmarkReport {
+    private static final Class<?>[] BENCHMARKS = {
+            DrawBenchmark.class, BatchBenchmark.class, VertexCacheBenchmark.class, AdaptiveTessellationBenchmark.class};
+
+    public static void main(String[] args) throws Exception {
+        for (Class<?> benchmark : BENCHMARKS) {
+            if (args.length == 0 || contains(args, benchmark.getSimpleName())) {
+                report(benchmark);
+            }
+        }
+    }
+
+    private static void report(Class<?> benchmark) throws Exception {
+        List<Field> params = new ArrayList<Field>();
+        for (Field field : benchmark.getFields()) {
+            if (field.isAnnotationPresent(Param.class)) {
+                params.add(field);
+            }
+        }
+        report(benchmark, params, new String[params.size()], 0);
+    }
+
+    // every combination of the values from the parameter at index on
+    private static void report(Class<?> benchmark, List<Field> params, String[] values, int index) throws Exception {
+        if (index < params.size()) {
+            for (String value : params.get(index).getAnnotation(Param.class).value()) {
+                values[index] = value;
+                report(benchmark, params, values, index + 1);
+            }
+            return;
+        }
+        ReportingBenchmark instance = (ReportingBenchmark) benchmark.newInstance();
+        StringBuilder sb = new StringBuilder(benchmark.getSimpleName());
+        for (int i = 0; i < params.size(); i++) {
+            Field field = params.get(i);
+            field.set(instance, parse(field.getType(), values[i]));
+            sb.append(i == 0 ? " " : ", ").append(field.getName()).append(" = ").append(values[i]);
+        }
+        for (Method method : benchmark.getMethods()) {
+            if (method.isAnnotationPresent(Setup.class)) {
+                try {
+                    method.invoke(instance);
+                } catch (InvocationTargetException e) {
+                    throw new IllegalStateException("Setup of " + sb + " failed", e.getCause());
+                }
+            }
+        }
+        System.out.println(sb);
+        System.out.println(instance.getReport());
+        System.out.println();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object parse(Class<?> type, String value) {
+        if (type == int.class) {
+            return Integer.parseInt(value);
+        }
+        if (type == boolean.class) {
+            return Boolean.parseBoolean(value);
+        }
+        if (type.isEnum()) {
+            return Enum.valueOf(type.asSubclass(Enum.class), value);
+        }
+        return value;
+    }
+
+    private static boolean contains(String[] names, String name) {
+        for (String n : names) {
+            if (n.equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
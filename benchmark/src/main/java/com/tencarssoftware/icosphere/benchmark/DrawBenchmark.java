@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2015 10cars Software
+ */
+
+package com.tencarssoftware.icosphere.benchmark;
+
+import com.tencarssoftware.icosphere.geometry.IcosphereGenerator;
+import com.tencarssoftware.icosphere.geometry.Mesh;
+import com.tencarssoftware.icosphere.geometry.MeshData;
+import com.tencarssoftware.icosphere.geometry.Patches;
+import com.tencarssoftware.icosphere.geometry.VertexCacheOptimizer;
+import com.tencarssoftware.icosphere.geometry.VertexFormat;
+import com.tencarssoftware.icosphere.render.BufferPool;
+import com.tencarssoftware.icosphere.render.GLState;
+import com.tencarssoftware.icosphere.render.MeshBuffers;
+import com.tencarssoftware.icosphere.render.RecordingGL;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CPU cost of the draw path of a sphere, run against RecordingGL instead of a driver: the state
+ * tracking, patch culling and the GL calls that are left, for a frame and for an upload of the
+ * mesh into the pooled buffers. BenchmarkReport shows the GL calls of one frame after the first,
+ * which has to set up everything.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DrawBenchmark implements ReportingBenchmark {
+    @Param({"3", "5", "7"})
+    public int level;
+
+    @Param({"FLOAT", "OCTAHEDRAL"})
+    public VertexFormat vertexFormat;
+
+    private final float[] projectionMatrix = new float[16];
+    private final float[] mvMatrix = new float[16];
+    private final float[] mvpMatrix = new float[16];
+    private final float[] color = {0.5f, 0.5f, 1f, 1f};
+    private RecordingGL gl;
+    private MeshData[] data;
+    private MeshBuffers buffers;
+    private int program;
+    private int positionHandle;
+    private GLState.Uniform colorUniform;
+    private GLState.Uniform mvMatrixUniform;
+    private GLState.Uniform mvpMatrixUniform;
+    private float angle;
+    private String report;
+
+    @Setup
+    public void setup() {
+        gl = new RecordingGL();
+        GLState state = GLState.get();
+        state.reset(gl);
+        BufferPool.get().reset();
+        program = gl.glCreateProgram();
+        gl.glLinkProgram(program);
+        positionHandle = gl.glGetAttribLocation(program, "aPosition");
+        colorUniform = state.getUniform(program, "uColor");
+        mvMatrixUniform = state.getUniform(program, "uMVMatrix");
+        mvpMatrixUniform = state.getUniform(program, "uMVPMatrix");
+        // as Icosphere builds it, one part with 32 bit indices
+        int trianglesPerPatch = Patches.getTrianglesPerPatch(level);
+        Mesh mesh = VertexCacheOptimizer.optimize(IcosphereGenerator.create(level),
+                VertexCacheOptimizer.DEFAULT_CACHE_SIZE, trianglesPerPatch);
+        Patches patches = trianglesPerPatch > 0 ? Patches.create(mesh, 0, trianglesPerPatch) : null;
+        data = new MeshData[]{MeshData.create(mesh, 4, vertexFormat, patches)};
+        buffers = new MeshBuffers(true, vertexFormat);
+        buffers.upload(data);
+        frustum(projectionMatrix, 1f, 15f);
+
+        draw();
+        gl.resetCounts();
+        state.takeCounts(new int[2]);
+        draw();
+        int[] stateCounts = new int[2];
+        state.takeCounts(stateCounts);
+        report = String.format(Locale.US, "%s%n%d state changes, %d skipped, %d of %d triangles drawn", gl,
+                stateCounts[0], stateCounts[1], buffers.getTriangleCount(), mesh.getTriangleCount());
+    }
+
+    @Override
+    public String getReport() {
+        return report;
+    }
+
+    @Benchmark
+    public int draw() {
+        angle += 0.01f;
+        rotate(mvMatrix, angle, -2.5f);
+        multiply(mvpMatrix, projectionMatrix, mvMatrix);
+        GLState state = GLState.get();
+        state.useProgram(program);
+        state.setAttribArrays(GLState.attrib(positionHandle));
+        colorUniform.set4fv(1, color, 0);
+        mvMatrixUniform.setMatrix4fv(mvMatrix, 0);
+        mvpMatrixUniform.setMatrix4fv(mvpMatrix, 0);
+        buffers.draw(positionHandle, mvpMatrix, mvMatrix);
+        return buffers.getDrawCallCount();
+    }
+
+    @Benchmark
+    public MeshBuffers upload() {
+        buffers.upload(data);
+        return buffers;
+    }
+
+    // column major like android.opengl.Matrix, the square frustum of the app
+    private static void frustum(float[] m, float near, float far) {
+        for (int i = 0; i < 16; i++) {
+            m[i] = 0;
+        }
+        m[0] = near;
+        m[5] = near;
+        m[10] = -(far + near) / (far - near);
+        m[11] = -1;
+        m[14] = -2 * far * near / (far - near);
+    }
+
+    // around the y axis, then pushed away along z
+    private static void rotate(float[] m, float angle, float z) {
+        float c = (float) Math.cos(angle);
+        float s = (float) Math.sin(angle);
+        for (int i = 0; i < 16; i++) {
+            m[i] = 0;
+        }
+        m[0] = c;
+        m[2] = -s;
+        m[5] = 1;
+        m[8] = s;
+        m[10] = c;
+        m[14] = z;
+        m[15] = 1;
+    }
+
+    private static void multiply(float[] result, float[] a, float[] b) {
+        for (int col = 0; col < 4; col++) {
+            for (int row = 0; row < 4; row++) {
+                float sum = 0;
+                for (int k = 0; k < 4; k++) {
+                    sum += a[k * 4 + row] * b[col * 4 + k];
+                }
+                result[col * 4 + row] = sum;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2015 10cars Software
+ */
+
+package com.tencarssoftware.icosphere.benchmark;
+
+import com.tencarssoftware.icosphere.geometry.IcosphereGenerator;
+import com.tencarssoftware.icosphere.geometry.Mesh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Indexed mesh generation with the sorted array edge cache (boxed Short values) against the
+ * open addressing EdgeMidpointMap.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EdgeCacheBenchmark {
+    @Param({"1", "2", "3", "4", "5"})
+    public int level;
+
+    @Benchmark
+    public Mesh sortedArray() {
+        return LegacyIcosphereGenerator.create(level);
+    }
+
+    @Benchmark
+    public Mesh openAddressing() {
+        return IcosphereGenerator.create(level);
+    }
+
+}
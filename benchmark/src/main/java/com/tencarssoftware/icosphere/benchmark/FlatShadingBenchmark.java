@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2015 10cars Software
+ */
+
+package com.tencarssoftware.icosphere.benchmark;
+
+import com.tencarssoftware.icosphere.geometry.FlatShading;
+import com.tencarssoftware.icosphere.geometry.IcosphereGenerator;
+import com.tencarssoftware.icosphere.geometry.Mesh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Filling the hard edges buffers, separate position and normal buffers with per triangle arrays
+ * against the interleaved FlatShading. The buffers are allocated once, so with -prof gc the
+ * allocation rate is that of the fill alone.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FlatShadingBenchmark {
+    @Param({"3", "5", "7"})
+    public int level;
+
+    private Mesh mesh;
+    private FloatBuffer vertexBuffer;
+    private FloatBuffer normalBuffer;
+    private FloatBuffer interleavedBuffer;
+
+    @Setup
+    public void setup() {
+        mesh = IcosphereGenerator.create(level);
+        int floatCount = LegacyFlatShading.getFloatCount(mesh.drawList);
+        vertexBuffer = allocate(floatCount);
+        normalBuffer = allocate(floatCount);
+        interleavedBuffer = allocate(FlatShading.getFloatCount(mesh.drawList));
+
+        LegacyFlatShading.fill(mesh.vertices, mesh.drawList, vertexBuffer, normalBuffer);
+        FlatShading.fill(mesh.vertices, mesh.drawList, interleavedBuffer);
+        for (int i = 0; i < floatCount / 3; i++) {
+            for (int j = 0; j < 3; j++) {
+                if (vertexBuffer.get(i * 3 + j) != interleavedBuffer.get(i * 6 + j)
+                        || normalBuffer.get(i * 3 + j) != interleavedBuffer.get(i * 6 + 3 + j)) {
+                    throw new IllegalStateException("The interleaved buffer differs at vertex " + i);
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public FloatBuffer separateBuffers() {
+        LegacyFlatShading.fill(mesh.vertices, mesh.drawList, vertexBuffer, normalBuffer);
+        return normalBuffer;
+    }
+
+    @Benchmark
+    public FloatBuffer interleaved() {
+        FlatShading.fill(mesh.vertices, mesh.drawList, interleavedBuffer);
+        return interleavedBuffer;
+    }
+
+    private static FloatBuffer allocate(int floatCount) {
+        return ByteBuffer.allocateDirect(floatCount * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2015 10cars Software
+ */
+
+package com.tencarssoftware.icosphere.benchmark;
+
+import com.tencarssoftware.icosphere.geometry.FlatShading;
+import com.tencarssoftware.icosphere.geometry.GeodesicGenerator;
+import com.tencarssoftware.icosphere.geometry.IcosphereGenerator;
+import com.tencarssoftware.icosphere.geometry.Mesh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time and (with -prof gc, which the jmh task adds) allocation per refinement level for the
+ * indexed mesh, built by subdivision (from scratch or continuing from the level below) or
+ * directly as a geodesic grid, and for the flat-shaded triangle soup built from it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GenerationBenchmark {
+    @Param({"0", "1", "2", "3", "4", "5", "6", "7"})
+    public int level;
+
+    private Mesh mesh;
+    private Mesh previousMesh;
+
+    @Setup
+    public void setup() {
+        mesh = IcosphereGenerator.create(level);
+        previousMesh = IcosphereGenerator.create(Math.max(level - 1, 0));
+    }
+
+    @Benchmark
+    public Mesh indexed() {
+        return IcosphereGenerator.create(level);
+    }
+
+    @Benchmark
+    public Mesh refineFromPreviousLevel() {
+        return IcosphereGenerator.refine(previousMesh, level == 0 ? 0 : 1);
+    }
+
+    @Benchmark
+    public Mesh geodesic() {
+        return GeodesicGenerator.create(1 << level);
+    }
+
+    @Benchmark
+    public FloatBuffer flatShaded() {
+        int floatCount = FlatShading.getFloatCount(mesh.drawList);
+        FloatBuffer buffer = ByteBuffer.allocateDirect(floatCount * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+        FlatShading.fill(mesh.vertices, mesh.drawList, buffer);
+        return buffer;
+    }
+
+}
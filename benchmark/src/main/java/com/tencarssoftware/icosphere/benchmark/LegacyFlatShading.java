@@ -0,0 +1,67 @@
+/*
+ * Copyright (c) 2015 10cars Software
+ */
+
+package com.tencarssoftware.icosphere.benchmark;
+
+import java.nio.FloatBuffer;
+
+/**
+ * The hard edges builder as it was before FlatShading wrote interleaved buffers, with separate
+ * position and normal buffers and a few small arrays per triangle, kept as the baseline for
+ * FlatShadingBenchmark.
+ */
+class LegacyFlatShading {
+
+    private LegacyFlatShading() {
+    }
+
+    public static int getFloatCount(int[] drawList) {
+        return drawList.length * 3;
+    }
+
+    public static void fill(float[] vertices, int[] drawList, FloatBuffer vertexBuffer, FloatBuffer normalBuffer) {
+        int i = 0;
+        while (i < drawList.length) {
+            float[] v1 = getVertex(vertices, drawList[i++]);
+            vertexBuffer.put(v1);
+            float[] v2 = getVertex(vertices, drawList[i++]);
+            vertexBuffer.put(v2);
+            float[] v3 = getVertex(vertices, drawList[i++]);
+            vertexBuffer.put(v3);
+            float[] normal = createNormal(v1, v2, v3);
+            normalBuffer.put(normal);
+            normalBuffer.put(normal);
+            normalBuffer.put(normal);
+        }
+        vertexBuffer.position(0);
+        normalBuffer.position(0);
+    }
+
+    private static float[] getVertex(float[] vertices, int index) {
+        float[] v = new float[3];
+        v[0] = vertices[index * 3];
+        v[1] = vertices[index * 3 + 1];
+        v[2] = vertices[index * 3 + 2];
+        return v;
+    }
+
+    private static float[] createNormal(float[] v1, float[] v2, float[] v3) {
+        float[] vU = {v2[0] - v1[0], v2[1] - v1[1], v2[2] - v1[2]};
+        float[] vV = {v3[0] - v1[0], v3[1] - v1[1], v3[2] - v1[2]};
+
+        float[] normal = {
+                (vU[1] * vV[2]) - (vU[2] * vV[1]),
+                (vU[2] * vV[0]) - (vU[0] * vV[2]),
+                (vU[0] * vV[1]) - (vU[1] * vV[0])};
+
+        // normalise the normal
+        final float length = (float) Math.sqrt(normal[0] * normal[0] + normal[1] * normal[1] + normal[2] * normal[2]);
+
+        normal[0] /= length;
+        normal[1] /= length;
+        normal[2] /= length;
+        return normal;
+    }
+
+}
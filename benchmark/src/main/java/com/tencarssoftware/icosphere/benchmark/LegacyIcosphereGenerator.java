@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2015 10cars Software
+ */
+
+package com.tencarssoftware.icosphere.benchmark;
+
+import com.tencarssoftware.icosphere.geometry.IcosphereGenerator;
+import com.tencarssoftware.icosphere.geometry.Mesh;
+
+/**
+ * The generator as it was before EdgeMidpointMap, with the sorted array edge cache and boxed
+ * 16 bit indices, kept as the baseline for EdgeCacheBenchmark. Only goes up to level 5.
+ */
+class LegacyIcosphereGenerator {
+    private static final float t = (float) ((1.0 + Math.sqrt(5.0)) / 2.0);
+    private static final short initialDrawList[] = {
+            0, 11, 5,
+            0, 5, 1,
+            0, 1, 7,
+            0, 7, 10,
+            0, 10, 11,
+
+            1, 5, 9,
+            5, 11, 4,
+            11, 10, 2,
+            10, 7, 6,
+            7, 1, 8,
+
+            3, 9, 4,
+            3, 4, 2,
+            3, 2, 6,
+            3, 6, 8,
+            3, 8, 9,
+
+            4, 9, 5,
+            2, 4, 11,
+            6, 2, 10,
+            8, 6, 7,
+            9, 8, 1
+    };
+
+    private float[] vertices;
+    private short[] drawList;
+
+    private LegacyIcosphereGenerator() {
+    }
+
+    static Mesh create(int refinementCount) {
+        LegacyIcosphereGenerator generator = new LegacyIcosphereGenerator();
+        generator.drawList = initialDrawList.clone();
+        generator.vertices = new float[IcosphereGenerator.getVertexCount(refinementCount) * 3];
+        short count = generator.initialize();
+        generator.refine(count, refinementCount);
+        int[] drawList = new int[generator.drawList.length];
+        for (int i = 0; i < drawList.length; i++) {
+            drawList[i] = generator.drawList[i];
+        }
+        return new Mesh(generator.vertices, drawList);
+    }
+
+    private void addVertex(float x, float y, float z, int i) {
+        float length = (float) Math.sqrt(x * x + y * y + z * z);
+        vertices[i * 3] = x / length;
+        vertices[i * 3 + 1] = y / length;
+        vertices[i * 3 + 2] = z / length;
+    }
+
+    private short initialize() {
+        short vCount = 0;
+        addVertex(0f, 1f, 1f / t, vCount++);
+        addVertex(0f, 1f, -1f / t, vCount++);
+        addVertex(0f, -1f, 1f / t, vCount++);
+        addVertex(0f, -1f, -1f / t, vCount++);
+
+        addVertex(1f, -1f / t, 0f, vCount++);
+        addVertex(1f, 1f / t, 0f, vCount++);
+        addVertex(-1f, -1f / t, 0f, vCount++);
+        addVertex(-1f, 1f / t, 0f, vCount++);
+
+        addVertex(-1f / t, 0f, -1f, vCount++);
+        addVertex(1f / t, 0f, -1f, vCount++);
+        addVertex(-1f / t, 0f, 1f, vCount++);
+        addVertex(1f / t, 0f, 1f, vCount++);
+        return vCount;
+    }
+
+    private short findMidPoint(short v1, short v2, short vCount, SortedLongMap<Short> vertexCache) {
+        float x = (vertices[v1 * 3] + vertices[v2 * 3]) / 2f;
+        float y = (vertices[v1 * 3 + 1] + vertices[v2 * 3 + 1]) / 2f;
+        float z = (vertices[v1 * 3 + 2] + vertices[v2 * 3 + 2]) / 2f;
+        short tmp;
+        if (v1 > v2) {
+            tmp = v1;
+            v1 = v2;
+            v2 = tmp;
+        }
+        Short index = vertexCache.get((long) v1 << 32 | (long) v2);
+        if (index == null) {
+            addVertex(x, y, z, vCount);
+            vertexCache.put((long) v1 << 32 | (long) v2, vCount);
+            index = vCount;
+        }
+        return index;
+    }
+
+    private void refine(short vCount, int refinementCount) {
+        int length = drawList.length;
+        int index;
+
+        SortedLongMap<Short> vertexCache = new SortedLongMap<>();
+        for (int k = 0; k < refinementCount; k++) {
+            short newDrawList[] = new short[(20 * (int) Math.pow(4, k + 1)) * 3];
+            index = 0;
+            for (int faceCount = 0; faceCount < length / 3; faceCount++) {
+                short v1 = drawList[faceCount * 3];
+                short v2 = drawList[faceCount * 3 + 1];
+                short v3 = drawList[faceCount * 3 + 2];
+
+                short a = findMidPoint(v1, v2, vCount, vertexCache);
+                if (a == vCount)
+                    vCount++;
+                short b = findMidPoint(v2, v3, vCount, vertexCache);
+                if (b == vCount)
+                    vCount++;
+                short c = findMidPoint(v3, v1, vCount, vertexCache);
+                if (c == vCount)
+                    vCount++;
+
+                newDrawList[index++] = v1;
+                newDrawList[index++] = a;
+                newDrawList[index++] = c;
+
+                newDrawList[index++] = c;
+                newDrawList[index++] = b;
+                newDrawList[index++] = v3;
+
+                newDrawList[index++] = a;
+                newDrawList[index++] = v2;
+                newDrawList[index++] = b;
+
+                newDrawList[index++] = a;
+                newDrawList[index++] = b;
+                newDrawList[index++] = c;
+            }
+
+            drawList = newDrawList;
+            length = index;
+        }
+    }
+
+}
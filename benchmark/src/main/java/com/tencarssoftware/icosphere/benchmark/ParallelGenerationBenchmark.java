@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2015 10cars Software
+ */
+
+package com.tencarssoftware.icosphere.benchmark;
+
+import com.tencarssoftware.icosphere.geometry.GeodesicGenerator;
+import com.tencarssoftware.icosphere.geometry.IcosphereGenerator;
+import com.tencarssoftware.icosphere.geometry.Mesh;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Geodesic generation spread over a fixed thread pool. Before measuring, the setup checks that
+ * the parallel result is identical to the serial refine() output, so a scheduling dependent
+ * numbering fails the run instead of being timed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParallelGenerationBenchmark {
+    @Param({"6", "7", "8"})
+    public int level;
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    private ExecutorService executor;
+
+    @Setup
+    public void setup() {
+        executor = Executors.newFixedThreadPool(threads);
+        Mesh serial = IcosphereGenerator.create(level);
+        Mesh parallel = GeodesicGenerator.create(1 << level, executor);
+        if (!Arrays.equals(serial.vertices, parallel.vertices) || !Arrays.equals(serial.drawList, parallel.drawList)) {
+            throw new IllegalStateException("Parallel mesh differs from refine() at level " + level + " with " + threads + " threads");
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.shutdown();
+    }
+
+    @Benchmark
+    public Mesh serial() {
+        return GeodesicGenerator.create(1 << level);
+    }
+
+    @Benchmark
+    public Mesh parallel() {
+        return GeodesicGenerator.create(1 << level, executor);
+    }
+
+}
@@ -0,0 +1,13 @@
+/*
+ * Copyright (c) 2015 10cars Software
+ */
+
+package com.tencarssoftware.icosphere.benchmark;
+
+/**
+ * A benchmark whose setup finds more than a time, e.g. the GL calls of a frame. JMH normalizes
+ * auxiliary counters by time, so they can't carry it, BenchmarkReport prints it instead.
+ */
+interface ReportingBenchmark {
+    String getReport();
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2015 10cars Software
+ */
+
+package com.tencarssoftware.icosphere.benchmark;
+
+/**
+ * Sorted array map with binary search lookups, the same layout as the support library's
+ * LongSparseArray, so LegacyIcosphereGenerator behaves like the original code did on the device.
+ */
+class SortedLongMap<E> {
+    private long[] keys;
+    private Object[] values;
+    private int size;
+
+    SortedLongMap() {
+        keys = new long[10];
+        values = new Object[10];
+    }
+
+    @SuppressWarnings("unchecked")
+    E get(long key) {
+        int i = binarySearch(key);
+        return i < 0 ? null : (E) values[i];
+    }
+
+    void put(long key, E value) {
+        int i = binarySearch(key);
+        if (i >= 0) {
+            values[i] = value;
+            return;
+        }
+        i = ~i;
+        if (size == keys.length) {
+            int capacity = size * 2;
+            long[] newKeys = new long[capacity];
+            Object[] newValues = new Object[capacity];
+            System.arraycopy(keys, 0, newKeys, 0, size);
+            System.arraycopy(values, 0, newValues, 0, size);
+            keys = newKeys;
+            values = newValues;
+        }
+        System.arraycopy(keys, i, keys, i + 1, size - i);
+        System.arraycopy(values, i, values, i + 1, size - i);
+        keys[i] = key;
+        values[i] = value;
+        size++;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private int binarySearch(long key) {
+        int lo = 0;
+        int hi = size - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            long midKey = keys[mid];
+            if (midKey < key) {
+                lo = mid + 1;
+            } else if (midKey > key) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return ~lo;
+    }
+
+}
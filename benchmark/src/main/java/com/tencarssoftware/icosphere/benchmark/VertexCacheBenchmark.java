@@ -0,0 +1,70 @@
+/*
+ * Copyright (c) 2015 10cars Software
+ */
+
+package com.tencarssoftware.icosphere.benchmark;
+
+import com.tencarssoftware.icosphere.geometry.IcosphereGenerator;
+import com.tencarssoftware.icosphere.geometry.Mesh;
+import com.tencarssoftware.icosphere.geometry.VertexCacheOptimizer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the vertex cache optimization. What it saves is shown by BenchmarkReport: the average
+ * cache miss ratio (transformed vertices per triangle) and the average transform to vertex ratio
+ * of a FIFO post-transform cache with cacheSize entries, for the draw list as generated and as
+ * optimized.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class VertexCacheBenchmark implements ReportingBenchmark {
+    @Param({"3", "5", "7"})
+    public int level;
+
+    @Param({"16", "32"})
+    public int cacheSize;
+
+    private Mesh mesh;
+    private String report;
+
+    @Setup
+    public void setup() {
+        mesh = IcosphereGenerator.create(level);
+        Mesh optimized = VertexCacheOptimizer.optimize(mesh, cacheSize);
+        int vertexCount = mesh.getVertexCount();
+        report = String.format(Locale.US, "ACMR %.3f -> %.3f, ATVR %.3f -> %.3f",
+                VertexCacheOptimizer.getAcmr(mesh.drawList, vertexCount, cacheSize),
+                VertexCacheOptimizer.getAcmr(optimized.drawList, vertexCount, cacheSize),
+                VertexCacheOptimizer.getAtvr(mesh.drawList, vertexCount, cacheSize),
+                VertexCacheOptimizer.getAtvr(optimized.drawList, vertexCount, cacheSize));
+    }
+
+    @Override
+    public String getReport() {
+        return report;
+    }
+
+    @Benchmark
+    public Mesh optimize() {
+        return VertexCacheOptimizer.optimize(mesh, cacheSize);
+    }
+
+}
@@ -0,0 +1,406 @@
+/*
+ * Copyright (c) 2015 10cars Software
+ */
+
+package com.tencarssoftware.icosphere.geometry;
+
+import java.util.Arrays;
+
+/**
+ * Tessellates the sphere for a view instead of uniformly: every face of a base level becomes a
+ * triangular grid of 2^depth segments per side, deep enough that the face's geometric error stays
+ * under maxErrorPixels where it can be seen. The error is a displacement along the normal, so at
+ * the silhouette all of it shows, on a face turned towards the camera only the part across the
+ * line of sight, and faces turned away keep the base level. Away from the silhouette that part
+ * only moves the shading a little instead of the outline, it may be INTERIOR_TOLERANCE times as
+ * much. Near faces are bigger on the screen and go deeper on their own.
+ * <p>
+ * Neighbouring depths differ by one at most. Where a side is shared with a coarser face, the
+ * finer face snaps its points on that side onto the coarser grid and drops the triangles that
+ * collapse, so both faces use the same vertices there: no T-junctions, no cracks. Grid points are
+ * placed like IcosphereGenerator's midpoints, a face at depth d is a patch of level base + d, and
+ * keep their vertex numbers across updates. update() only tessellates the faces whose depth or
+ * sides changed. Not thread safe.
+ */
+public class AdaptiveTessellator {
+    // 320 faces, the patches of Patches
+    public static final int BASE_LEVEL = 2;
+    // to go up a face has to be over maxErrorPixels, to go down under half of that, see LevelSelector
+    private static final float HYSTERESIS = 0.5f;
+    // one level coarser than the silhouette, about a fifth of the triangles of the uniform level overall
+    private static final float INTERIOR_TOLERANCE = 4f;
+    // keeps faces the camera is right at from dividing by zero
+    private static final float MIN_DISTANCE = 1e-3f;
+    private static final int UNASSIGNED = -1;
+
+    private final int baseLevel;
+    private final int maxDepth;
+    private final float maxErrorPixels;
+    // points per side of a face at maxDepth
+    private final int resolution;
+    private final int faceCount;
+    private final int[] faceVertices;
+    // the base edge of each side of a face (0: A to B, 1: B to C, 2: C to A) and the face across it
+    private final int[] faceEdges;
+    private final int[] neighbors;
+    // unit center and cos / sin of the angle from it to the face's farthest corner
+    private final float[] faceBounds;
+
+    // grows as points are needed, the base vertices come first
+    private float[] vertices;
+    private int vertexCount;
+    // vertex of the point k steps of the finest grid from the lower numbered end of an edge, k in 1..resolution - 1
+    private final int[] edgePoints;
+    // vertex of the inner points of a face, null until the face goes below depth 1
+    private final int[][] innerPoints;
+
+    private final int[] targets;
+    private final int[] depths;
+    // the depth and side depths a face was tessellated for, -1 for none
+    private final int[] keys;
+    private final int[][] faceTriangles;
+    private final int[] faceTriangleCounts;
+    private int[] remap = new int[0];
+
+    public AdaptiveTessellator(int maxLevel, float maxErrorPixels) {
+        this(BASE_LEVEL, maxLevel, maxErrorPixels);
+    }
+
+    public AdaptiveTessellator(int baseLevel, int maxLevel, float maxErrorPixels) {
+        this.baseLevel = baseLevel;
+        this.maxDepth = Math.max(0, maxLevel - baseLevel);
+        this.maxErrorPixels = maxErrorPixels;
+        resolution = 1 << maxDepth;
+        Mesh base = IcosphereGenerator.create(baseLevel);
+        faceCount = base.getTriangleCount();
+        faceVertices = base.drawList;
+        vertexCount = base.getVertexCount();
+        vertices = Arrays.copyOf(base.vertices, vertexCount * 3 * 4);
+
+        faceEdges = new int[faceCount * 3];
+        neighbors = new int[faceCount * 3];
+        int edgeCount = IcosphereGenerator.getEdgeCount(baseLevel);
+        EdgeMidpointMap edges = new EdgeMidpointMap(edgeCount);
+        int[] edgeSides = new int[edgeCount];
+        int edge = 0;
+        for (int f = 0; f < faceCount; f++) {
+            for (int s = 0; s < 3; s++) {
+                long key = EdgeMidpointMap.key(faceVertices[f * 3 + s], faceVertices[f * 3 + (s + 1) % 3]);
+                int e = edges.get(key);
+                if (e == EdgeMidpointMap.NO_VALUE) {
+                    e = edge++;
+                    edges.put(key, e);
+                    edgeSides[e] = f * 3 + s;
+                } else {
+                    neighbors[f * 3 + s] = edgeSides[e] / 3;
+                    neighbors[edgeSides[e]] = f;
+                }
+                faceEdges[f * 3 + s] = e;
+            }
+        }
+        edgePoints = new int[edgeCount * Math.max(resolution - 1, 0)];
+        Arrays.fill(edgePoints, UNASSIGNED);
+        innerPoints = new int[faceCount][];
+
+        faceBounds = new float[faceCount * 5];
+        for (int f = 0; f < faceCount; f++) {
+            computeBounds(f);
+        }
+        targets = new int[faceCount];
+        depths = new int[faceCount];
+        keys = new int[faceCount];
+        Arrays.fill(keys, -1);
+        faceTriangles = new int[faceCount][];
+        faceTriangleCounts = new int[faceCount];
+    }
+
+    /**
+     * Tessellates the faces that need another depth for the camera, true if any did.
+     *
+     * @param camera        the camera position in model space, see Patches.getCameraPosition
+     * @param pixelsPerUnit the size of one unit at a distance of one on the screen
+     */
+    public boolean update(float[] camera, float pixelsPerUnit) {
+        for (int f = 0; f < faceCount; f++) {
+            float pixels = getErrorWeight(f, camera) * pixelsPerUnit;
+            int up = getDepth(pixels, maxErrorPixels);
+            if (keys[f] < 0 || up > targets[f]) {
+                targets[f] = up;
+            } else {
+                int down = getDepth(pixels, maxErrorPixels * HYSTERESIS);
+                if (down < targets[f]) {
+                    targets[f] = down;
+                }
+            }
+        }
+        grade();
+        boolean changed = false;
+        for (int f = 0; f < faceCount; f++) {
+            int key = depths[f];
+            for (int s = 0; s < 3; s++) {
+                key |= Math.min(depths[f], depths[neighbors[f * 3 + s]]) << (4 * (s + 1));
+            }
+            if (key != keys[f]) {
+                keys[f] = key;
+                tessellate(f);
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * The tessellation of the last update, its vertices numbered in the order the triangles use
+     * them.
+     */
+    public Mesh getMesh() {
+        if (remap.length < vertexCount) {
+            remap = new int[vertices.length / 3];
+        }
+        Arrays.fill(remap, 0, vertexCount, UNASSIGNED);
+        int[] drawList = new int[getTriangleCount() * 3];
+        float[] out = new float[vertexCount * 3];
+        int index = 0;
+        int count = 0;
+        for (int f = 0; f < faceCount; f++) {
+            int[] triangles = faceTriangles[f];
+            for (int i = 0; i < faceTriangleCounts[f] * 3; i++) {
+                int v = triangles[i];
+                if (remap[v] == UNASSIGNED) {
+                    System.arraycopy(vertices, v * 3, out, count * 3, 3);
+                    remap[v] = count++;
+                }
+                drawList[index++] = remap[v];
+            }
+        }
+        return new Mesh(Arrays.copyOf(out, count * 3), drawList);
+    }
+
+    public int getTriangleCount() {
+        int count = 0;
+        for (int f = 0; f < faceCount; f++) {
+            count += faceTriangleCounts[f];
+        }
+        return count;
+    }
+
+    public int getFaceCount() {
+        return faceCount;
+    }
+
+    /**
+     * The depth of a face after the last update, it is a patch of level base + depth.
+     */
+    public int getDepth(int face) {
+        return depths[face];
+    }
+
+    // the part of the error that shows over the distance, times pixels per unit it is in pixels, 0 for a face turned away
+    private float getErrorWeight(int f, float[] camera) {
+        int b = f * 5;
+        float cx = faceBounds[b], cy = faceBounds[b + 1], cz = faceBounds[b + 2];
+        float cosRadius = faceBounds[b + 3], sinRadius = faceBounds[b + 4];
+        float dx = camera[0] - cx, dy = camera[1] - cy, dz = camera[2] - cz;
+        float distance = Icosahedron.length(dx, dy, dz);
+        // the angle between the center's normal and the direction to the camera, widened by the face
+        float cos = (cx * dx + cy * dy + cz * dz) / Math.max(distance, MIN_DISTANCE);
+        float sin = (float) Math.sqrt(Math.max(0f, 1f - cos * cos));
+        if (cos * cosRadius + sin * sinRadius < 0) {
+            return 0;
+        }
+        float cosFar = cos * cosRadius - sin * sinRadius;
+        float across = cosFar <= 0 ? 1f : (float) Math.sqrt(1f - cosFar * cosFar) / INTERIOR_TOLERANCE;
+        // the nearest point of the face is about its radius closer
+        return across / Math.max(distance - sinRadius, MIN_DISTANCE);
+    }
+
+    // the lowest depth whose error, times pixels per unit of error, is under the threshold
+    private int getDepth(float pixels, float threshold) {
+        int d = 0;
+        while (d < maxDepth && IcosphereGenerator.getMaxError(baseLevel + d) * pixels > threshold) {
+            d++;
+        }
+        return d;
+    }
+
+    // raises faces until no neighbour is more than one level deeper
+    private void grade() {
+        System.arraycopy(targets, 0, depths, 0, faceCount);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int f = 0; f < faceCount; f++) {
+                for (int s = 0; s < 3; s++) {
+                    int min = depths[neighbors[f * 3 + s]] - 1;
+                    if (depths[f] < min) {
+                        depths[f] = min;
+                        changed = true;
+                    }
+                }
+            }
+        }
+    }
+
+    private void tessellate(int f) {
+        int depth = depths[f];
+        int n = 1 << depth;
+        int step = resolution >> depth;
+        int[] sideSteps = new int[3];
+        for (int s = 0; s < 3; s++) {
+            sideSteps[s] = resolution >> Math.min(depth, depths[neighbors[f * 3 + s]]);
+        }
+        int[] triangles = faceTriangles[f];
+        if (triangles == null || triangles.length < n * n * 3) {
+            triangles = new int[n * n * 3];
+            faceTriangles[f] = triangles;
+        }
+        int count = 0;
+        // rows of upward triangles along side A to B, with the downward ones between them
+        for (int r = 0; r < n; r++) {
+            for (int c = 0; c < n - r; c++) {
+                int i = c * step, j = r * step;
+                count = addTriangle(f, sideSteps, triangles, count, i, j, i + step, j, i, j + step);
+                if (c < n - r - 1) {
+                    count = addTriangle(f, sideSteps, triangles, count, i + step, j, i + step, j + step, i, j + step);
+                }
+            }
+        }
+        faceTriangleCounts[f] = count;
+    }
+
+    // leaves out triangles that collapsed onto a coarser side
+    private int addTriangle(int f, int[] sideSteps, int[] triangles, int count, int i1, int j1, int i2, int j2,
+                            int i3, int j3) {
+        int a = getSnappedVertex(f, sideSteps, i1, j1);
+        int b = getSnappedVertex(f, sideSteps, i2, j2);
+        int c = getSnappedVertex(f, sideSteps, i3, j3);
+        if (a == b || b == c || c == a) {
+            return count;
+        }
+        triangles[count * 3] = a;
+        triangles[count * 3 + 1] = b;
+        triangles[count * 3 + 2] = c;
+        return count + 1;
+    }
+
+    // grid points (i, j) weigh corner B with i and corner C with j out of resolution
+    private int getSnappedVertex(int f, int[] sideSteps, int i, int j) {
+        int w = resolution - i - j;
+        if (j == 0 && i % sideSteps[0] != 0) {
+            i = snap(i, sideSteps[0]);
+        } else if (w == 0 && j % sideSteps[1] != 0) {
+            j = snap(j, sideSteps[1]);
+            i = resolution - j;
+        } else if (i == 0 && w % sideSteps[2] != 0) {
+            j = resolution - snap(w, sideSteps[2]);
+        }
+        return getVertex(f, i, j);
+    }
+
+    private static int snap(int k, int step) {
+        return (k + step / 2) / step * step;
+    }
+
+    private int getVertex(int f, int i, int j) {
+        int w = resolution - i - j;
+        if (i == 0 && j == 0) {
+            return faceVertices[f * 3];
+        } else if (i == resolution) {
+            return faceVertices[f * 3 + 1];
+        } else if (j == resolution) {
+            return faceVertices[f * 3 + 2];
+        } else if (j == 0) {
+            return getEdgeVertex(f, 0, i);
+        } else if (w == 0) {
+            return getEdgeVertex(f, 1, j);
+        } else if (i == 0) {
+            return getEdgeVertex(f, 2, w);
+        }
+        int[] points = innerPoints[f];
+        if (points == null) {
+            points = new int[(resolution + 1) * (resolution + 2) / 2];
+            Arrays.fill(points, UNASSIGNED);
+            innerPoints[f] = points;
+        }
+        int slot = j * (resolution + 1) - j * (j - 1) / 2 + i;
+        if (points[slot] == UNASSIGNED) {
+            // the midpoint of a grid edge of the level it first shows up on
+            int step = Integer.lowestOneBit(i | j);
+            int v;
+            if ((i & step) != 0 && (j & step) != 0) {
+                v = addMidpoint(getVertex(f, i - step, j + step), getVertex(f, i + step, j - step));
+            } else if ((i & step) != 0) {
+                v = addMidpoint(getVertex(f, i - step, j), getVertex(f, i + step, j));
+            } else {
+                v = addMidpoint(getVertex(f, i, j - step), getVertex(f, i, j + step));
+            }
+            points[slot] = v;
+        }
+        return points[slot];
+    }
+
+    // the point k steps from the start of the side
+    private int getEdgeVertex(int f, int side, int k) {
+        int u = faceVertices[f * 3 + side];
+        int w = faceVertices[f * 3 + (side + 1) % 3];
+        int low = Math.min(u, w);
+        int high = Math.max(u, w);
+        if (u > w) {
+            k = resolution - k;
+        }
+        return getEdgeVertex(faceEdges[f * 3 + side], low, high, k);
+    }
+
+    private int getEdgeVertex(int edge, int low, int high, int k) {
+        if (k == 0) {
+            return low;
+        } else if (k == resolution) {
+            return high;
+        }
+        int slot = edge * (resolution - 1) + k - 1;
+        if (edgePoints[slot] == UNASSIGNED) {
+            int step = Integer.lowestOneBit(k);
+            edgePoints[slot] = addMidpoint(getEdgeVertex(edge, low, high, k - step),
+                    getEdgeVertex(edge, low, high, k + step));
+        }
+        return edgePoints[slot];
+    }
+
+    // as IcosphereGenerator places it
+    private int addMidpoint(int v1, int v2) {
+        if (vertices.length < (vertexCount + 1) * 3) {
+            vertices = Arrays.copyOf(vertices, vertices.length * 2);
+        }
+        float x = (vertices[v1 * 3] + vertices[v2 * 3]) / 2f;
+        float y = (vertices[v1 * 3 + 1] + vertices[v2 * 3 + 1]) / 2f;
+        float z = (vertices[v1 * 3 + 2] + vertices[v2 * 3 + 2]) / 2f;
+        Icosahedron.addVertex(vertices, x, y, z, vertexCount);
+        return vertexCount++;
+    }
+
+    private void computeBounds(int f) {
+        float cx = 0, cy = 0, cz = 0;
+        for (int k = 0; k < 3; k++) {
+            int v = faceVertices[f * 3 + k] * 3;
+            cx += vertices[v];
+            cy += vertices[v + 1];
+            cz += vertices[v + 2];
+        }
+        float length = Icosahedron.length(cx, cy, cz);
+        cx /= length;
+        cy /= length;
+        cz /= length;
+        float minCos = 1;
+        for (int k = 0; k < 3; k++) {
+            int v = faceVertices[f * 3 + k] * 3;
+            minCos = Math.min(minCos, cx * vertices[v] + cy * vertices[v + 1] + cz * vertices[v + 2]);
+        }
+        int b = f * 5;
+        faceBounds[b] = cx;
+        faceBounds[b + 1] = cy;
+        faceBounds[b + 2] = cz;
+        faceBounds[b + 3] = minCos;
+        faceBounds[b + 4] = (float) Math.sqrt(1 - minCos * minCos);
+    }
+
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (c) 2015 10cars Software
+ */
+
+package com.tencarssoftware.icosphere.geometry;
+
+import java.util.Arrays;
+
+/**
+ * Maps an edge key (smaller vertex index in the upper 32 bits, larger in the lower 32 bits) to
+ * the index of its midpoint vertex. Open addressing with linear probing over primitive arrays, so
+ * lookups and inserts neither box nor shift. Sized once for the largest level and cleared between
+ * levels.
+ */
+public class EdgeMidpointMap {
+    public static final int NO_VALUE = -1;
+    private static final long EMPTY = -1L;
+
+    private final long[] keys;
+    private final int[] values;
+    private final int mask;
+    private final int shift;
+    private int size;
+
+    public EdgeMidpointMap(int expectedSize) {
+        // keep the load factor at or below 0.5
+        int capacity = Integer.highestOneBit(Math.max(expectedSize, 2) * 2 - 1) << 1;
+        keys = new long[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+        shift = 64 - Integer.numberOfTrailingZeros(capacity);
+        Arrays.fill(keys, EMPTY);
+    }
+
+    public static long key(int v1, int v2) {
+        return v1 < v2 ? (long) v1 << 32 | v2 : (long) v2 << 32 | v1;
+    }
+
+    public int get(long key) {
+        int i = slot(key);
+        long k;
+        while ((k = keys[i]) != EMPTY) {
+            if (k == key) {
+                return values[i];
+            }
+            i = (i + 1) & mask;
+        }
+        return NO_VALUE;
+    }
+
+    public void put(long key, int value) {
+        int i = slot(key);
+        long k;
+        while ((k = keys[i]) != EMPTY) {
+            if (k == key) {
+                values[i] = value;
+                return;
+            }
+            i = (i + 1) & mask;
+        }
+        if (size == mask) {
+            throw new IllegalStateException("EdgeMidpointMap is full, capacity " + keys.length);
+        }
+        keys[i] = key;
+        values[i] = value;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        if (size > 0) {
+            Arrays.fill(keys, EMPTY);
+            size = 0;
+        }
+    }
+
+    private int slot(long key) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> shift);
+    }
+
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2015 10cars Software
+ */
+
+package com.tencarssoftware.icosphere.geometry;
+
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Expands an indexed mesh into a triangle soup with one face normal per triangle, used to draw
+ * the sphere with hard edges. Every vertex is a position followed by its normal, both stored in
+ * the vertex format: floats, or octahedral shorts since positions and normals are unit vectors.
+ */
+public class FlatShading {
+    public static final int FLOATS_PER_VERTEX = 6;
+
+    private static final int FLOATS_PER_TRIANGLE = 3 * FLOATS_PER_VERTEX;
+    private static final int SHORTS_PER_TRIANGLE = 3 * 4;
+    // triangles are written to the buffer in batches, bulk puts are a lot cheaper than single ones
+    private static final int BATCH_TRIANGLES = 512;
+
+    private FlatShading() {
+    }
+
+    public static int getFloatCount(int[] drawList) {
+        return drawList.length * FLOATS_PER_VERTEX;
+    }
+
+    public static int getByteSize(int[] drawList, VertexFormat format) {
+        return drawList.length * getStride(format);
+    }
+
+    public static int getStride(VertexFormat format) {
+        return format.getByteSize() * 2;
+    }
+
+    public static int getNormalOffset(VertexFormat format) {
+        return format.getByteSize();
+    }
+
+    public static void fill(float[] vertices, int[] drawList, FloatBuffer buffer) {
+        int triangleCount = drawList.length / 3;
+        float[] batch = new float[Math.min(triangleCount, BATCH_TRIANGLES) * FLOATS_PER_TRIANGLE];
+        int n = 0;
+        int i = 0;
+        for (int t = 0; t < triangleCount; t++) {
+            int a = drawList[i++] * 3;
+            int b = drawList[i++] * 3;
+            int c = drawList[i++] * 3;
+            float x1 = vertices[a], y1 = vertices[a + 1], z1 = vertices[a + 2];
+            float x2 = vertices[b], y2 = vertices[b + 1], z2 = vertices[b + 2];
+            float x3 = vertices[c], y3 = vertices[c + 1], z3 = vertices[c + 2];
+
+            float ux = x2 - x1, uy = y2 - y1, uz = z2 - z1;
+            float vx = x3 - x1, vy = y3 - y1, vz = z3 - z1;
+            float nx = uy * vz - uz * vy;
+            float ny = uz * vx - ux * vz;
+            float nz = ux * vy - uy * vx;
+            float length = Icosahedron.length(nx, ny, nz);
+            nx /= length;
+            ny /= length;
+            nz /= length;
+
+            n = putVertex(batch, n, x1, y1, z1, nx, ny, nz);
+            n = putVertex(batch, n, x2, y2, z2, nx, ny, nz);
+            n = putVertex(batch, n, x3, y3, z3, nx, ny, nz);
+            if (n == batch.length) {
+                buffer.put(batch);
+                n = 0;
+            }
+        }
+        buffer.put(batch, 0, n);
+        buffer.position(0);
+    }
+
+    public static void fill(float[] vertices, int[] drawList, ShortBuffer buffer) {
+        int triangleCount = drawList.length / 3;
+        short[] batch = new short[Math.min(triangleCount, BATCH_TRIANGLES) * SHORTS_PER_TRIANGLE];
+        int n = 0;
+        int i = 0;
+        for (int t = 0; t < triangleCount; t++) {
+            int a = drawList[i++] * 3;
+            int b = drawList[i++] * 3;
+            int c = drawList[i++] * 3;
+            float ux = vertices[b] - vertices[a], uy = vertices[b + 1] - vertices[a + 1], uz = vertices[b + 2] - vertices[a + 2];
+            float vx = vertices[c] - vertices[a], vy = vertices[c + 1] - vertices[a + 1], vz = vertices[c + 2] - vertices[a + 2];
+            // the encoding normalizes, no need to do it here
+            float nx = uy * vz - uz * vy;
+            float ny = uz * vx - ux * vz;
+            float nz = ux * vy - uy * vx;
+
+            n = OctahedralEncoding.encode(vertices[a], vertices[a + 1], vertices[a + 2], batch, n);
+            n = OctahedralEncoding.encode(nx, ny, nz, batch, n);
+            n = OctahedralEncoding.encode(vertices[b], vertices[b + 1], vertices[b + 2], batch, n);
+            n = OctahedralEncoding.encode(nx, ny, nz, batch, n);
+            n = OctahedralEncoding.encode(vertices[c], vertices[c + 1], vertices[c + 2], batch, n);
+            n = OctahedralEncoding.encode(nx, ny, nz, batch, n);
+            if (n == batch.length) {
+                buffer.put(batch);
+                n = 0;
+            }
+        }
+        buffer.put(batch, 0, n);
+        buffer.position(0);
+    }
+
+    private static int putVertex(float[] batch, int n, float x, float y, float z, float nx, float ny, float nz) {
+        batch[n++] = x;
+        batch[n++] = y;
+        batch[n++] = z;
+        batch[n++] = nx;
+        batch[n++] = ny;
+        batch[n++] = nz;
+        return n;
+    }
+
+}
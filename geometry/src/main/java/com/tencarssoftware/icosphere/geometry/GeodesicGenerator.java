@@ -0,0 +1,381 @@
+/*
+ * Copyright (c) 2015 10cars Software
+ */
+
+package com.tencarssoftware.icosphere.geometry;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Builds a geodesic sphere of any frequency straight from the 20 icosahedron faces: every face
+ * becomes a triangular grid with n segments per edge, so there are 10 * n^2 + 2 vertices and
+ * 20 * n^2 triangles. Every grid point has a fixed slot (the 12 corners, then n - 1 points per
+ * icosahedron edge, then the inside points of every face), and every face keeps a grid of the
+ * vertex numbers of its points, which replaces the edge hashing of IcosphereGenerator with plain
+ * array lookups.
+ * <p>
+ * For powers of two the vertices are numbered and placed exactly like IcosphereGenerator at
+ * level log2(n), with the triangles in the same order, so the output is identical. Other
+ * frequencies are numbered by slot and the grid points are projected from the flat face.
+ * <p>
+ * All the work is done per face, so given an ExecutorService the faces are built in parallel.
+ * The numbering does not depend on the schedule: at every level each face first claims the new
+ * points it owns (a point on a side shared with a lower face belongs to that face, because
+ * refine() gets there first), then the claims are numbered face after face.
+ */
+public class GeodesicGenerator {
+    private static final int UNASSIGNED = -1;
+    private static final int CLAIMED = -2;
+    private static final int CLAIM = 0;
+    private static final int ASSIGN = 1;
+    private static final int EMIT = 2;
+    private static final int GRID = 3;
+    // across side s of face f (0: A to B, 1: B to C, 2: C to A) lies side neighborSides[f * 3 + s]
+    // of face neighborFaces[f * 3 + s], running the other way
+    private static final int[] neighborFaces = new int[Icosahedron.FACE_COUNT * 3];
+    private static final int[] neighborSides = new int[Icosahedron.FACE_COUNT * 3];
+
+    static {
+        int[] faces = Icosahedron.FACES;
+        for (int f = 0; f < Icosahedron.FACE_COUNT; f++) {
+            for (int s = 0; s < 3; s++) {
+                int u = faces[f * 3 + s];
+                int w = faces[f * 3 + (s + 1) % 3];
+                for (int g = 0; g < Icosahedron.FACE_COUNT; g++) {
+                    for (int r = 0; r < 3; r++) {
+                        if (faces[g * 3 + r] == w && faces[g * 3 + (r + 1) % 3] == u) {
+                            neighborFaces[f * 3 + s] = g;
+                            neighborSides[f * 3 + s] = r;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private final int n;
+    private final int edgeSlots;
+    private final int faceSlots;
+    private final int[] rowStart;
+    // grids[f][rowStart[j] + i] is the vertex number of point (i, j) of face f
+    private final int[][] grids;
+    private final float[] vertices;
+    private final int[] drawList;
+    private final FaceWalker[] walkers;
+
+    private GeodesicGenerator(int frequency) {
+        n = frequency;
+        edgeSlots = Icosahedron.VERTEX_COUNT;
+        faceSlots = edgeSlots + Icosahedron.EDGE_COUNT * (n - 1);
+        rowStart = new int[n + 2];
+        for (int j = 1; j < rowStart.length; j++) {
+            rowStart[j] = rowStart[j - 1] + n + 2 - j;
+        }
+        grids = new int[Icosahedron.FACE_COUNT][rowStart[n + 1]];
+        vertices = new float[getVertexCount(frequency) * 3];
+        drawList = new int[getTriangleCount(frequency) * 3];
+        walkers = new FaceWalker[Icosahedron.FACE_COUNT];
+        for (int f = 0; f < walkers.length; f++) {
+            walkers[f] = new FaceWalker(f);
+        }
+    }
+
+    public static Mesh create(int frequency) {
+        return create(frequency, null);
+    }
+
+    /**
+     * Builds the faces on the given executor, or on the calling thread if it is null. The result
+     * does not depend on the executor.
+     */
+    public static Mesh create(int frequency, ExecutorService executor) {
+        if (frequency < 1) {
+            throw new IllegalArgumentException("Frequency must be at least 1, got " + frequency);
+        }
+        GeodesicGenerator generator = new GeodesicGenerator(frequency);
+        if (Integer.bitCount(frequency) == 1) {
+            generator.createSubdivided(Integer.numberOfTrailingZeros(frequency), executor);
+        } else {
+            generator.createGrid(executor);
+        }
+        return new Mesh(generator.vertices, generator.drawList);
+    }
+
+    public static int getVertexCount(int frequency) {
+        return 10 * frequency * frequency + 2;
+    }
+
+    public static int getTriangleCount(int frequency) {
+        return 20 * frequency * frequency;
+    }
+
+    /**
+     * Slot of grid point (i, j) of a face with corners A, B, C, that is A + i/n (B - A) + j/n (C - A).
+     */
+    private int slot(int face, int i, int j) {
+        int a = Icosahedron.FACES[face * 3];
+        int b = Icosahedron.FACES[face * 3 + 1];
+        int c = Icosahedron.FACES[face * 3 + 2];
+        if (j == 0) {
+            return i == 0 ? a : i == n ? b : edgeSlot(a, b, i);
+        } else if (i == 0) {
+            return j == n ? c : edgeSlot(a, c, j);
+        } else if (i + j == n) {
+            return edgeSlot(b, c, j);
+        }
+        // inside points, row j holds i = 1 .. n - 1 - j
+        int row = j - 1;
+        return faceSlots + face * ((n - 1) * (n - 2) / 2) + row * (n - 1) - row * (row + 1) / 2 + i - 1;
+    }
+
+    /**
+     * Slot of the point t segments along the icosahedron edge from vertex u towards vertex w.
+     */
+    private int edgeSlot(int u, int w, int t) {
+        int base = edgeSlots + Icosahedron.getEdge(u, w) * (n - 1);
+        return u < w ? base + t - 1 : base + n - t - 1;
+    }
+
+    private void createGrid(ExecutorService executor) {
+        Icosahedron.initialize(vertices);
+        for (int u = 0; u < Icosahedron.VERTEX_COUNT; u++) {
+            for (int w = u + 1; w < Icosahedron.VERTEX_COUNT; w++) {
+                if (Icosahedron.getEdge(u, w) >= 0) {
+                    for (int t = 1; t < n; t++) {
+                        addGridVertex(u, w, u, (float) t / n, 0f, edgeSlot(u, w, t));
+                    }
+                }
+            }
+        }
+        walkFaces(GRID, executor);
+    }
+
+    private void addGridVertex(int a, int b, int c, float s, float t, int i) {
+        float x = vertices[a * 3] + (vertices[b * 3] - vertices[a * 3]) * s + (vertices[c * 3] - vertices[a * 3]) * t;
+        float y = vertices[a * 3 + 1] + (vertices[b * 3 + 1] - vertices[a * 3 + 1]) * s + (vertices[c * 3 + 1] - vertices[a * 3 + 1]) * t;
+        float z = vertices[a * 3 + 2] + (vertices[b * 3 + 2] - vertices[a * 3 + 2]) * s + (vertices[c * 3 + 2] - vertices[a * 3 + 2]) * t;
+        Icosahedron.addVertex(vertices, x, y, z, i);
+    }
+
+    private void createSubdivided(int refinementCount, ExecutorService executor) {
+        int vCount = Icosahedron.initialize(vertices);
+        for (int f = 0; f < Icosahedron.FACE_COUNT; f++) {
+            int[] grid = grids[f];
+            Arrays.fill(grid, UNASSIGNED);
+            grid[0] = Icosahedron.FACES[f * 3];
+            grid[n] = Icosahedron.FACES[f * 3 + 1];
+            grid[rowStart[n]] = Icosahedron.FACES[f * 3 + 2];
+        }
+        // number the midpoints level by level, in the order refine() would find them
+        for (int k = 0; k < refinementCount; k++) {
+            for (FaceWalker walker : walkers) {
+                walker.depth = k;
+            }
+            walkFaces(CLAIM, executor);
+            for (FaceWalker walker : walkers) {
+                walker.firstVertex = vCount;
+                vCount += walker.claimedCount;
+            }
+            walkFaces(ASSIGN, executor);
+        }
+        for (FaceWalker walker : walkers) {
+            walker.depth = refinementCount;
+        }
+        walkFaces(EMIT, executor);
+    }
+
+    private void walkFaces(int mode, ExecutorService executor) {
+        for (FaceWalker walker : walkers) {
+            walker.mode = mode;
+        }
+        if (executor == null) {
+            for (FaceWalker walker : walkers) {
+                walker.call();
+            }
+            return;
+        }
+        try {
+            List<Future<Void>> futures = executor.invokeAll(Arrays.asList(walkers));
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while building the mesh.", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Unable to build the mesh.", e.getCause());
+        }
+    }
+
+    /**
+     * Builds one face. Only writes to its own grid, its own vertices and its own part of the draw
+     * list, apart from handing the points it owns on its sides to the neighbouring grids.
+     */
+    private final class FaceWalker implements Callable<Void> {
+        private final int face;
+        private final int[] grid;
+        private int mode;
+        private int depth;
+        // new points of the current level owned by this face, in the order refine() finds them, packed as j << 16 | i
+        private int[] claimed = new int[0];
+        private int claimedCount;
+        private int firstVertex;
+        private int index;
+
+        FaceWalker(int face) {
+            this.face = face;
+            this.grid = grids[face];
+        }
+
+        @Override
+        public Void call() {
+            switch (mode) {
+                case CLAIM:
+                    // a face at this depth has 4^depth triangles with 3 edges each
+                    if (claimed.length < 3 << (2 * depth)) {
+                        claimed = new int[3 << (2 * depth)];
+                    }
+                    claimedCount = 0;
+                    visit(depth, 0, 0, n, 0, 0, n);
+                    break;
+                case ASSIGN:
+                    assign(n >> (depth + 1));
+                    break;
+                case EMIT:
+                    index = face * n * n * 3;
+                    visit(depth, 0, 0, n, 0, 0, n);
+                    break;
+                case GRID:
+                    fillGrid();
+                    break;
+            }
+            return null;
+        }
+
+        /**
+         * Walks the triangles depth levels below (i1, j1), (i2, j2), (i3, j3) in the order refine()
+         * emits them, and either claims the midpoints of their edges or writes them to the draw list.
+         */
+        private void visit(int depth, int i1, int j1, int i2, int j2, int i3, int j3) {
+            if (depth == 0) {
+                if (mode == EMIT) {
+                    drawList[index++] = grid[rowStart[j1] + i1];
+                    drawList[index++] = grid[rowStart[j2] + i2];
+                    drawList[index++] = grid[rowStart[j3] + i3];
+                } else {
+                    claim((i1 + i2) >> 1, (j1 + j2) >> 1);
+                    claim((i2 + i3) >> 1, (j2 + j3) >> 1);
+                    claim((i3 + i1) >> 1, (j3 + j1) >> 1);
+                }
+                return;
+            }
+            int ai = (i1 + i2) >> 1;
+            int aj = (j1 + j2) >> 1;
+            int bi = (i2 + i3) >> 1;
+            int bj = (j2 + j3) >> 1;
+            int ci = (i3 + i1) >> 1;
+            int cj = (j3 + j1) >> 1;
+            visit(depth - 1, i1, j1, ai, aj, ci, cj);
+            visit(depth - 1, ci, cj, bi, bj, i3, j3);
+            visit(depth - 1, ai, aj, i2, j2, bi, bj);
+            visit(depth - 1, ai, aj, bi, bj, ci, cj);
+        }
+
+        private void claim(int i, int j) {
+            int m = rowStart[j] + i;
+            if (grid[m] != UNASSIGNED) {
+                return;
+            }
+            int side = j == 0 ? 0 : i + j == n ? 1 : i == 0 ? 2 : -1;
+            if (side >= 0 && neighborFaces[face * 3 + side] < face) {
+                return;
+            }
+            grid[m] = CLAIMED;
+            claimed[claimedCount++] = j << 16 | i;
+        }
+
+        /**
+         * Numbers and places the claimed points. They are h apart from the points of the level
+         * before, so which edge each one splits follows from whether i / h and j / h are odd.
+         */
+        private void assign(int h) {
+            for (int r = 0; r < claimedCount; r++) {
+                int i = claimed[r] & 0xffff;
+                int j = claimed[r] >>> 16;
+                int v1;
+                int v2;
+                if ((j / h & 1) == 0) {
+                    v1 = grid[rowStart[j] + i - h];
+                    v2 = grid[rowStart[j] + i + h];
+                } else if ((i / h & 1) == 0) {
+                    v1 = grid[rowStart[j - h] + i];
+                    v2 = grid[rowStart[j + h] + i];
+                } else {
+                    v1 = grid[rowStart[j + h] + i - h];
+                    v2 = grid[rowStart[j - h] + i + h];
+                }
+                int v = firstVertex + r;
+                float x = (vertices[v1 * 3] + vertices[v2 * 3]) / 2f;
+                float y = (vertices[v1 * 3 + 1] + vertices[v2 * 3 + 1]) / 2f;
+                float z = (vertices[v1 * 3 + 2] + vertices[v2 * 3 + 2]) / 2f;
+                Icosahedron.addVertex(vertices, x, y, z, v);
+                grid[rowStart[j] + i] = v;
+                if (j == 0) {
+                    shareSidePoint(face, 0, i, v);
+                } else if (i + j == n) {
+                    shareSidePoint(face, 1, j, v);
+                } else if (i == 0) {
+                    shareSidePoint(face, 2, n - j, v);
+                }
+            }
+        }
+
+        private void fillGrid() {
+            int a = Icosahedron.FACES[face * 3];
+            int b = Icosahedron.FACES[face * 3 + 1];
+            int c = Icosahedron.FACES[face * 3 + 2];
+            for (int j = 0; j <= n; j++) {
+                for (int i = 0; i + j <= n; i++) {
+                    int slot = slot(face, i, j);
+                    grid[rowStart[j] + i] = slot;
+                    if (slot >= faceSlots) {
+                        addGridVertex(a, b, c, (float) i / n, (float) j / n, slot);
+                    }
+                }
+            }
+            index = face * n * n * 3;
+            for (int j = 0; j < n; j++) {
+                int row = rowStart[j];
+                int next = rowStart[j + 1];
+                for (int i = 0; i + j < n; i++) {
+                    drawList[index++] = grid[row + i];
+                    drawList[index++] = grid[row + i + 1];
+                    drawList[index++] = grid[next + i];
+                    if (i + j < n - 1) {
+                        drawList[index++] = grid[row + i + 1];
+                        drawList[index++] = grid[next + i + 1];
+                        drawList[index++] = grid[next + i];
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Stores vertex v, t segments along side s of the face, in the grid of the face across that side.
+     */
+    private void shareSidePoint(int face, int s, int t, int v) {
+        int neighbor = neighborFaces[face * 3 + s];
+        int side = neighborSides[face * 3 + s];
+        t = n - t;
+        int i = side == 0 ? t : side == 1 ? n - t : 0;
+        int j = side == 0 ? 0 : side == 1 ? t : n - t;
+        grids[neighbor][rowStart[j] + i] = v;
+    }
+
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2015 10cars Software
+ */
+
+package com.tencarssoftware.icosphere.geometry;
+
+import java.util.Arrays;
+
+/**
+ * The icosahedron every sphere starts from: 12 vertices on the unit sphere, 20 faces and the 30
+ * edges between them.
+ */
+class Icosahedron {
+    static final int VERTEX_COUNT = 12;
+    static final int EDGE_COUNT = 30;
+    static final int FACE_COUNT = 20;
+    static final int FACES[] = {
+            0, 11, 5,
+            0, 5, 1,
+            0, 1, 7,
+            0, 7, 10,
+            0, 10, 11,
+
+            1, 5, 9,
+            5, 11, 4,
+            11, 10, 2,
+            10, 7, 6,
+            7, 1, 8,
+
+            3, 9, 4,
+            3, 4, 2,
+            3, 2, 6,
+            3, 6, 8,
+            3, 8, 9,
+
+            4, 9, 5,
+            2, 4, 11,
+            6, 2, 10,
+            8, 6, 7,
+            9, 8, 1
+    };
+    private static final float t = (float) ((1.0 + Math.sqrt(5.0)) / 2.0);
+    // edge id for every pair of adjacent vertices (both orders), numbered in the order the faces
+    // first walk over them, -1 for pairs that are not an edge
+    private static final int[] edgeIds = new int[VERTEX_COUNT * VERTEX_COUNT];
+
+    static {
+        Arrays.fill(edgeIds, -1);
+        int count = 0;
+        for (int f = 0; f < FACE_COUNT; f++) {
+            for (int k = 0; k < 3; k++) {
+                int u = FACES[f * 3 + k];
+                int w = FACES[f * 3 + (k + 1) % 3];
+                int e = edgeIds[u * VERTEX_COUNT + w];
+                if (e < 0) {
+                    e = count++;
+                    edgeIds[u * VERTEX_COUNT + w] = e;
+                    edgeIds[w * VERTEX_COUNT + u] = e;
+                }
+            }
+        }
+    }
+
+    private Icosahedron() {
+    }
+
+    static int getEdge(int u, int w) {
+        return edgeIds[u * VERTEX_COUNT + w];
+    }
+
+    static float length(float x, float y, float z) {
+        return (float) Math.sqrt(x * x + y * y + z * z);
+    }
+
+    static void addVertex(float[] vertices, float x, float y, float z, int i) {
+        float length = length(x, y, z);
+        vertices[i * 3] = x / length;
+        vertices[i * 3 + 1] = y / length;
+        vertices[i * 3 + 2] = z / length;
+    }
+
+    static int initialize(float[] vertices) {
+        int vCount = 0;
+        addVertex(vertices, 0f, 1f, 1f / t, vCount++);
+        addVertex(vertices, 0f, 1f, -1f / t, vCount++);
+        addVertex(vertices, 0f, -1f, 1f / t, vCount++);
+        addVertex(vertices, 0f, -1f, -1f / t, vCount++);
+
+        addVertex(vertices, 1f, -1f / t, 0f, vCount++);
+        addVertex(vertices, 1f, 1f / t, 0f, vCount++);
+        addVertex(vertices, -1f, -1f / t, 0f, vCount++);
+        addVertex(vertices, -1f, 1f / t, 0f, vCount++);
+
+        addVertex(vertices, -1f / t, 0f, -1f, vCount++);
+        addVertex(vertices, 1f / t, 0f, -1f, vCount++);
+        addVertex(vertices, -1f / t, 0f, 1f, vCount++);
+        addVertex(vertices, 1f / t, 0f, 1f, vCount++);
+        return vCount;
+    }
+
+}
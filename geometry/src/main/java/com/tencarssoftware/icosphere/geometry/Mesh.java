@@ -0,0 +1,28 @@
+/*
+ * Copyright (c) 2015 10cars Software
+ */
+
+package com.tencarssoftware.icosphere.geometry;
+
+public class Mesh {
+    public final float[] vertices;
+    public final int[] drawList;
+
+    public Mesh(float[] vertices, int[] drawList) {
+        this.vertices = vertices;
+        this.drawList = drawList;
+    }
+
+    public int getVertexCount() {
+        return vertices.length / 3;
+    }
+
+    public int getTriangleCount() {
+        return drawList.length / 3;
+    }
+
+    public long getByteSize() {
+        return (vertices.length + drawList.length) * 4L;
+    }
+
+}
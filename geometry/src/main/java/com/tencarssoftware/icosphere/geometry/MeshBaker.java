@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2015 10cars Software
+ */
+
+package com.tencarssoftware.icosphere.geometry;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Turns smooth shaded meshes into the parts and shared levels the spheres upload, at runtime or
+ * ahead of time into MeshFiles:
+ * <pre>
+ * MeshBaker &lt;directory&gt; &lt;vertex format&gt; &lt;max shared levels&gt; [level...]
+ * </pre>
+ * with the max shared levels comma separated, one file each.
+ * The app's bakeMeshes task runs it, the files end up in the APK's assets.
+ */
+public class MeshBaker {
+
+    /**
+     * The parts of the mesh: its triangles ordered for a vertex cache of cacheSize entries
+     * (0 keeps them), split into patches, and split up in parts of 16 bit indices where the
+     * mesh needs 32 bit indices but can't have them.
+     */
+    public static MeshData[] bake(Mesh mesh, VertexFormat format, boolean useIntIndices, int cacheSize) {
+        // the mesh comes in refine order, so its patches are ranges of triangles
+        int trianglesPerPatch = Patches.getTrianglesPerPatch(IcosphereGenerator.getRefinementCount(mesh));
+        if (cacheSize > 0) {
+            long start = PhaseTrace.begin("optimize");
+            mesh = VertexCacheOptimizer.optimize(mesh, cacheSize, trianglesPerPatch);
+            PhaseTrace.end("optimize", start, mesh.getByteSize(), 0);
+        }
+        long start = PhaseTrace.begin("fillBuffers");
+        MeshData[] data = fillBuffers(mesh, format, useIntIndices, trianglesPerPatch);
+        PhaseTrace.end("fillBuffers", start, MeshData.getByteSize(data), 0);
+        return data;
+    }
+
+    /**
+     * The parts of a mesh that isn't refine ordered and changes too often to be optimized, e.g.
+     * from AdaptiveTessellator: no patches, split up where it needs 32 bit indices but can't
+     * have them.
+     */
+    public static MeshData[] fill(Mesh mesh, VertexFormat format, boolean useIntIndices) {
+        return fillBuffers(mesh, format, useIntIndices, 0);
+    }
+
+    /**
+     * All levels up to maxLevel, with 32 bit indices only where maxLevel needs them.
+     */
+    public static SharedLevelData bakeSharedLevels(int maxLevel, VertexFormat format, int cacheSize) {
+        int elementSize = IcosphereGenerator.getVertexCount(maxLevel) > MeshChunker.MAX_SHORT_INDEX_VERTICES ? 4 : 2;
+        long start = PhaseTrace.begin("buildSharedLevels");
+        SharedLevelData data = SharedLevelData.create(maxLevel, elementSize, format, cacheSize);
+        PhaseTrace.end("buildSharedLevels", start, data.data.getByteSize(), 0);
+        return data;
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.err.println("Usage: MeshBaker <directory> <vertex format> <max shared levels> [level...]");
+            System.exit(1);
+        }
+        File directory = new File(args[0]);
+        VertexFormat format = VertexFormat.valueOf(args[1]);
+        int cacheSize = VertexCacheOptimizer.DEFAULT_CACHE_SIZE;
+        for (String arg : args[2].split(",")) {
+            int maxSharedLevel = Integer.parseInt(arg);
+            SharedLevelData levels = bakeSharedLevels(maxSharedLevel, format, cacheSize);
+            MeshFile.write(new File(directory, MeshFile.getSharedLevelsName(maxSharedLevel, format)), levels, format);
+        }
+        for (int i = 3; i < args.length; i++) {
+            int level = Integer.parseInt(args[i]);
+            MeshData[] parts = bake(IcosphereGenerator.create(level), format, true, cacheSize);
+            MeshFile.write(new File(directory, MeshFile.getName(level, Shading.SMOOTH, format)), level, Shading.SMOOTH, format, parts);
+        }
+    }
+
+    private static MeshData[] fillBuffers(Mesh mesh, VertexFormat format, boolean useIntIndices, int trianglesPerPatch) {
+        if (mesh.getVertexCount() <= MeshChunker.MAX_SHORT_INDEX_VERTICES) {
+            return new MeshData[]{MeshData.create(mesh, 2, format, createPatches(mesh, 0, trianglesPerPatch))};
+        } else if (useIntIndices) {
+            return new MeshData[]{MeshData.create(mesh, 4, format, createPatches(mesh, 0, trianglesPerPatch))};
+        }
+        Mesh[] meshes = MeshChunker.split(mesh, MeshChunker.MAX_SHORT_INDEX_VERTICES);
+        MeshData[] data = new MeshData[meshes.length];
+        int firstTriangle = 0;
+        for (int i = 0; i < meshes.length; i++) {
+            data[i] = MeshData.create(meshes[i], 2, format, createPatches(meshes[i], firstTriangle, trianglesPerPatch));
+            firstTriangle += meshes[i].getTriangleCount();
+        }
+        return data;
+    }
+
+    private static Patches createPatches(Mesh mesh, int firstTriangle, int trianglesPerPatch) {
+        return trianglesPerPatch > 0 ? Patches.create(mesh, firstTriangle, trianglesPerPatch) : null;
+    }
+
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2015 10cars Software
+ */
+
+package com.tencarssoftware.icosphere.geometry;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Keeps built meshes by (level, shading, vertex format) so stepping back and forth between levels only costs an
+ * upload. Entries are dropped least recently used first once their direct buffers go over the
+ * byte budget. On top of that the cache retains the last indexed mesh it built (also counted
+ * against the budget): its vertices are a prefix of every higher level, so going up continues
+ * subdividing it instead of starting over from the icosahedron.
+ */
+public class MeshCache {
+    private final long budget;
+    private final LinkedHashMap<Integer, MeshData[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long size;
+    private Mesh retained;
+    private int retainedLevel;
+    private int hits;
+    private int misses;
+
+    public MeshCache(long budget) {
+        this.budget = budget;
+    }
+
+    public synchronized MeshData[] get(int level, Shading shading, VertexFormat format) {
+        MeshData[] parts = entries.get(key(level, shading, format));
+        if (parts != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return parts;
+    }
+
+    public synchronized void put(int level, Shading shading, VertexFormat format, MeshData[] parts) {
+        MeshData[] old = entries.remove(key(level, shading, format));
+        if (old != null) {
+            size -= MeshData.getByteSize(old);
+        }
+        long partsSize = MeshData.getByteSize(parts);
+        if (partsSize > budget) {
+            return;
+        }
+        entries.put(key(level, shading, format), parts);
+        size += partsSize;
+        trim();
+    }
+
+    /**
+     * Returns the indexed mesh for the level, continuing from the retained mesh when it is lower.
+     */
+    public synchronized Mesh getIndexedMesh(int level, ExecutorService executor) {
+        Mesh mesh;
+        if (retained != null && retainedLevel == level) {
+            return retained;
+        } else if (retained != null && retainedLevel < level) {
+            long start = PhaseTrace.begin("refine");
+            mesh = IcosphereGenerator.refine(retained, level - retainedLevel);
+            PhaseTrace.end("refine", start, mesh.getByteSize(), 0);
+        } else {
+            long start = PhaseTrace.begin("createModel");
+            mesh = GeodesicGenerator.create(1 << level, executor);
+            PhaseTrace.end("createModel", start, mesh.getByteSize(), 0);
+        }
+        retained = null;
+        if (mesh.getByteSize() <= budget) {
+            retained = mesh;
+            retainedLevel = level;
+            trim();
+        }
+        return mesh;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        size = 0;
+        retained = null;
+    }
+
+    public synchronized long getSize() {
+        return size + (retained == null ? 0 : retained.getByteSize());
+    }
+
+    public long getBudget() {
+        return budget;
+    }
+
+    public synchronized int getHitCount() {
+        return hits;
+    }
+
+    public synchronized int getMissCount() {
+        return misses;
+    }
+
+    private void trim() {
+        Iterator<Map.Entry<Integer, MeshData[]>> iterator = entries.entrySet().iterator();
+        while (getSize() > budget && iterator.hasNext()) {
+            size -= MeshData.getByteSize(iterator.next().getValue());
+            iterator.remove();
+        }
+    }
+
+    private static Integer key(int level, Shading shading, VertexFormat format) {
+        return (level * Shading.values().length + shading.ordinal()) * VertexFormat.values().length + format.ordinal();
+    }
+
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2015 10cars Software
+ */
+
+package com.tencarssoftware.icosphere.geometry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Splits a mesh into sub-meshes of at most maxVertices vertices each, with the draw lists
+ * rewritten to the local vertex numbering, so every part can be drawn with 16 bit indices.
+ * Triangles keep their order; a part is closed as soon as the next triangle would not fit.
+ */
+public class MeshChunker {
+    public static final int MAX_SHORT_INDEX_VERTICES = 65535;
+
+    private MeshChunker() {
+    }
+
+    public static Mesh[] split(Mesh mesh, int maxVertices) {
+        if (maxVertices < 3) {
+            throw new IllegalArgumentException("Need room for at least one triangle, got " + maxVertices);
+        }
+        if (mesh.getVertexCount() <= maxVertices) {
+            return new Mesh[]{mesh};
+        }
+        int[] drawList = mesh.drawList;
+        // global index -> local index, valid while localMap[i] belongs to the current part
+        int[] localMap = new int[mesh.getVertexCount()];
+        int[] globalIndices = new int[maxVertices];
+        int[] partDrawList = new int[Math.min(drawList.length, maxVertices * 6)];
+        List<Mesh> parts = new ArrayList<>();
+        Arrays.fill(localMap, -1);
+
+        int vertexCount = 0;
+        int length = 0;
+        for (int i = 0; i < drawList.length; i += 3) {
+            int needed = 0;
+            for (int j = 0; j < 3; j++) {
+                if (localMap[drawList[i + j]] < 0)
+                    needed++;
+            }
+            if (vertexCount + needed > maxVertices || length + 3 > partDrawList.length) {
+                parts.add(createPart(mesh.vertices, globalIndices, vertexCount, partDrawList, length));
+                for (int j = 0; j < vertexCount; j++) {
+                    localMap[globalIndices[j]] = -1;
+                }
+                vertexCount = 0;
+                length = 0;
+            }
+            for (int j = 0; j < 3; j++) {
+                int global = drawList[i + j];
+                int local = localMap[global];
+                if (local < 0) {
+                    local = vertexCount++;
+                    localMap[global] = local;
+                    globalIndices[local] = global;
+                }
+                partDrawList[length++] = local;
+            }
+        }
+        if (length > 0) {
+            parts.add(createPart(mesh.vertices, globalIndices, vertexCount, partDrawList, length));
+        }
+        return parts.toArray(new Mesh[parts.size()]);
+    }
+
+    private static Mesh createPart(float[] vertices, int[] globalIndices, int vertexCount, int[] drawList, int length) {
+        float[] partVertices = new float[vertexCount * 3];
+        for (int i = 0; i < vertexCount; i++) {
+            System.arraycopy(vertices, globalIndices[i] * 3, partVertices, i * 3, 3);
+        }
+        return new Mesh(partVertices, Arrays.copyOf(drawList, length));
+    }
+
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2015 10cars Software
+ */
+
+package com.tencarssoftware.icosphere.geometry;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+
+/**
+ * Mesh data in direct buffers, ready to be handed to glBufferData. The buffers are never
+ * consumed: readers use duplicates, so the same data can be uploaded again.
+ */
+public class MeshData {
+    public final ByteBuffer vertices;
+    // null for triangle soups drawn with glDrawArrays
+    public final ByteBuffer drawList;
+    public final int vertexCount;
+    public final int drawListLength;
+    // 2 or 4 bytes per index, 0 without a draw list
+    public final int drawListElementSize;
+    // null when the draw list isn't split into patches
+    public final Patches patches;
+
+    public MeshData(ByteBuffer vertices, int vertexCount, ByteBuffer drawList, int drawListLength, int drawListElementSize) {
+        this(vertices, vertexCount, drawList, drawListLength, drawListElementSize, null);
+    }
+
+    public MeshData(ByteBuffer vertices, int vertexCount, ByteBuffer drawList, int drawListLength, int drawListElementSize,
+                    Patches patches) {
+        this.vertices = vertices;
+        this.vertexCount = vertexCount;
+        this.drawList = drawList;
+        this.drawListLength = drawListLength;
+        this.drawListElementSize = drawListElementSize;
+        this.patches = patches;
+    }
+
+    public static MeshData create(Mesh mesh, int drawListElementSize) {
+        return create(mesh, drawListElementSize, VertexFormat.FLOAT);
+    }
+
+    public static MeshData create(Mesh mesh, int drawListElementSize, VertexFormat format) {
+        return create(mesh, drawListElementSize, format, null);
+    }
+
+    public static MeshData create(Mesh mesh, int drawListElementSize, VertexFormat format, Patches patches) {
+        ByteBuffer bb = allocate(mesh.getVertexCount() * format.getByteSize());
+        if (format == VertexFormat.OCTAHEDRAL) {
+            OctahedralEncoding.encode(mesh.vertices, bb.asShortBuffer());
+        } else {
+            bb.asFloatBuffer().put(mesh.vertices);
+        }
+
+        int[] drawList = mesh.drawList;
+        ByteBuffer dlb = allocate(drawList.length * drawListElementSize);
+        if (drawListElementSize == 4) {
+            dlb.asIntBuffer().put(drawList);
+        } else {
+            ShortBuffer drawListBuffer = dlb.asShortBuffer();
+            for (int index : drawList) {
+                drawListBuffer.put((short) index);
+            }
+        }
+        return new MeshData(bb, mesh.getVertexCount(), dlb, drawList.length, drawListElementSize, patches);
+    }
+
+    public static ByteBuffer allocate(int size) {
+        return ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+    }
+
+    public boolean hasDrawList() {
+        return drawList != null;
+    }
+
+    public int getByteSize() {
+        return vertices.capacity() + (drawList == null ? 0 : drawList.capacity());
+    }
+
+    public static int getByteSize(MeshData[] parts) {
+        int size = 0;
+        for (MeshData part : parts) {
+            size += part.getByteSize();
+        }
+        return size;
+    }
+
+}
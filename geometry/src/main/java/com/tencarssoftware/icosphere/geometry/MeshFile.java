@@ -0,0 +1,243 @@
+/*
+ * Copyright (c) 2015 10cars Software
+ */
+
+package com.tencarssoftware.icosphere.geometry;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Locale;
+import java.util.zip.CRC32;
+
+/**
+ * Mesh data as a file that is memory-mapped back, the vertex and index buffers are slices of
+ * the mapping and go to glBufferData as they are. Layout, all ints in native byte order:
+ * <pre>
+ * header   magic, version, kind, level, shading, vertex format, part count, payload length, CRC32 of the payload
+ * part     vertex count, vertex bytes, draw list length, index size, patch count,
+ *          the vertices, the draw list padded to 4 bytes, the patches
+ * offsets  shared levels only: level count + 1 ints, then per level a patch count and the patches
+ * </pre>
+ * A file written with the other byte order fails the magic. The version has to go up whenever
+ * the layout or the way meshes are built changes, old files are then rebuilt.
+ */
+public class MeshFile {
+    private static final int MAGIC = 0x4d455348;
+    private static final int VERSION = 1;
+    private static final int PARTS = 0;
+    private static final int SHARED_LEVELS = 1;
+    private static final int HEADER_SIZE = 9 * 4;
+    private static final int PART_HEADER_SIZE = 5 * 4;
+    private static final int CHECKSUM_CHUNK = 64 * 1024;
+
+    public static String getName(int level, Shading shading, VertexFormat format) {
+        return String.format(Locale.US, "icosphere-%d-%s-%s.mesh", level, shading, format).toLowerCase(Locale.US);
+    }
+
+    public static String getSharedLevelsName(int maxLevel, VertexFormat format) {
+        return String.format(Locale.US, "shared-%d-%s.mesh", maxLevel, format).toLowerCase(Locale.US);
+    }
+
+    public static void write(File file, int level, Shading shading, VertexFormat format, MeshData[] parts)
+            throws IOException {
+        int length = 0;
+        for (MeshData part : parts) {
+            length += getByteSize(part);
+        }
+        ByteBuffer payload = ByteBuffer.allocate(length).order(ByteOrder.nativeOrder());
+        for (MeshData part : parts) {
+            putPart(payload, part);
+        }
+        write(file, PARTS, level, shading, format, parts.length, payload);
+    }
+
+    public static void write(File file, SharedLevelData levels, VertexFormat format) throws IOException {
+        int maxLevel = levels.getMaxLevel();
+        int length = getByteSize(levels.data) + (maxLevel + 2) * 4;
+        for (int level = 0; level <= maxLevel; level++) {
+            Patches patches = levels.getPatches(level);
+            length += 4 + (patches == null ? 0 : Patches.getByteSize(patches.getCount()));
+        }
+        ByteBuffer payload = ByteBuffer.allocate(length).order(ByteOrder.nativeOrder());
+        putPart(payload, levels.data);
+        for (int level = 0; level <= maxLevel + 1; level++) {
+            payload.putInt(level <= maxLevel ? levels.getOffset(level) : levels.getOffset(maxLevel) + levels.getLength(maxLevel));
+        }
+        for (int level = 0; level <= maxLevel; level++) {
+            Patches patches = levels.getPatches(level);
+            payload.putInt(patches == null ? 0 : patches.getCount());
+            if (patches != null) {
+                patches.write(payload);
+            }
+        }
+        write(file, SHARED_LEVELS, maxLevel, Shading.SMOOTH, format, 1, payload);
+    }
+
+    /**
+     * Maps the parts of the mesh, null if the file holds something else or is damaged.
+     */
+    public static MeshData[] map(File file, int level, Shading shading, VertexFormat format) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            return map(channel, 0, channel.size(), level, shading, format);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Maps the parts from a region of the channel, e.g. an uncompressed asset inside an APK. The
+     * mapping stays valid after the channel is closed.
+     */
+    public static MeshData[] map(FileChannel channel, long offset, long length, int level, Shading shading,
+                                 VertexFormat format) throws IOException {
+        ByteBuffer in = mapPayload(channel, offset, length, PARTS, level, shading, format);
+        if (in == null) {
+            return null;
+        }
+        MeshData[] parts = new MeshData[in.getInt(6 * 4)];
+        for (int i = 0; i < parts.length; i++) {
+            parts[i] = getPart(in);
+        }
+        return parts;
+    }
+
+    public static SharedLevelData mapSharedLevels(File file, int maxLevel, VertexFormat format) throws IOException {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            return mapSharedLevels(channel, 0, channel.size(), maxLevel, format);
+        } finally {
+            in.close();
+        }
+    }
+
+    public static SharedLevelData mapSharedLevels(FileChannel channel, long offset, long length, int maxLevel,
+                                                  VertexFormat format) throws IOException {
+        ByteBuffer in = mapPayload(channel, offset, length, SHARED_LEVELS, maxLevel, Shading.SMOOTH, format);
+        if (in == null) {
+            return null;
+        }
+        MeshData data = getPart(in);
+        int[] offsets = new int[maxLevel + 2];
+        for (int level = 0; level < offsets.length; level++) {
+            offsets[level] = in.getInt();
+        }
+        Patches[] patches = new Patches[maxLevel + 1];
+        for (int level = 0; level <= maxLevel; level++) {
+            int count = in.getInt();
+            patches[level] = count > 0 ? Patches.read(in, count) : null;
+        }
+        return new SharedLevelData(data, offsets, patches);
+    }
+
+    private static void write(File file, int kind, int level, Shading shading, VertexFormat format, int partCount,
+                              ByteBuffer payload) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(payload.array(), 0, payload.capacity());
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.nativeOrder());
+        header.putInt(MAGIC).putInt(VERSION).putInt(kind).putInt(level).putInt(shading.ordinal())
+                .putInt(format.ordinal()).putInt(partCount).putInt(payload.capacity()).putInt((int) crc.getValue());
+        // readers never see a half written file
+        File parent = file.getAbsoluteFile().getParentFile();
+        parent.mkdirs();
+        File temp = File.createTempFile(file.getName(), ".tmp", parent);
+        try {
+            FileOutputStream out = new FileOutputStream(temp);
+            try {
+                out.write(header.array());
+                out.write(payload.array());
+            } finally {
+                out.close();
+            }
+            if (!temp.renameTo(file)) {
+                throw new IOException("Unable to rename " + temp + " to " + file);
+            }
+        } finally {
+            temp.delete();
+        }
+    }
+
+    // the payload positioned after the header, null if the header doesn't match or the checksum fails
+    private static ByteBuffer mapPayload(FileChannel channel, long offset, long length, int kind, int level,
+                                         Shading shading, VertexFormat format) throws IOException {
+        if (length < HEADER_SIZE || length > Integer.MAX_VALUE) {
+            return null;
+        }
+        ByteBuffer in = channel.map(FileChannel.MapMode.READ_ONLY, offset, length).order(ByteOrder.nativeOrder());
+        if (in.getInt() != MAGIC || in.getInt() != VERSION || in.getInt() != kind || in.getInt() != level
+                || in.getInt() != shading.ordinal() || in.getInt() != format.ordinal()) {
+            return null;
+        }
+        in.getInt();
+        int payloadLength = in.getInt();
+        int checksum = in.getInt();
+        if (payloadLength != length - HEADER_SIZE || checksum(in) != checksum) {
+            return null;
+        }
+        return in;
+    }
+
+    // reads the payload once, which also pages it in for the upload
+    private static int checksum(ByteBuffer in) {
+        ByteBuffer payload = in.duplicate();
+        byte[] chunk = new byte[CHECKSUM_CHUNK];
+        CRC32 crc = new CRC32();
+        while (payload.hasRemaining()) {
+            int n = Math.min(chunk.length, payload.remaining());
+            payload.get(chunk, 0, n);
+            crc.update(chunk, 0, n);
+        }
+        return (int) crc.getValue();
+    }
+
+    private static int getByteSize(MeshData part) {
+        int size = PART_HEADER_SIZE + part.vertices.capacity() + pad(part.drawListLength * part.drawListElementSize);
+        return size + (part.patches == null ? 0 : Patches.getByteSize(part.patches.getCount()));
+    }
+
+    private static void putPart(ByteBuffer out, MeshData part) {
+        int drawListSize = part.drawListLength * part.drawListElementSize;
+        out.putInt(part.vertexCount).putInt(part.vertices.capacity()).putInt(part.drawListLength)
+                .putInt(part.drawListElementSize).putInt(part.patches == null ? 0 : part.patches.getCount());
+        out.put((ByteBuffer) part.vertices.duplicate().clear());
+        if (part.hasDrawList()) {
+            out.put((ByteBuffer) part.drawList.duplicate().clear());
+        }
+        out.position(out.position() + pad(drawListSize) - drawListSize);
+        if (part.patches != null) {
+            part.patches.write(out);
+        }
+    }
+
+    private static MeshData getPart(ByteBuffer in) {
+        int vertexCount = in.getInt();
+        int vertexSize = in.getInt();
+        int drawListLength = in.getInt();
+        int elementSize = in.getInt();
+        int patchCount = in.getInt();
+        ByteBuffer vertices = slice(in, vertexSize);
+        ByteBuffer drawList = elementSize > 0 ? slice(in, drawListLength * elementSize) : null;
+        in.position(in.position() + pad(drawListLength * elementSize) - drawListLength * elementSize);
+        Patches patches = patchCount > 0 ? Patches.read(in, patchCount) : null;
+        return new MeshData(vertices, vertexCount, drawList, drawListLength, elementSize, patches);
+    }
+
+    private static ByteBuffer slice(ByteBuffer in, int size) {
+        ByteBuffer b = in.duplicate();
+        b.limit(b.position() + size);
+        in.position(in.position() + size);
+        return b.slice().order(ByteOrder.nativeOrder());
+    }
+
+    private static int pad(int size) {
+        return (size + 3) & ~3;
+    }
+
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright (c) 2015 10cars Software
+ */
+
+package com.tencarssoftware.icosphere.geometry;
+
+import java.nio.ShortBuffer;
+
+/**
+ * Stores unit vectors in two shorts: the vector is projected onto the octahedron |x|+|y|+|z| = 1
+ * and the lower half is folded over the upper one, which leaves a square. The shaders read the
+ * shorts unnormalized and divide by SCALE, GLES 2.0 maps normalized shorts with (2c+1)/65535 so
+ * zero would not survive. The angular error is under 0.04 degrees.
+ */
+public class OctahedralEncoding {
+    public static final float SCALE = 32767f;
+
+    private OctahedralEncoding() {
+    }
+
+    public static void encode(float[] vectors, ShortBuffer buffer) {
+        short[] batch = new short[Math.min(vectors.length / 3, 1024) * 2];
+        int n = 0;
+        for (int i = 0; i < vectors.length; i += 3) {
+            n = encode(vectors[i], vectors[i + 1], vectors[i + 2], batch, n);
+            if (n == batch.length) {
+                buffer.put(batch);
+                n = 0;
+            }
+        }
+        buffer.put(batch, 0, n);
+        buffer.position(0);
+    }
+
+    /**
+     * Writes the two shorts for (x, y, z) at offset and returns the offset after them.
+     */
+    public static int encode(float x, float y, float z, short[] out, int offset) {
+        float l1 = Math.abs(x) + Math.abs(y) + Math.abs(z);
+        float u = x / l1;
+        float v = y / l1;
+        if (z < 0) {
+            float fu = (1 - Math.abs(v)) * signNotZero(u);
+            v = (1 - Math.abs(u)) * signNotZero(v);
+            u = fu;
+        }
+        out[offset++] = quantize(u);
+        out[offset++] = quantize(v);
+        return offset;
+    }
+
+    /**
+     * Decodes like the shaders do, used to check the precision.
+     */
+    public static void decode(short eu, short ev, float[] out, int offset) {
+        float u = eu / SCALE;
+        float v = ev / SCALE;
+        float z = 1 - Math.abs(u) - Math.abs(v);
+        if (z < 0) {
+            float fu = (1 - Math.abs(v)) * signNotZero(u);
+            v = (1 - Math.abs(u)) * signNotZero(v);
+            u = fu;
+        }
+        float length = Icosahedron.length(u, v, z);
+        out[offset] = u / length;
+        out[offset + 1] = v / length;
+        out[offset + 2] = z / length;
+    }
+
+    private static float signNotZero(float f) {
+        return f >= 0 ? 1f : -1f;
+    }
+
+    private static short quantize(float f) {
+        return (short) Math.round(Math.max(-1f, Math.min(1f, f)) * SCALE);
+    }
+
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright (c) 2015 10cars Software
+ */
+
+package com.tencarssoftware.icosphere.geometry;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Splits a draw list into patches of consecutive triangles, each with a bounding sphere and a
+ * cone around its triangle normals, so whole patches that face away from the camera or lie
+ * outside the view frustum can be skipped before any of their vertices are shaded. Refinement
+ * keeps the four children of a triangle together, so in a generated mesh the triangles that
+ * descend from one triangle of a lower level are consecutive and make a compact patch.
+ */
+public class Patches {
+    // levels below this are drawn whole, their patches would be a handful of triangles
+    private static final int MIN_LEVEL = 3;
+    // levels from MIN_LEVEL on are split along this level's triangles (320 patches) or the highest below it that fits
+    private static final int MAX_PATCH_LEVEL = 2;
+    // sin of the cone's half angle when it is 90 degrees or more, never culls
+    private static final float NO_CONE = 2f;
+
+    // center x, y, z, radius, cone axis x, y, z, sin of the cone's half angle
+    private final float[] bounds;
+    // in indices, relative to the start of the draw list the patches were made from
+    private final int[] firstIndices;
+    private final int[] indexCounts;
+
+    private Patches(float[] bounds, int[] firstIndices, int[] indexCounts) {
+        this.bounds = bounds;
+        this.firstIndices = firstIndices;
+        this.indexCounts = indexCounts;
+    }
+
+    /**
+     * Triangles per patch for a refine ordered mesh of the level, 0 for a mesh that isn't split.
+     */
+    public static int getTrianglesPerPatch(int refinementCount) {
+        if (refinementCount < MIN_LEVEL) {
+            return 0;
+        }
+        int patchLevel = Math.min(MAX_PATCH_LEVEL, refinementCount - MIN_LEVEL);
+        return 1 << (2 * (refinementCount - patchLevel));
+    }
+
+    /**
+     * Patches for the triangles of the mesh, where the mesh's first triangle is triangle
+     * firstTriangle of the mesh the patches are aligned to (a part made by MeshChunker starts
+     * in the middle of it).
+     */
+    public static Patches create(Mesh mesh, int firstTriangle, int trianglesPerPatch) {
+        int triangleCount = mesh.getTriangleCount();
+        int first = firstTriangle / trianglesPerPatch;
+        int last = (firstTriangle + triangleCount - 1) / trianglesPerPatch;
+        int count = last - first + 1;
+        float[] bounds = new float[count * 8];
+        int[] firstIndices = new int[count];
+        int[] indexCounts = new int[count];
+        for (int p = 0; p < count; p++) {
+            int start = Math.max(0, (first + p) * trianglesPerPatch - firstTriangle);
+            int end = Math.min(triangleCount, (first + p + 1) * trianglesPerPatch - firstTriangle);
+            firstIndices[p] = start * 3;
+            indexCounts[p] = (end - start) * 3;
+            computeBounds(mesh, start, end, bounds, p * 8);
+        }
+        return new Patches(bounds, firstIndices, indexCounts);
+    }
+
+    // the bounds, first indices and index counts, see MeshFile
+    static int getByteSize(int count) {
+        return count * (8 + 2) * 4;
+    }
+
+    void write(ByteBuffer out) {
+        for (float f : bounds) {
+            out.putFloat(f);
+        }
+        for (int p = 0; p < firstIndices.length; p++) {
+            out.putInt(firstIndices[p]);
+            out.putInt(indexCounts[p]);
+        }
+    }
+
+    static Patches read(ByteBuffer in, int count) {
+        float[] bounds = new float[count * 8];
+        int[] firstIndices = new int[count];
+        int[] indexCounts = new int[count];
+        for (int i = 0; i < bounds.length; i++) {
+            bounds[i] = in.getFloat();
+        }
+        for (int p = 0; p < count; p++) {
+            firstIndices[p] = in.getInt();
+            indexCounts[p] = in.getInt();
+        }
+        return new Patches(bounds, firstIndices, indexCounts);
+    }
+
+    public int getCount() {
+        return firstIndices.length;
+    }
+
+    public int getIndexCount() {
+        int count = 0;
+        for (int c : indexCounts) {
+            count += c;
+        }
+        return count;
+    }
+
+    /**
+     * Writes (first index, index count) pairs of the patches that may be visible into ranges,
+     * neighbouring patches joined, and returns the number of pairs. ranges needs room for
+     * getCount() pairs.
+     *
+     * @param camera the camera position in model space
+     * @param planes the frustum planes in model space from getFrustumPlanes
+     */
+    public int cull(float[] camera, float[] planes, int[] ranges) {
+        int rangeCount = 0;
+        int end = -1;
+        for (int p = 0; p < firstIndices.length; p++) {
+            if (!isVisible(p * 8, camera, planes)) {
+                continue;
+            }
+            if (firstIndices[p] == end) {
+                ranges[rangeCount * 2 - 1] += indexCounts[p];
+            } else {
+                ranges[rangeCount * 2] = firstIndices[p];
+                ranges[rangeCount * 2 + 1] = indexCounts[p];
+                rangeCount++;
+            }
+            end = firstIndices[p] + indexCounts[p];
+        }
+        return rangeCount;
+    }
+
+    private boolean isVisible(int b, float[] camera, float[] planes) {
+        float cx = bounds[b], cy = bounds[b + 1], cz = bounds[b + 2], radius = bounds[b + 3];
+        for (int i = 0; i < 24; i += 4) {
+            if (planes[i] * cx + planes[i + 1] * cy + planes[i + 2] * cz + planes[i + 3] < -radius) {
+                return false;
+            }
+        }
+        // every point of the patch is seen from behind if the direction to it is within
+        // 90 degrees minus the cone's half angle of the axis, for every point in the sphere
+        float dx = cx - camera[0], dy = cy - camera[1], dz = cz - camera[2];
+        float sin = bounds[b + 7];
+        float distance = (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+        return dx * bounds[b + 4] + dy * bounds[b + 5] + dz * bounds[b + 6] <= sin * distance + radius * (1 + sin);
+    }
+
+    /**
+     * The six planes (a, b, c, d, inside where ax + by + cz + d >= 0) of the frustum of a
+     * model-view-projection matrix, in column major order like android.opengl.Matrix.
+     */
+    public static void getFrustumPlanes(float[] m, float[] planes) {
+        for (int i = 0; i < 3; i++) {
+            for (int s = 0; s < 2; s++) {
+                int p = (i * 2 + s) * 4;
+                float sign = s == 0 ? 1f : -1f;
+                float a = m[3] + sign * m[i];
+                float b = m[7] + sign * m[4 + i];
+                float c = m[11] + sign * m[8 + i];
+                float d = m[15] + sign * m[12 + i];
+                float length = Icosahedron.length(a, b, c);
+                planes[p] = a / length;
+                planes[p + 1] = b / length;
+                planes[p + 2] = c / length;
+                planes[p + 3] = d / length;
+            }
+        }
+    }
+
+    /**
+     * The camera position in model space for a model-view matrix made of rotations and
+     * translations only.
+     */
+    public static void getCameraPosition(float[] mv, float[] camera) {
+        for (int i = 0; i < 3; i++) {
+            camera[i] = -(mv[i * 4] * mv[12] + mv[i * 4 + 1] * mv[13] + mv[i * 4 + 2] * mv[14]);
+        }
+    }
+
+    private static void computeBounds(Mesh mesh, int start, int end, float[] bounds, int b) {
+        float[] vertices = mesh.vertices;
+        int[] drawList = mesh.drawList;
+        float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE, minZ = Float.MAX_VALUE;
+        float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE, maxZ = -Float.MAX_VALUE;
+        float ax = 0, ay = 0, az = 0;
+        for (int t = start; t < end; t++) {
+            for (int j = 0; j < 3; j++) {
+                int v = drawList[t * 3 + j] * 3;
+                minX = Math.min(minX, vertices[v]);
+                minY = Math.min(minY, vertices[v + 1]);
+                minZ = Math.min(minZ, vertices[v + 2]);
+                maxX = Math.max(maxX, vertices[v]);
+                maxY = Math.max(maxY, vertices[v + 1]);
+                maxZ = Math.max(maxZ, vertices[v + 2]);
+            }
+            computeNormal(vertices, drawList, t, bounds, b + 4);
+            ax += bounds[b + 4];
+            ay += bounds[b + 5];
+            az += bounds[b + 6];
+        }
+        float cx = (minX + maxX) / 2, cy = (minY + maxY) / 2, cz = (minZ + maxZ) / 2;
+        float radius = 0;
+        float length = Icosahedron.length(ax, ay, az);
+        ax /= length;
+        ay /= length;
+        az /= length;
+        float minCos = 1;
+        for (int t = start; t < end; t++) {
+            for (int j = 0; j < 3; j++) {
+                int v = drawList[t * 3 + j] * 3;
+                radius = Math.max(radius, Icosahedron.length(vertices[v] - cx, vertices[v + 1] - cy, vertices[v + 2] - cz));
+            }
+            computeNormal(vertices, drawList, t, bounds, b + 4);
+            minCos = Math.min(minCos, bounds[b + 4] * ax + bounds[b + 5] * ay + bounds[b + 6] * az);
+        }
+        bounds[b] = cx;
+        bounds[b + 1] = cy;
+        bounds[b + 2] = cz;
+        bounds[b + 3] = radius;
+        bounds[b + 4] = ax;
+        bounds[b + 5] = ay;
+        bounds[b + 6] = az;
+        bounds[b + 7] = minCos > 0 ? (float) Math.sqrt(1 - minCos * minCos) : NO_CONE;
+    }
+
+    private static void computeNormal(float[] vertices, int[] drawList, int t, float[] out, int o) {
+        int a = drawList[t * 3] * 3;
+        int b = drawList[t * 3 + 1] * 3;
+        int c = drawList[t * 3 + 2] * 3;
+        float ux = vertices[b] - vertices[a], uy = vertices[b + 1] - vertices[a + 1], uz = vertices[b + 2] - vertices[a + 2];
+        float vx = vertices[c] - vertices[a], vy = vertices[c + 1] - vertices[a + 1], vz = vertices[c + 2] - vertices[a + 2];
+        float nx = uy * vz - uz * vy;
+        float ny = uz * vx - ux * vz;
+        float nz = ux * vy - uy * vx;
+        float length = Icosahedron.length(nx, ny, nz);
+        out[o] = nx / length;
+        out[o + 1] = ny / length;
+        out[o + 2] = nz / length;
+    }
+
+}
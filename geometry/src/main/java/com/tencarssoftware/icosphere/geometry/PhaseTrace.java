@@ -0,0 +1,75 @@
+/*
+ * Copyright (c) 2015 10cars Software
+ */
+
+package com.tencarssoftware.icosphere.geometry;
+
+/**
+ * Trace points around the phases of building and uploading a mesh. Without a sink they cost a
+ * volatile read:
+ * <pre>
+ * long start = PhaseTrace.begin("refine");
+ * ...
+ * PhaseTrace.end("refine", start, mesh.getByteSize(), 0);
+ * </pre>
+ */
+public class PhaseTrace {
+    private static volatile TraceSink sink;
+
+    private PhaseTrace() {
+    }
+
+    /**
+     * Set it before any mesh is built, a phase that begins with one sink must end with it.
+     */
+    public static void setSink(TraceSink sink) {
+        PhaseTrace.sink = sink;
+    }
+
+    public static boolean isEnabled() {
+        return sink != null;
+    }
+
+    /**
+     * Returns the start time to pass to end(), 0 when tracing is off.
+     */
+    public static long begin(String name) {
+        TraceSink s = sink;
+        if (s == null) {
+            return 0;
+        }
+        s.beginPhase(name);
+        return System.nanoTime();
+    }
+
+    public static void end(String name, long start, long outputBytes, long bytesUploaded) {
+        TraceSink s = sink;
+        if (s == null || start == 0) {
+            return;
+        }
+        s.endPhase(name, System.nanoTime() - start, outputBytes, bytesUploaded);
+    }
+
+    /**
+     * Reports a whole mesh change, start is a System.nanoTime() taken when it was requested.
+     */
+    public static void endRebuild(int level, long start) {
+        TraceSink s = sink;
+        if (s == null || start == 0) {
+            return;
+        }
+        s.endRebuild(level, System.nanoTime() - start);
+    }
+
+    /**
+     * Reports a resume, start is a System.nanoTime() taken when it began.
+     */
+    public static void endResume(String contextRecovery, long start) {
+        TraceSink s = sink;
+        if (s == null || start == 0) {
+            return;
+        }
+        s.endResume(contextRecovery, System.nanoTime() - start);
+    }
+
+}
@@ -0,0 +1,10 @@
+/*
+ * Copyright (c) 2015 10cars Software
+ */
+
+package com.tencarssoftware.icosphere.geometry;
+
+public enum Shading {
+    SMOOTH,
+    FLAT
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright (c) 2015 10cars Software
+ */
+
+package com.tencarssoftware.icosphere.geometry;
+
+/**
+ * Every level up to maxLevel in one buffer pair. Refinement only appends vertices, so the top
+ * level's vertices serve all lower levels, and the draw lists of all levels follow each other in
+ * one index buffer. Switching level only changes the range that is drawn. The draw lists add up
+ * to about 4/3 of the top level's.
+ */
+public class SharedLevelData {
+    public final MeshData data;
+    private final int[] offsets;
+    // null for the levels that aren't split, see Patches
+    private final Patches[] patches;
+
+    SharedLevelData(MeshData data, int[] offsets, Patches[] patches) {
+        this.data = data;
+        this.offsets = offsets;
+        this.patches = patches;
+    }
+
+    /**
+     * With cacheSize > 0 the triangles of every level are ordered for the vertex cache, the
+     * vertices keep their order.
+     */
+    public static SharedLevelData create(int maxLevel, int drawListElementSize, VertexFormat format, int cacheSize) {
+        int[] offsets = new int[maxLevel + 2];
+        for (int level = 0; level <= maxLevel; level++) {
+            offsets[level + 1] = offsets[level] + IcosphereGenerator.getTriangleCount(level) * 3;
+        }
+        int[] drawList = new int[offsets[maxLevel + 1]];
+        Patches[] patches = new Patches[maxLevel + 1];
+        Mesh mesh = IcosphereGenerator.create(0);
+        for (int level = 0; ; level++) {
+            int[] levelDrawList = mesh.drawList;
+            int trianglesPerPatch = Patches.getTrianglesPerPatch(level);
+            if (cacheSize > 0) {
+                levelDrawList = VertexCacheOptimizer.reorderTriangles(levelDrawList, mesh.getVertexCount(), cacheSize, trianglesPerPatch);
+            }
+            if (trianglesPerPatch > 0) {
+                patches[level] = Patches.create(new Mesh(mesh.vertices, levelDrawList), 0, trianglesPerPatch);
+            }
+            System.arraycopy(levelDrawList, 0, drawList, offsets[level], levelDrawList.length);
+            if (level == maxLevel) {
+                break;
+            }
+            mesh = IcosphereGenerator.refine(mesh, 1);
+        }
+        return new SharedLevelData(MeshData.create(new Mesh(mesh.vertices, drawList), drawListElementSize, format), offsets, patches);
+    }
+
+    public int getMaxLevel() {
+        return offsets.length - 2;
+    }
+
+    /**
+     * First index of the level's draw list.
+     */
+    public int getOffset(int level) {
+        return offsets[level];
+    }
+
+    public int getLength(int level) {
+        return offsets[level + 1] - offsets[level];
+    }
+
+    /**
+     * The level's patches with indices relative to getOffset(level), null if it isn't split.
+     */
+    public Patches getPatches(int level) {
+        return patches[level];
+    }
+
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright (c) 2015 10cars Software
+ */
+
+package com.tencarssoftware.icosphere.geometry;
+
+/**
+ * Receives the phases PhaseTrace measures. Begin and end of a phase come on the same thread,
+ * properly nested, so they can be mapped onto android.os.Trace sections.
+ */
+public interface TraceSink {
+
+    void beginPhase(String name);
+
+    /**
+     * @param outputBytes   size of the mesh or buffers the phase produced, not what it allocated
+     * @param bytesUploaded bytes the phase handed to glBufferData
+     */
+    void endPhase(String name, long durationNanos, long outputBytes, long bytesUploaded);
+
+    /**
+     * A mesh change from the request to the first frame drawn with it.
+     */
+    void endRebuild(int level, long latencyNanos);
+
+    /**
+     * A resume of the app until the first frame with a sphere.
+     *
+     * @param contextRecovery how the GL context came back: preserved, restored, rebuilt or created
+     */
+    void endResume(String contextRecovery, long latencyNanos);
+
+}
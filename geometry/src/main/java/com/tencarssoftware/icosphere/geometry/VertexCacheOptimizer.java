@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2015 10cars Software
+ */
+
+package com.tencarssoftware.icosphere.geometry;
+
+import java.util.Arrays;
+
+/**
+ * Reorders the triangles of a mesh for the post-transform vertex cache with Tipsify (Sander,
+ * Nehab and Barczak, "Fast Triangle Reordering for Vertex Locality and Reduced Overdraw"), then
+ * renumbers the vertices in order of first use so fetches are sequential too. Runs in linear time.
+ * The result no longer has the refine ordering, so it is only for drawing. Triangles can be kept
+ * within ranges of a fixed size, for draw lists split into Patches.
+ */
+public class VertexCacheOptimizer {
+    public static final int DEFAULT_CACHE_SIZE = 16;
+
+    private VertexCacheOptimizer() {
+    }
+
+    public static Mesh optimize(Mesh mesh, int cacheSize) {
+        return optimize(mesh, cacheSize, 0);
+    }
+
+    /**
+     * @param trianglesPerRange triangles only move within consecutive ranges of this many, 0 for
+     *                          no ranges
+     */
+    public static Mesh optimize(Mesh mesh, int cacheSize, int trianglesPerRange) {
+        int[] drawList = reorderTriangles(mesh.drawList, mesh.getVertexCount(), cacheSize, trianglesPerRange);
+        return reorderVertices(mesh.vertices, drawList);
+    }
+
+    /**
+     * Average cache miss ratio, transformed vertices per triangle for a FIFO cache of cacheSize
+     * entries. 0.5 is the best possible for a large closed mesh, 3 means no reuse at all.
+     */
+    public static float getAcmr(int[] drawList, int vertexCount, int cacheSize) {
+        return (float) getMissCount(drawList, vertexCount, cacheSize) / (drawList.length / 3);
+    }
+
+    /**
+     * Average transform to vertex ratio, 1 means every vertex is transformed exactly once.
+     */
+    public static float getAtvr(int[] drawList, int vertexCount, int cacheSize) {
+        return (float) getMissCount(drawList, vertexCount, cacheSize) / vertexCount;
+    }
+
+    private static int getMissCount(int[] drawList, int vertexCount, int cacheSize) {
+        // a FIFO cache only changes on a miss, a vertex is in it while fewer than cacheSize misses followed its own
+        int[] missedAt = new int[vertexCount];
+        Arrays.fill(missedAt, -cacheSize - 1);
+        int misses = 0;
+        for (int v : drawList) {
+            if (misses - missedAt[v] > cacheSize) {
+                missedAt[v] = misses++;
+            }
+        }
+        return misses;
+    }
+
+    /**
+     * Only the triangle order, for draw lists that have to keep the vertex numbering.
+     */
+    public static int[] reorderTriangles(int[] drawList, int vertexCount, int cacheSize, int trianglesPerRange) {
+        int rangeLength = trianglesPerRange * 3;
+        if (rangeLength <= 0 || rangeLength >= drawList.length) {
+            return reorderTriangles(drawList, vertexCount, cacheSize);
+        }
+        // every range is optimized on its own with the vertices numbered locally
+        int[] localIndices = new int[vertexCount];
+        Arrays.fill(localIndices, -1);
+        int[] globalIndices = new int[rangeLength];
+        int[] rangeDrawList = new int[rangeLength];
+        int[] result = new int[drawList.length];
+        for (int start = 0; start < drawList.length; start += rangeLength) {
+            int length = Math.min(rangeLength, drawList.length - start);
+            int count = 0;
+            for (int i = 0; i < length; i++) {
+                int v = drawList[start + i];
+                if (localIndices[v] < 0) {
+                    globalIndices[count] = v;
+                    localIndices[v] = count++;
+                }
+                rangeDrawList[i] = localIndices[v];
+            }
+            int[] reordered = reorderTriangles(length == rangeLength ? rangeDrawList : Arrays.copyOf(rangeDrawList, length), count, cacheSize);
+            for (int i = 0; i < length; i++) {
+                result[start + i] = globalIndices[reordered[i]];
+            }
+            for (int i = 0; i < count; i++) {
+                localIndices[globalIndices[i]] = -1;
+            }
+        }
+        return result;
+    }
+
+    private static int[] reorderTriangles(int[] drawList, int vertexCount, int cacheSize) {
+        int triangleCount = drawList.length / 3;
+        // vertex -> triangles using it, vertex v has adjacency[offsets[v]] up to adjacency[offsets[v + 1]]
+        int[] offsets = new int[vertexCount + 1];
+        for (int v : drawList) {
+            offsets[v + 1]++;
+        }
+        for (int v = 0; v < vertexCount; v++) {
+            offsets[v + 1] += offsets[v];
+        }
+        int[] liveCounts = new int[vertexCount];
+        int[] adjacency = new int[drawList.length];
+        for (int i = 0; i < drawList.length; i++) {
+            int v = drawList[i];
+            adjacency[offsets[v] + liveCounts[v]++] = i / 3;
+        }
+
+        int[] cacheTimes = new int[vertexCount];
+        boolean[] emitted = new boolean[triangleCount];
+        int[] deadEnds = new int[drawList.length];
+        int deadEndCount = 0;
+        int[] candidates = new int[drawList.length];
+        int[] result = new int[drawList.length];
+        int length = 0;
+        int time = cacheSize + 1;
+        int cursor = 0;
+        int fanning = vertexCount > 0 ? 0 : -1;
+        while (fanning >= 0) {
+            int candidateCount = 0;
+            for (int a = offsets[fanning]; a < offsets[fanning + 1]; a++) {
+                int t = adjacency[a];
+                if (emitted[t]) {
+                    continue;
+                }
+                emitted[t] = true;
+                for (int j = 0; j < 3; j++) {
+                    int v = drawList[t * 3 + j];
+                    result[length++] = v;
+                    deadEnds[deadEndCount++] = v;
+                    candidates[candidateCount++] = v;
+                    liveCounts[v]--;
+                    if (time - cacheTimes[v] > cacheSize) {
+                        cacheTimes[v] = time++;
+                    }
+                }
+            }
+
+            // the candidate that stays in the cache the longest once all its triangles are emitted
+            fanning = -1;
+            int best = -1;
+            for (int c = 0; c < candidateCount; c++) {
+                int v = candidates[c];
+                if (liveCounts[v] > 0) {
+                    int priority = 0;
+                    if (time - cacheTimes[v] + 2 * liveCounts[v] <= cacheSize) {
+                        priority = time - cacheTimes[v];
+                    }
+                    if (priority > best) {
+                        best = priority;
+                        fanning = v;
+                    }
+                }
+            }
+            if (fanning < 0) {
+                while (deadEndCount > 0 && fanning < 0) {
+                    int v = deadEnds[--deadEndCount];
+                    if (liveCounts[v] > 0) {
+                        fanning = v;
+                    }
+                }
+                while (fanning < 0 && cursor < vertexCount) {
+                    if (liveCounts[cursor] > 0) {
+                        fanning = cursor;
+                    }
+                    cursor++;
+                }
+            }
+        }
+        return result;
+    }
+
+    private static Mesh reorderVertices(float[] vertices, int[] drawList) {
+        int[] newIndices = new int[vertices.length / 3];
+        Arrays.fill(newIndices, -1);
+        float[] newVertices = new float[vertices.length];
+        int count = 0;
+        for (int i = 0; i < drawList.length; i++) {
+            int v = drawList[i];
+            if (newIndices[v] < 0) {
+                System.arraycopy(vertices, v * 3, newVertices, count * 3, 3);
+                newIndices[v] = count++;
+            }
+            drawList[i] = newIndices[v];
+        }
+        return new Mesh(newVertices, drawList);
+    }
+
+}
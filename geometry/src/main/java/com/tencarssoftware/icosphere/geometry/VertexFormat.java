@@ -0,0 +1,35 @@
+/*
+ * Copyright (c) 2015 10cars Software
+ */
+
+package com.tencarssoftware.icosphere.geometry;
+
+/**
+ * How unit vectors (the positions on the sphere and the normals) are stored in a vertex buffer.
+ */
+public enum VertexFormat {
+    // three floats
+    FLOAT(3, 12),
+    // two shorts, see OctahedralEncoding
+    OCTAHEDRAL(2, 4);
+
+    private final int componentCount;
+    private final int byteSize;
+
+    VertexFormat(int componentCount, int byteSize) {
+        this.componentCount = componentCount;
+        this.byteSize = byteSize;
+    }
+
+    public int getComponentCount() {
+        return componentCount;
+    }
+
+    /**
+     * Bytes per stored vector.
+     */
+    public int getByteSize() {
+        return byteSize;
+    }
+
+}
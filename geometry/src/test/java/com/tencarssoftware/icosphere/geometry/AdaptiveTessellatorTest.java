@@ -0,0 +1,123 @@
+/*
+ * Copyright (c) 2015 10cars Software
+ */
+
+package com.tencarssoftware.icosphere.geometry;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Whatever the camera does, the adaptive mesh has to stay a closed sphere: no cracks or
+ * T-junctions between faces of different depths, nothing collapsed, nothing turned inside out.
+ */
+public class AdaptiveTessellatorTest {
+    private static final int[] MAX_LEVELS = {3, 5, 7};
+    // pixels per unit at a distance of one, from a small window to a big screen
+    private static final float[] SCREEN_SCALES = {200f, 1000f, 4000f};
+    private static final float MAX_ERROR_PIXELS = 1f;
+    private static final int STEPS = 24;
+
+    @Test
+    public void orbitKeepsMeshClosed() {
+        for (int maxLevel : MAX_LEVELS) {
+            for (float scale : SCREEN_SCALES) {
+                AdaptiveTessellator tessellator = new AdaptiveTessellator(maxLevel, MAX_ERROR_PIXELS);
+                float[] camera = new float[3];
+                boolean mixed = false;
+                // around a tilted axis while coming in from far away to just above the surface and back
+                for (int step = 0; step <= STEPS; step++) {
+                    double angle = 2 * Math.PI * step / STEPS;
+                    double distance = 1.05 + 5 * (1 + Math.cos(angle)) / 2;
+                    camera[0] = (float) (distance * Math.cos(angle));
+                    camera[1] = (float) (distance * Math.sin(angle) * 0.8);
+                    camera[2] = (float) (distance * Math.sin(angle) * 0.6);
+                    tessellator.update(camera, scale);
+                    checkMesh("max level " + maxLevel + ", scale " + scale + ", step " + step, tessellator.getMesh());
+                    mixed |= hasMixedDepths(tessellator);
+                }
+                // the seams between depths are what can break
+                assertTrue("max level " + maxLevel + ", scale " + scale + " never mixed depths", mixed);
+            }
+        }
+    }
+
+    @Test
+    public void uniformWithoutCamera() {
+        // from the center every face is turned away and keeps the base level
+        AdaptiveTessellator tessellator = new AdaptiveTessellator(5, MAX_ERROR_PIXELS);
+        tessellator.update(new float[3], 1000f);
+        Mesh mesh = tessellator.getMesh();
+        assertEquals("triangles", IcosphereGenerator.getTriangleCount(AdaptiveTessellator.BASE_LEVEL),
+                mesh.getTriangleCount());
+        checkMesh("base level", mesh);
+    }
+
+    private static void checkMesh(String message, Mesh mesh) {
+        float[] vertices = mesh.vertices;
+        int[] drawList = mesh.drawList;
+        Map<Long, Integer> edges = new HashMap<Long, Integer>();
+        for (int t = 0; t < drawList.length; t += 3) {
+            int a = drawList[t], b = drawList[t + 1], c = drawList[t + 2];
+            assertTrue(message + ": triangle " + t / 3 + " repeats a vertex", a != b && b != c && c != a);
+            float[] normal = new float[3];
+            cross(vertices, a, b, c, normal);
+            float cx = vertices[a * 3] + vertices[b * 3] + vertices[c * 3];
+            float cy = vertices[a * 3 + 1] + vertices[b * 3 + 1] + vertices[c * 3 + 1];
+            float cz = vertices[a * 3 + 2] + vertices[b * 3 + 2] + vertices[c * 3 + 2];
+            assertTrue(message + ": triangle " + t / 3 + " has no area",
+                    Icosahedron.length(normal[0], normal[1], normal[2]) > 1e-9f);
+            assertTrue(message + ": triangle " + t / 3 + " faces inwards",
+                    normal[0] * cx + normal[1] * cy + normal[2] * cz > 0);
+            for (int k = 0; k < 3; k++) {
+                long key = (long) drawList[t + k] << 32 | drawList[t + (k + 1) % 3];
+                Integer count = edges.get(key);
+                edges.put(key, count == null ? 1 : count + 1);
+            }
+        }
+        for (Map.Entry<Long, Integer> edge : edges.entrySet()) {
+            long key = edge.getKey();
+            long reverse = (key & 0xffffffffL) << 32 | key >>> 32;
+            assertEquals(message + ": uses of edge " + (key >>> 32) + " to " + (key & 0xffffffffL), 1,
+                    (int) edge.getValue());
+            assertEquals(message + ": uses of edge " + (key & 0xffffffffL) + " to " + (key >>> 32), 1,
+                    edges.containsKey(reverse) ? edges.get(reverse) : 0);
+        }
+        Set<List<Float>> positions = new HashSet<List<Float>>();
+        for (int v = 0; v < mesh.getVertexCount(); v++) {
+            assertTrue(message + ": vertex " + v + " shares its position",
+                    positions.add(Arrays.asList(vertices[v * 3], vertices[v * 3 + 1], vertices[v * 3 + 2])));
+        }
+    }
+
+    private static boolean hasMixedDepths(AdaptiveTessellator tessellator) {
+        for (int f = 1; f < tessellator.getFaceCount(); f++) {
+            if (tessellator.getDepth(f) != tessellator.getDepth(0)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void cross(float[] vertices, int a, int b, int c, float[] out) {
+        float ux = vertices[b * 3] - vertices[a * 3];
+        float uy = vertices[b * 3 + 1] - vertices[a * 3 + 1];
+        float uz = vertices[b * 3 + 2] - vertices[a * 3 + 2];
+        float vx = vertices[c * 3] - vertices[a * 3];
+        float vy = vertices[c * 3 + 1] - vertices[a * 3 + 1];
+        float vz = vertices[c * 3 + 2] - vertices[a * 3 + 2];
+        out[0] = uy * vz - uz * vy;
+        out[1] = uz * vx - ux * vz;
+        out[2] = ux * vy - uy * vx;
+    }
+
+}
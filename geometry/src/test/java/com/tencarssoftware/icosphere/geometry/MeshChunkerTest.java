@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2015 10cars Software
+ */
+
+package com.tencarssoftware.icosphere.geometry;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The parts have to fit 16 bit indices and draw exactly the mesh's triangles, in its order.
+ */
+public class MeshChunkerTest {
+    private static final int LEVEL = 8;
+
+    @Test
+    public void splitKeepsTriangles() {
+        Mesh mesh = IcosphereGenerator.create(LEVEL);
+        Mesh[] parts = MeshChunker.split(mesh, MeshChunker.MAX_SHORT_INDEX_VERTICES);
+        assertTrue("part count " + parts.length, parts.length > 1);
+        int t = 0;
+        for (int p = 0; p < parts.length; p++) {
+            Mesh part = parts[p];
+            assertTrue("vertices of part " + p + ": " + part.getVertexCount(),
+                    part.getVertexCount() <= MeshChunker.MAX_SHORT_INDEX_VERTICES);
+            for (int i = 0; i < part.drawList.length; i++, t++) {
+                int local = part.drawList[i];
+                assertTrue("index " + i + " of part " + p, local >= 0 && local < part.getVertexCount());
+                int global = mesh.drawList[t];
+                assertTrue("index " + i + " of part " + p + " is vertex " + global,
+                        part.vertices[local * 3] == mesh.vertices[global * 3]
+                                && part.vertices[local * 3 + 1] == mesh.vertices[global * 3 + 1]
+                                && part.vertices[local * 3 + 2] == mesh.vertices[global * 3 + 2]);
+            }
+        }
+        assertEquals("indices of all parts", mesh.drawList.length, t);
+    }
+
+    @Test
+    public void smallMeshStaysWhole() {
+        Mesh mesh = IcosphereGenerator.create(4);
+        Mesh[] parts = MeshChunker.split(mesh, MeshChunker.MAX_SHORT_INDEX_VERTICES);
+        assertEquals("part count", 1, parts.length);
+        assertTrue("same mesh", parts[0] == mesh);
+    }
+
+}
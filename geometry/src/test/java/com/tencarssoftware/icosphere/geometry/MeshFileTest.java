@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2015 10cars Software
+ */
+
+package com.tencarssoftware.icosphere.geometry;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * What MeshFile maps back has to be byte for byte what was written, and anything else than
+ * what was asked for has to come back as null.
+ */
+public class MeshFileTest {
+    private static final int CACHE_SIZE = VertexCacheOptimizer.DEFAULT_CACHE_SIZE;
+    private static File directory;
+
+    @BeforeClass
+    public static void setUp() throws IOException {
+        directory = File.createTempFile("meshfiletest", "");
+        directory.delete();
+        directory.mkdirs();
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        for (File file : directory.listFiles()) {
+            file.delete();
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void partsRoundTrip() throws IOException {
+        // level 2 has no patches, level 4 does
+        for (int level : new int[]{2, 4}) {
+            for (VertexFormat format : VertexFormat.values()) {
+                for (boolean useIntIndices : new boolean[]{false, true}) {
+                    // a single part always fits 16 bit indices, 32 bit ones need a forced element size
+                    MeshData part = MeshData.create(IcosphereGenerator.create(level), useIntIndices ? 4 : 2, format,
+                            MeshBaker.bake(IcosphereGenerator.create(level), format, false, 0)[0].patches);
+                    checkParts("level " + level + " " + format + (useIntIndices ? " 32 bit" : " 16 bit"), level,
+                            format, new MeshData[]{part});
+                }
+            }
+        }
+    }
+
+    @Test
+    public void bakedPartsRoundTrip() throws IOException {
+        checkParts("level 5 optimized", 5, VertexFormat.FLOAT,
+                MeshBaker.bake(IcosphereGenerator.create(5), VertexFormat.FLOAT, true, CACHE_SIZE));
+        // more than 16 bit indices can reach: one 32 bit part or several 16 bit ones
+        MeshData[] parts = MeshBaker.bake(IcosphereGenerator.create(8), VertexFormat.FLOAT, true, 0);
+        assertEquals("level 8 index size", 4, parts[0].drawListElementSize);
+        checkParts("level 8 32 bit", 8, VertexFormat.FLOAT, parts);
+        parts = MeshBaker.bake(IcosphereGenerator.create(8), VertexFormat.FLOAT, false, 0);
+        assertTrue("level 8 parts", parts.length > 1);
+        checkParts("level 8 16 bit", 8, VertexFormat.FLOAT, parts);
+    }
+
+    @Test
+    public void sharedLevelsRoundTrip() throws IOException {
+        for (int elementSize : new int[]{2, 4}) {
+            SharedLevelData levels = SharedLevelData.create(5, elementSize, VertexFormat.FLOAT, CACHE_SIZE);
+            File file = new File(directory, MeshFile.getSharedLevelsName(5, VertexFormat.FLOAT));
+            MeshFile.write(file, levels, VertexFormat.FLOAT);
+            SharedLevelData mapped = MeshFile.mapSharedLevels(file, 5, VertexFormat.FLOAT);
+            String message = elementSize * 8 + " bit shared levels";
+            assertNotNull(message, mapped);
+            assertEquals(message + " max level", 5, mapped.getMaxLevel());
+            checkPart(message, levels.data, mapped.data);
+            for (int level = 0; level <= 5; level++) {
+                assertEquals(message + " offset of level " + level, levels.getOffset(level), mapped.getOffset(level));
+                assertEquals(message + " length of level " + level, levels.getLength(level), mapped.getLength(level));
+                checkPatches(message + " level " + level, levels.getPatches(level), mapped.getPatches(level));
+            }
+        }
+    }
+
+    @Test
+    public void damagedPayloadIsRejected() throws IOException {
+        File file = new File(directory, MeshFile.getName(4, Shading.SMOOTH, VertexFormat.FLOAT));
+        MeshData[] parts = MeshBaker.bake(IcosphereGenerator.create(4), VertexFormat.FLOAT, false, 0);
+        MeshFile.write(file, 4, Shading.SMOOTH, VertexFormat.FLOAT, parts);
+        for (long position : new long[]{file.length() / 2, file.length() - 1}) {
+            flip(file, position);
+            assertNull("flipped byte at " + position, MeshFile.map(file, 4, Shading.SMOOTH, VertexFormat.FLOAT));
+            flip(file, position);
+            assertNotNull("restored byte at " + position, MeshFile.map(file, 4, Shading.SMOOTH, VertexFormat.FLOAT));
+        }
+
+        file = new File(directory, MeshFile.getSharedLevelsName(4, VertexFormat.FLOAT));
+        MeshFile.write(file, SharedLevelData.create(4, 2, VertexFormat.FLOAT, 0), VertexFormat.FLOAT);
+        flip(file, file.length() / 2);
+        assertNull("flipped shared levels byte", MeshFile.mapSharedLevels(file, 4, VertexFormat.FLOAT));
+    }
+
+    @Test
+    public void otherHeaderIsRejected() throws IOException {
+        File file = new File(directory, MeshFile.getName(3, Shading.SMOOTH, VertexFormat.FLOAT));
+        MeshFile.write(file, 3, Shading.SMOOTH, VertexFormat.FLOAT,
+                MeshBaker.bake(IcosphereGenerator.create(3), VertexFormat.FLOAT, false, 0));
+        assertNotNull("same header", MeshFile.map(file, 3, Shading.SMOOTH, VertexFormat.FLOAT));
+        assertNull("other level", MeshFile.map(file, 4, Shading.SMOOTH, VertexFormat.FLOAT));
+        assertNull("other shading", MeshFile.map(file, 3, Shading.FLAT, VertexFormat.FLOAT));
+        assertNull("other format", MeshFile.map(file, 3, Shading.SMOOTH, VertexFormat.OCTAHEDRAL));
+        assertNull("parts as shared levels", MeshFile.mapSharedLevels(file, 3, VertexFormat.FLOAT));
+
+        file = new File(directory, MeshFile.getSharedLevelsName(3, VertexFormat.FLOAT));
+        MeshFile.write(file, SharedLevelData.create(3, 2, VertexFormat.FLOAT, 0), VertexFormat.FLOAT);
+        assertNotNull("same shared levels header", MeshFile.mapSharedLevels(file, 3, VertexFormat.FLOAT));
+        assertNull("other max level", MeshFile.mapSharedLevels(file, 4, VertexFormat.FLOAT));
+        assertNull("other shared levels format", MeshFile.mapSharedLevels(file, 3, VertexFormat.OCTAHEDRAL));
+        assertNull("shared levels as parts", MeshFile.map(file, 3, Shading.SMOOTH, VertexFormat.FLOAT));
+    }
+
+    private static void checkParts(String message, int level, VertexFormat format, MeshData[] parts)
+            throws IOException {
+        File file = new File(directory, MeshFile.getName(level, Shading.SMOOTH, format));
+        MeshFile.write(file, level, Shading.SMOOTH, format, parts);
+        MeshData[] mapped = MeshFile.map(file, level, Shading.SMOOTH, format);
+        assertNotNull(message, mapped);
+        assertEquals(message + " part count", parts.length, mapped.length);
+        for (int i = 0; i < parts.length; i++) {
+            checkPart(message + " part " + i, parts[i], mapped[i]);
+        }
+    }
+
+    private static void checkPart(String message, MeshData expected, MeshData actual) {
+        assertEquals(message + " vertex count", expected.vertexCount, actual.vertexCount);
+        assertEquals(message + " draw list length", expected.drawListLength, actual.drawListLength);
+        assertEquals(message + " index size", expected.drawListElementSize, actual.drawListElementSize);
+        assertEquals(message + " vertices", all(expected.vertices), all(actual.vertices));
+        assertEquals(message + " draw list", all(expected.drawList), all(actual.drawList));
+        checkPatches(message, expected.patches, actual.patches);
+    }
+
+    private static void checkPatches(String message, Patches expected, Patches actual) {
+        if (expected == null) {
+            assertNull(message + " patches", actual);
+            return;
+        }
+        assertNotNull(message + " patches", actual);
+        assertEquals(message + " patch count", expected.getCount(), actual.getCount());
+        assertEquals(message + " patches", toBytes(expected), toBytes(actual));
+    }
+
+    private static ByteBuffer all(ByteBuffer b) {
+        ByteBuffer all = b.duplicate();
+        all.clear();
+        return all;
+    }
+
+    private static ByteBuffer toBytes(Patches patches) {
+        ByteBuffer b = ByteBuffer.allocate(Patches.getByteSize(patches.getCount())).order(ByteOrder.nativeOrder());
+        patches.write(b);
+        b.flip();
+        return b;
+    }
+
+    private static void flip(File file, long position) throws IOException {
+        RandomAccessFile f = new RandomAccessFile(file, "rw");
+        try {
+            f.seek(position);
+            int b = f.read();
+            f.seek(position);
+            f.write(b ^ 0x01);
+        } finally {
+            f.close();
+        }
+    }
+
+}
@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2015 10cars Software
+ */
+
+package com.tencarssoftware.icosphere.geometry;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertArrayEquals;
+
+/**
+ * The parallel geodesic build has to number and place everything exactly like refine().
+ */
+public class ParallelGenerationTest {
+    private static final int MAX_LEVEL = 7;
+    private static ExecutorService executor;
+
+    @BeforeClass
+    public static void setUp() {
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        executor.shutdown();
+    }
+
+    @Test
+    public void parallelMatchesSerial() {
+        for (int level = 0; level <= MAX_LEVEL; level++) {
+            Mesh serial = IcosphereGenerator.create(level);
+            Mesh parallel = GeodesicGenerator.create(1 << level, executor);
+            assertArrayEquals("vertices of level " + level, serial.vertices, parallel.vertices, 0f);
+            assertArrayEquals("draw list of level " + level, serial.drawList, parallel.drawList);
+        }
+    }
+
+    @Test
+    public void serialGeodesicMatchesRefine() {
+        for (int level = 0; level <= MAX_LEVEL; level++) {
+            Mesh serial = IcosphereGenerator.create(level);
+            Mesh geodesic = GeodesicGenerator.create(1 << level);
+            assertArrayEquals("vertices of level " + level, serial.vertices, geodesic.vertices, 0f);
+            assertArrayEquals("draw list of level " + level, serial.drawList, geodesic.drawList);
+        }
+    }
+
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2015 10cars Software
+ */
+
+package com.tencarssoftware.icosphere.render;
+
+import java.nio.Buffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Vertex and element buffers by size class, a quarter of a power of two apart. Storage is
+ * allocated once per buffer and refilled with glBufferSubData. GL thread only, except the byte
+ * counts.
+ */
+public class BufferPool {
+    private static final int MIN_CAPACITY = 4096;
+    private static final int STEPS = 4;
+    private static final long MAX_POOLED_BYTES = 16 * 1024 * 1024;
+    private static final BufferPool instance = new BufferPool();
+
+    // capacity of every buffer the pool made, in use or not
+    private final Map<Integer, Integer> capacities = new HashMap<Integer, Integer>();
+    // released buffers by target and capacity
+    private final Map<Long, ArrayList<Integer>> free = new HashMap<Long, ArrayList<Integer>>();
+    private final int[] handle = new int[1];
+    private volatile long liveBytes;
+    private volatile long pooledBytes;
+
+    private BufferPool() {
+    }
+
+    public static BufferPool get() {
+        return instance;
+    }
+
+    public static int getCapacity(int size) {
+        if (size <= MIN_CAPACITY) {
+            return MIN_CAPACITY;
+        }
+        int step = Integer.highestOneBit(size - 1) / STEPS;
+        return (size + step - 1) / step * step;
+    }
+
+    /**
+     * Returns the buffer holding the data now, the given one if the data fits into it.
+     */
+    public int upload(int target, int buffer, Buffer data, int size) {
+        if (buffer != 0 && !(capacities.containsKey(buffer) && capacities.get(buffer) >= size)) {
+            release(target, buffer);
+            buffer = 0;
+        }
+        if (buffer == 0) {
+            buffer = acquire(target, getCapacity(size));
+        }
+        bind(target, buffer);
+        GLState.get().getGL().glBufferSubData(target, 0, size, data);
+        return buffer;
+    }
+
+    /**
+     * A bound buffer with room for size bytes and undefined contents, see StreamingUpload.
+     */
+    public int allocate(int target, int size) {
+        int buffer = acquire(target, getCapacity(size));
+        bind(target, buffer);
+        return buffer;
+    }
+
+    /**
+     * 0 and buffers the pool doesn't know, e.g. of an old context, are ignored.
+     */
+    public void release(int target, int buffer) {
+        if (buffer == 0 || !capacities.containsKey(buffer)) {
+            return;
+        }
+        int capacity = capacities.get(buffer);
+        liveBytes -= capacity;
+        if (pooledBytes + capacity > MAX_POOLED_BYTES) {
+            capacities.remove(buffer);
+            GLState.get().deleteBuffer(buffer);
+            return;
+        }
+        Long key = key(target, capacity);
+        ArrayList<Integer> buffers = free.get(key);
+        if (buffers == null) {
+            buffers = new ArrayList<Integer>();
+            free.put(key, buffers);
+        }
+        buffers.add(buffer);
+        pooledBytes += capacity;
+    }
+
+    // the buffers went with the old context
+    public void reset() {
+        capacities.clear();
+        free.clear();
+        liveBytes = 0;
+        pooledBytes = 0;
+    }
+
+    public long getLiveBytes() {
+        return liveBytes;
+    }
+
+    public long getPooledBytes() {
+        return pooledBytes;
+    }
+
+    private int acquire(int target, int capacity) {
+        liveBytes += capacity;
+        ArrayList<Integer> buffers = free.get(key(target, capacity));
+        if (buffers != null && !buffers.isEmpty()) {
+            pooledBytes -= capacity;
+            return buffers.remove(buffers.size() - 1);
+        }
+        GL gl = GLState.get().getGL();
+        gl.glGenBuffers(1, handle, 0);
+        int buffer = handle[0];
+        capacities.put(buffer, capacity);
+        bind(target, buffer);
+        gl.glBufferData(target, capacity, null, GL.GL_STATIC_DRAW);
+        return buffer;
+    }
+
+    static void bind(int target, int buffer) {
+        if (target == GL.GL_ELEMENT_ARRAY_BUFFER) {
+            GLState.get().bindElementArrayBuffer(buffer);
+        } else {
+            GLState.get().bindArrayBuffer(buffer);
+        }
+    }
+
+    private static Long key(int target, int capacity) {
+        return ((long) target << 32) | capacity;
+    }
+
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) 2015 10cars Software
+ */
+
+package com.tencarssoftware.icosphere.render;
+
+import java.nio.Buffer;
+
+/**
+ * The OpenGL ES functions the spheres use, with the signatures of android.opengl.GLES20 and
+ * GLES30. The app implements it with those, RecordingGL stands in for it on a plain JVM. The ES
+ * 3.0 functions may only be called where the context is 3.0.
+ */
+public interface GL {
+    int GL_FALSE = 0;
+    int GL_TRUE = 1;
+    int GL_TRIANGLES = 0x0004;
+    int GL_DEPTH_BUFFER_BIT = 0x0100;
+    int GL_COLOR_BUFFER_BIT = 0x4000;
+    int GL_CULL_FACE = 0x0B44;
+    int GL_DEPTH_TEST = 0x0B71;
+    int GL_SHORT = 0x1402;
+    int GL_UNSIGNED_SHORT = 0x1403;
+    int GL_UNSIGNED_INT = 0x1405;
+    int GL_FLOAT = 0x1406;
+    int GL_RENDERER = 0x1F01;
+    int GL_VERSION = 0x1F02;
+    int GL_EXTENSIONS = 0x1F03;
+    int GL_PROGRAM_BINARY_RETRIEVABLE_HINT = 0x8257;
+    int GL_PROGRAM_BINARY_LENGTH = 0x8741;
+    int GL_NUM_PROGRAM_BINARY_FORMATS = 0x87FE;
+    int GL_QUERY_RESULT = 0x8866;
+    int GL_QUERY_RESULT_AVAILABLE = 0x8867;
+    int GL_ARRAY_BUFFER = 0x8892;
+    int GL_ELEMENT_ARRAY_BUFFER = 0x8893;
+    int GL_STREAM_DRAW = 0x88E0;
+    int GL_STATIC_DRAW = 0x88E4;
+    int GL_FRAGMENT_SHADER = 0x8B30;
+    int GL_VERTEX_SHADER = 0x8B31;
+    int GL_COMPILE_STATUS = 0x8B81;
+    int GL_LINK_STATUS = 0x8B82;
+    int GL_MAX_VERTEX_UNIFORM_VECTORS = 0x8DFB;
+
+    void glClear(int mask);
+
+    void glClearColor(float red, float green, float blue, float alpha);
+
+    void glEnable(int cap);
+
+    void glViewport(int x, int y, int width, int height);
+
+    String glGetString(int name);
+
+    void glGetIntegerv(int pname, int[] params, int offset);
+
+    int glCreateShader(int type);
+
+    void glShaderSource(int shader, String string);
+
+    void glCompileShader(int shader);
+
+    void glGetShaderiv(int shader, int pname, int[] params, int offset);
+
+    String glGetShaderInfoLog(int shader);
+
+    void glDeleteShader(int shader);
+
+    int glCreateProgram();
+
+    void glAttachShader(int program, int shader);
+
+    void glDetachShader(int program, int shader);
+
+    void glLinkProgram(int program);
+
+    void glGetProgramiv(int program, int pname, int[] params, int offset);
+
+    String glGetProgramInfoLog(int program);
+
+    void glDeleteProgram(int program);
+
+    void glUseProgram(int program);
+
+    int glGetAttribLocation(int program, String name);
+
+    int glGetUniformLocation(int program, String name);
+
+    void glUniform3f(int location, float x, float y, float z);
+
+    void glUniform4fv(int location, int count, float[] v, int offset);
+
+    void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value, int offset);
+
+    void glGenBuffers(int n, int[] buffers, int offset);
+
+    void glDeleteBuffers(int n, int[] buffers, int offset);
+
+    void glBindBuffer(int target, int buffer);
+
+    void glBufferData(int target, int size, Buffer data, int usage);
+
+    void glBufferSubData(int target, int offset, int size, Buffer data);
+
+    void glEnableVertexAttribArray(int index);
+
+    void glDisableVertexAttribArray(int index);
+
+    void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, int offset);
+
+    void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, Buffer ptr);
+
+    void glDrawArrays(int mode, int first, int count);
+
+    void glDrawElements(int mode, int count, int type, int offset);
+
+    void glDrawElements(int mode, int count, int type, Buffer indices);
+
+    // ES 3.0
+
+    void glVertexAttribDivisor(int index, int divisor);
+
+    void glDrawElementsInstanced(int mode, int count, int type, int offset, int instanceCount);
+
+    void glGenQueries(int n, int[] ids, int offset);
+
+    void glBeginQuery(int target, int id);
+
+    void glEndQuery(int target);
+
+    void glGetQueryObjectuiv(int id, int pname, int[] params, int offset);
+
+    void glProgramParameteri(int program, int pname, int value);
+
+    void glGetProgramBinary(int program, int bufSize, int[] length, int lengthOffset, int[] binaryFormat,
+                            int binaryFormatOffset, Buffer binary);
+
+    void glProgramBinary(int program, int binaryFormat, Buffer binary, int length);
+
+}
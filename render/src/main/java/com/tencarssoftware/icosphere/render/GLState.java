@@ -0,0 +1,286 @@
+/*
+ * Copyright (c) 2015 10cars Software
+ */
+
+package com.tencarssoftware.icosphere.render;
+
+import java.nio.Buffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Remembers the GL state the draws set and drops the calls that would not change it: the program,
+ * the enabled attribute arrays, the buffer bindings, attribute pointers into buffers and the
+ * uniforms. ES 2.0 has no vertex array objects, so all of it is global and stays as the last draw
+ * left it, the draws don't unbind or disable anything afterwards. Everything that changes this
+ * state has to go through here. GL thread only, reset() once a new context is created with the GL
+ * to call from then on.
+ */
+public class GLState {
+    // GL_MAX_VERTEX_ATTRIBS is at least 8, the spheres use the first few
+    private static final int MAX_ATTRIBS = 16;
+    // buffer, size, type, normalized, stride, offset of each attribute pointer
+    private static final int POINTER_FIELDS = 6;
+    // the buffer of a pointer that isn't known, e.g. one to a client array
+    private static final int UNKNOWN = -1;
+    private static final GLState instance = new GLState();
+
+    private final int[] pointers = new int[MAX_ATTRIBS * POINTER_FIELDS];
+    // by program and location, programs are shared so their uniforms have to be as well
+    private final Map<Long, Uniform> uniforms = new HashMap<Long, Uniform>();
+    private final int[] handle = new int[1];
+    private GL gl;
+    private int program;
+    private int arrayBuffer;
+    private int elementArrayBuffer;
+    private int enabledAttribs;
+    // since the last takeCounts()
+    private int issuedCount;
+    private int skippedCount;
+
+    private GLState() {
+    }
+
+    public static GLState get() {
+        return instance;
+    }
+
+    /**
+     * The bit of an attribute for setAttribArrays, none for a location of -1.
+     */
+    public static int attrib(int location) {
+        return location >= 0 ? 1 << location : 0;
+    }
+
+    /**
+     * Forgets everything, a new context starts with nothing bound or enabled.
+     */
+    public void reset(GL gl) {
+        this.gl = gl;
+        program = 0;
+        arrayBuffer = 0;
+        elementArrayBuffer = 0;
+        enabledAttribs = 0;
+        uniforms.clear();
+        for (int i = 0; i < MAX_ATTRIBS; i++) {
+            pointers[i * POINTER_FIELDS] = UNKNOWN;
+        }
+    }
+
+    /**
+     * The GL of the current context, for everything GLState doesn't track.
+     */
+    public GL getGL() {
+        return gl;
+    }
+
+    public void useProgram(int program) {
+        if (this.program == program) {
+            skippedCount++;
+            return;
+        }
+        gl.glUseProgram(program);
+        this.program = program;
+        issuedCount++;
+    }
+
+    public void bindArrayBuffer(int buffer) {
+        if (arrayBuffer == buffer) {
+            skippedCount++;
+            return;
+        }
+        gl.glBindBuffer(GL.GL_ARRAY_BUFFER, buffer);
+        arrayBuffer = buffer;
+        issuedCount++;
+    }
+
+    public void bindElementArrayBuffer(int buffer) {
+        if (elementArrayBuffer == buffer) {
+            skippedCount++;
+            return;
+        }
+        gl.glBindBuffer(GL.GL_ELEMENT_ARRAY_BUFFER, buffer);
+        elementArrayBuffer = buffer;
+        issuedCount++;
+    }
+
+    /**
+     * Deletes the buffer and forgets the bindings and attribute pointers that used it.
+     */
+    public void deleteBuffer(int buffer) {
+        handle[0] = buffer;
+        gl.glDeleteBuffers(1, handle, 0);
+        if (arrayBuffer == buffer) {
+            arrayBuffer = 0;
+        }
+        if (elementArrayBuffer == buffer) {
+            elementArrayBuffer = 0;
+        }
+        for (int i = 0; i < MAX_ATTRIBS; i++) {
+            if (pointers[i * POINTER_FIELDS] == buffer) {
+                pointers[i * POINTER_FIELDS] = UNKNOWN;
+            }
+        }
+    }
+
+    /**
+     * Enables exactly the attribute arrays in the mask, see attrib(), and disables the rest.
+     */
+    public void setAttribArrays(int mask) {
+        int changed = enabledAttribs ^ mask;
+        if (changed == 0) {
+            skippedCount++;
+            return;
+        }
+        for (int i = 0; i < MAX_ATTRIBS; i++) {
+            int bit = 1 << i;
+            if ((changed & bit) == 0) {
+                continue;
+            }
+            if ((mask & bit) != 0) {
+                gl.glEnableVertexAttribArray(i);
+            } else {
+                gl.glDisableVertexAttribArray(i);
+            }
+            issuedCount++;
+        }
+        enabledAttribs = mask;
+    }
+
+    /**
+     * Points the attribute into the buffer, binds it only if the pointer changes.
+     */
+    public void vertexAttribPointer(int buffer, int index, int size, int type, boolean normalized, int stride, int offset) {
+        if (index < 0) {
+            return;
+        }
+        int p = index * POINTER_FIELDS;
+        int normalizedValue = normalized ? 1 : 0;
+        if (pointers[p] == buffer && pointers[p + 1] == size && pointers[p + 2] == type
+                && pointers[p + 3] == normalizedValue && pointers[p + 4] == stride && pointers[p + 5] == offset) {
+            skippedCount++;
+            return;
+        }
+        bindArrayBuffer(buffer);
+        gl.glVertexAttribPointer(index, size, type, normalized, stride, offset);
+        pointers[p] = buffer;
+        pointers[p + 1] = size;
+        pointers[p + 2] = type;
+        pointers[p + 3] = normalizedValue;
+        pointers[p + 4] = stride;
+        pointers[p + 5] = offset;
+        issuedCount++;
+    }
+
+    /**
+     * Points the attribute into a client array. Nothing tells whether its content changed, so
+     * this is always issued.
+     */
+    public void vertexAttribPointer(int index, int size, int type, boolean normalized, int stride, Buffer data) {
+        if (index < 0) {
+            return;
+        }
+        bindArrayBuffer(0);
+        gl.glVertexAttribPointer(index, size, type, normalized, stride, data);
+        pointers[index * POINTER_FIELDS] = UNKNOWN;
+        issuedCount++;
+    }
+
+    /**
+     * Shared by everything drawing with the program, its value is kept to skip setting it again.
+     */
+    public Uniform getUniform(int program, String name) {
+        int location = gl.glGetUniformLocation(program, name);
+        Long key = ((long) program << 32) | (location & 0xffffffffL);
+        Uniform uniform = uniforms.get(key);
+        if (uniform == null) {
+            uniform = new Uniform(location);
+            uniforms.put(key, uniform);
+        }
+        return uniform;
+    }
+
+    /**
+     * Number of calls issued and skipped since the last call, in that order.
+     */
+    public void takeCounts(int[] counts) {
+        counts[0] = issuedCount;
+        counts[1] = skippedCount;
+        issuedCount = 0;
+        skippedCount = 0;
+    }
+
+    /**
+     * A uniform location and the value it has in its program. Uniforms belong to the program, so
+     * the program must be current when one is set.
+     */
+    public class Uniform {
+        private final int location;
+        private float[] value = new float[0];
+        private int length = -1;
+
+        private Uniform(int location) {
+            this.location = location;
+        }
+
+        public void set3f(float x, float y, float z) {
+            if (location < 0) {
+                return;
+            }
+            if (length == 3 && value[0] == x && value[1] == y && value[2] == z) {
+                skippedCount++;
+                return;
+            }
+            gl.glUniform3f(location, x, y, z);
+            ensureCapacity(3);
+            value[0] = x;
+            value[1] = y;
+            value[2] = z;
+            length = 3;
+            issuedCount++;
+        }
+
+        public void set4fv(int count, float[] v, int offset) {
+            if (location < 0 || isCurrent(v, offset, count * 4)) {
+                return;
+            }
+            gl.glUniform4fv(location, count, v, offset);
+            keep(v, offset, count * 4);
+        }
+
+        public void setMatrix4fv(float[] v, int offset) {
+            if (location < 0 || isCurrent(v, offset, 16)) {
+                return;
+            }
+            gl.glUniformMatrix4fv(location, 1, false, v, offset);
+            keep(v, offset, 16);
+        }
+
+        private boolean isCurrent(float[] v, int offset, int n) {
+            if (length != n) {
+                return false;
+            }
+            for (int i = 0; i < n; i++) {
+                if (value[i] != v[offset + i]) {
+                    return false;
+                }
+            }
+            skippedCount++;
+            return true;
+        }
+
+        private void keep(float[] v, int offset, int n) {
+            ensureCapacity(n);
+            System.arraycopy(v, offset, value, 0, n);
+            length = n;
+            issuedCount++;
+        }
+
+        private void ensureCapacity(int n) {
+            if (value.length < n) {
+                value = new float[n];
+            }
+        }
+    }
+
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright (c) 2015 10cars Software
+ */
+
+package com.tencarssoftware.icosphere.render;
+
+import com.tencarssoftware.icosphere.geometry.Mesh;
+import com.tencarssoftware.icosphere.geometry.MeshChunker;
+import com.tencarssoftware.icosphere.geometry.MeshData;
+
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.ShortBuffer;
+
+/**
+ * Draws many spheres that share one mesh, each with its own center, radius and color. With an
+ * ES 3.0 context the instances go into a buffer read with glVertexAttribDivisor and everything is
+ * one glDrawElementsInstanced. Otherwise the mesh is uploaded once per slot of a batch, every copy
+ * tagged with its slot, and the instances of a batch are passed as a uniform array, so it takes
+ * one draw per batch. The ANGLE and EXT instanced arrays extensions have no Java bindings.
+ */
+public class IcosphereBatch {
+    // x, y, z, radius, r, g, b, a
+    public static final int FLOATS_PER_INSTANCE = 8;
+    private static final int INSTANCE_STRIDE = FLOATS_PER_INSTANCE * 4;
+    // uniform vectors the shader needs besides the instances: two matrices and the light
+    private static final int RESERVED_UNIFORM_VECTORS = 9;
+
+    private static final String instancedVertexShaderCode =
+                    "uniform mat4 uMVPMatrix;" +
+                    "uniform mat4 uMVMatrix;" +
+                    "attribute vec4 aPosition;" +
+                    "attribute vec4 aInstance;" +
+                    "attribute vec4 aColor;" +
+                    "varying vec3 vPosition;" +
+                    "varying vec3 vNormal;" +
+                    "varying vec4 vColor;" +
+                    "void main() {" +
+                    "    vec4 position = vec4(aPosition.xyz * aInstance.w + aInstance.xyz, 1.0);" +
+                    "    vPosition = vec3(uMVMatrix * position);" +
+                    "    vNormal = vec3(uMVMatrix * vec4(aPosition.xyz, 0.0));" +
+                    "    vColor = aColor;" +
+                    "    gl_Position = uMVPMatrix * position;" +
+                    "}";
+
+    private static final String uniformArrayVertexShaderCode =
+                    "uniform mat4 uMVPMatrix;" +
+                    "uniform mat4 uMVMatrix;" +
+                    "uniform vec4 uInstances[%d];" +
+                    "attribute vec4 aPosition;" +
+                    "attribute float aSlot;" +
+                    "varying vec3 vPosition;" +
+                    "varying vec3 vNormal;" +
+                    "varying vec4 vColor;" +
+                    "void main() {" +
+                    "    int i = int(aSlot) * 2;" +
+                    "    vec4 instance = uInstances[i];" +
+                    "    vec4 position = vec4(aPosition.xyz * instance.w + instance.xyz, 1.0);" +
+                    "    vPosition = vec3(uMVMatrix * position);" +
+                    "    vNormal = vec3(uMVMatrix * vec4(aPosition.xyz, 0.0));" +
+                    "    vColor = uInstances[i + 1];" +
+                    "    gl_Position = uMVPMatrix * position;" +
+                    "}";
+
+    private static final String fragmentShaderCode =
+                    "precision mediump float;" +
+                    "uniform vec3 uLightPosition;" +
+                    "varying vec3 vPosition;" +
+                    "varying vec3 vNormal;" +
+                    "varying vec4 vColor;" +
+                    "void main() {" +
+                    "    float distance = length(uLightPosition - vPosition);" +
+                    "    vec3 lightVector = normalize(uLightPosition - vPosition);" +
+                    "    float diffuse = max(dot(normalize(vNormal), lightVector), 0.1);" +
+                    "    diffuse = diffuse * (1.0 / (1.0 + (0.25 * (distance - 1.0) * (distance - 1.0))));" +
+                    "    gl_FragColor = vColor * diffuse;" +
+                    "}";
+
+    private final GL gl;
+    private final boolean useInstancing;
+    // instances per draw call without instancing
+    private final int batchSize;
+    private final int indexCount;
+    private final int program;
+    private final int[] bufferHandles = new int[3];
+
+    private int positionHandle;
+    private int instanceHandle;
+    private int colorHandle;
+    private int slotHandle;
+    private GLState.Uniform instancesUniform;
+    private GLState.Uniform mvMatrixUniform;
+    private GLState.Uniform mvpMatrixUniform;
+    private GLState.Uniform lightPositionUniform;
+
+    private float[] instances = new float[0];
+    private FloatBuffer instanceBuffer;
+    private int instanceCount;
+
+    /**
+     * Must be called on the GL thread. The mesh needs to fit 16 bit indices, instancing needs an
+     * ES 3.0 context.
+     */
+    public IcosphereBatch(Mesh mesh, boolean useInstancing, ProgramLinker linker) {
+        int vertexCount = mesh.getVertexCount();
+        if (vertexCount > MeshChunker.MAX_SHORT_INDEX_VERTICES) {
+            throw new IllegalArgumentException("The batch mesh needs to fit 16 bit indices, got " + vertexCount + " vertices");
+        }
+        gl = GLState.get().getGL();
+        this.useInstancing = useInstancing;
+        indexCount = mesh.drawList.length;
+        String vertexShaderCode;
+        if (useInstancing) {
+            batchSize = Integer.MAX_VALUE;
+            vertexShaderCode = instancedVertexShaderCode;
+        } else {
+            int[] maxVectors = new int[1];
+            gl.glGetIntegerv(GL.GL_MAX_VERTEX_UNIFORM_VECTORS, maxVectors, 0);
+            batchSize = Math.min((maxVectors[0] - RESERVED_UNIFORM_VECTORS) / 2, (MeshChunker.MAX_SHORT_INDEX_VERTICES + 1) / vertexCount);
+            vertexShaderCode = String.format(uniformArrayVertexShaderCode, batchSize * 2);
+        }
+        program = linker.getProgram(vertexShaderCode, fragmentShaderCode);
+        setupHandles();
+        if (useInstancing) {
+            // the instances are replaced every frame, their buffer is orphaned rather than pooled
+            gl.glGenBuffers(1, bufferHandles, 2);
+            uploadMesh(MeshData.create(mesh, 2));
+        } else {
+            uploadCopies(mesh);
+        }
+    }
+
+    /**
+     * Sets what the next draws show, FLOATS_PER_INSTANCE values per instance. The array is
+     * copied, so it can be reused.
+     */
+    public void setInstances(float[] data, int count) {
+        int length = count * FLOATS_PER_INSTANCE;
+        if (instances.length < length) {
+            instances = new float[length];
+            instanceBuffer = MeshData.allocate(length * 4).asFloatBuffer();
+        }
+        System.arraycopy(data, 0, instances, 0, length);
+        instanceCount = count;
+    }
+
+    public boolean usesInstancing() {
+        return useInstancing;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public int getDrawCallCount() {
+        if (useInstancing) {
+            return instanceCount > 0 ? 1 : 0;
+        }
+        return (instanceCount + batchSize - 1) / batchSize;
+    }
+
+    public int getTriangleCount() {
+        return instanceCount * indexCount / 3;
+    }
+
+    public void draw(float[] mvpMatrix, float[] mvMatrix, float[] lightPosInEyeSpace) {
+        if (instanceCount == 0) {
+            return;
+        }
+        GLState state = GLState.get();
+        state.useProgram(program);
+        lightPositionUniform.set3f(lightPosInEyeSpace[0], lightPosInEyeSpace[1], lightPosInEyeSpace[2]);
+        mvMatrixUniform.setMatrix4fv(mvMatrix, 0);
+        mvpMatrixUniform.setMatrix4fv(mvpMatrix, 0);
+        state.bindElementArrayBuffer(bufferHandles[1]);
+        if (useInstancing) {
+            drawInstanced(state);
+        } else {
+            drawBatches(state);
+        }
+    }
+
+    private void drawInstanced(GLState state) {
+        state.setAttribArrays(GLState.attrib(positionHandle) | GLState.attrib(instanceHandle) | GLState.attrib(colorHandle));
+        state.vertexAttribPointer(bufferHandles[0], positionHandle, 3, GL.GL_FLOAT, false, 0, 0);
+
+        instanceBuffer.position(0);
+        instanceBuffer.put(instances, 0, instanceCount * FLOATS_PER_INSTANCE);
+        instanceBuffer.position(0);
+        // the pointers into the buffer stay valid when its data is replaced
+        state.bindArrayBuffer(bufferHandles[2]);
+        gl.glBufferData(GL.GL_ARRAY_BUFFER, instanceCount * INSTANCE_STRIDE, instanceBuffer, GL.GL_STREAM_DRAW);
+        state.vertexAttribPointer(bufferHandles[2], instanceHandle, 4, GL.GL_FLOAT, false, INSTANCE_STRIDE, 0);
+        state.vertexAttribPointer(bufferHandles[2], colorHandle, 4, GL.GL_FLOAT, false, INSTANCE_STRIDE, 16);
+        gl.glVertexAttribDivisor(instanceHandle, 1);
+        gl.glVertexAttribDivisor(colorHandle, 1);
+
+        gl.glDrawElementsInstanced(GL.GL_TRIANGLES, indexCount, GL.GL_UNSIGNED_SHORT, 0, instanceCount);
+
+        // the divisors are global attribute state, the other programs expect them at 0
+        gl.glVertexAttribDivisor(instanceHandle, 0);
+        gl.glVertexAttribDivisor(colorHandle, 0);
+    }
+
+    private void drawBatches(GLState state) {
+        state.setAttribArrays(GLState.attrib(positionHandle) | GLState.attrib(slotHandle));
+        state.vertexAttribPointer(bufferHandles[0], positionHandle, 3, GL.GL_FLOAT, false, 16, 0);
+        state.vertexAttribPointer(bufferHandles[0], slotHandle, 1, GL.GL_FLOAT, false, 16, 12);
+        for (int first = 0; first < instanceCount; first += batchSize) {
+            int count = Math.min(batchSize, instanceCount - first);
+            instancesUniform.set4fv(count * 2, instances, first * FLOATS_PER_INSTANCE);
+            gl.glDrawElements(GL.GL_TRIANGLES, count * indexCount, GL.GL_UNSIGNED_SHORT, 0);
+        }
+    }
+
+    private void setupHandles() {
+        positionHandle = gl.glGetAttribLocation(program, "aPosition");
+        instanceHandle = gl.glGetAttribLocation(program, "aInstance");
+        colorHandle = gl.glGetAttribLocation(program, "aColor");
+        slotHandle = gl.glGetAttribLocation(program, "aSlot");
+        GLState state = GLState.get();
+        instancesUniform = state.getUniform(program, "uInstances");
+        mvMatrixUniform = state.getUniform(program, "uMVMatrix");
+        mvpMatrixUniform = state.getUniform(program, "uMVPMatrix");
+        lightPositionUniform = state.getUniform(program, "uLightPosition");
+    }
+
+    /**
+     * GL thread only, the batch can't be drawn anymore.
+     */
+    public void release() {
+        BufferPool pool = BufferPool.get();
+        pool.release(GL.GL_ARRAY_BUFFER, bufferHandles[0]);
+        pool.release(GL.GL_ELEMENT_ARRAY_BUFFER, bufferHandles[1]);
+        if (bufferHandles[2] != 0) {
+            GLState.get().deleteBuffer(bufferHandles[2]);
+        }
+        bufferHandles[0] = bufferHandles[1] = bufferHandles[2] = 0;
+        instanceCount = 0;
+    }
+
+    private void uploadMesh(MeshData data) {
+        BufferPool pool = BufferPool.get();
+        bufferHandles[0] = pool.upload(GL.GL_ARRAY_BUFFER, 0, data.vertices, data.vertices.capacity());
+        bufferHandles[1] = pool.upload(GL.GL_ELEMENT_ARRAY_BUFFER, 0, data.drawList, data.drawList.capacity());
+    }
+
+    // batchSize copies of the mesh, every vertex followed by the slot of its copy
+    private void uploadCopies(Mesh mesh) {
+        int vertexCount = mesh.getVertexCount();
+        ByteBuffer vertices = MeshData.allocate(batchSize * vertexCount * 16);
+        FloatBuffer vertexBuffer = vertices.asFloatBuffer();
+        ByteBuffer drawList = MeshData.allocate(batchSize * indexCount * 2);
+        ShortBuffer drawListBuffer = drawList.asShortBuffer();
+        for (int slot = 0; slot < batchSize; slot++) {
+            for (int i = 0; i < vertexCount; i++) {
+                vertexBuffer.put(mesh.vertices, i * 3, 3);
+                vertexBuffer.put(slot);
+            }
+            for (int index : mesh.drawList) {
+                drawListBuffer.put((short) (index + slot * vertexCount));
+            }
+        }
+        uploadMesh(new MeshData(vertices, batchSize * vertexCount, drawList, batchSize * indexCount, 2));
+    }
+
+}
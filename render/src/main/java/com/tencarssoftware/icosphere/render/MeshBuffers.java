@@ -0,0 +1,502 @@
+/*
+ * Copyright (c) 2015 10cars Software
+ */
+
+package com.tencarssoftware.icosphere.render;
+
+import com.tencarssoftware.icosphere.geometry.IcosphereGenerator;
+import com.tencarssoftware.icosphere.geometry.MeshData;
+import com.tencarssoftware.icosphere.geometry.Patches;
+import com.tencarssoftware.icosphere.geometry.SharedLevelData;
+import com.tencarssoftware.icosphere.geometry.VertexFormat;
+
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+
+/**
+ * The mesh of a sphere on the GPU and how it is drawn: its parts, or a level of the shared
+ * buffers, in buffers from the BufferPool or as client arrays when there are no buffer objects.
+ * Indexed parts are drawn patch by patch, leaving out the patches that face away from the camera
+ * or lie outside the frustum. The shader is up to the caller. With retained data the parts stay
+ * referenced after their upload, so a new context only takes restore(). A streamed upload goes
+ * into new buffers a slice per frame budget while the old mesh is drawn. GL thread only.
+ */
+public class MeshBuffers {
+    private final boolean useVBOs;
+    private final VertexFormat vertexFormat;
+    private boolean retainData;
+
+    // one entry per part, meshes with more than 65535 vertices are split up when 32 bit indices are not available
+    private MeshData[] parts;
+    private int[] vertexBufferHandles = new int[0];
+    private int[] drawListBufferHandles = new int[0];
+    private int[] vertexCounts;
+    private int[] drawListLengths;
+    private int[] drawListTypes;
+    private Patches[] patches;
+    private int partCount;
+
+    // model space camera and frustum of the current draw, for culling patches
+    private final float[] camera = new float[3];
+    private final float[] frustumPlanes = new float[24];
+    private int[] ranges = new int[0];
+    // of the last draw, for FrameMetrics
+    private int drawCallCount;
+    private int triangleCount;
+
+    // all levels up to the shared data's max level, drawn instead of the parts while sharedLevel >= 0
+    private SharedLevelData sharedLevels;
+    private final int[] sharedBufferHandles = new int[2];
+    private int sharedLevel = -1;
+    private int sharedDrawListType;
+    private Buffer sharedDrawList;
+
+    // the upload continueUpload() works on, its parts or levels replace the drawn ones once complete
+    private StreamingUpload streaming;
+    private MeshData[] streamingParts;
+    private SharedLevelData streamingLevels;
+    private int streamingLevel;
+    // vertex and element buffer of each part or of the shared levels
+    private int[] streamingHandles;
+    private boolean drawPartialUploads;
+
+    public MeshBuffers(boolean useVBOs, VertexFormat vertexFormat) {
+        this.useVBOs = useVBOs;
+        this.vertexFormat = vertexFormat;
+    }
+
+    /**
+     * Keeps the parts after they are uploaded, so restore() can upload them again. They are direct
+     * or mapped buffers, so that is off the Java heap. Set before the first upload.
+     */
+    public void setRetainData(boolean retainData) {
+        this.retainData = retainData;
+    }
+
+    /**
+     * Draws the shared levels of a streamed upload as they come in, parts only once complete.
+     */
+    public void setDrawPartialUploads(boolean drawPartialUploads) {
+        this.drawPartialUploads = drawPartialUploads;
+    }
+
+    // shorts are read unnormalized, see OctahedralEncoding
+    public static int getVertexType(VertexFormat format) {
+        return format == VertexFormat.OCTAHEDRAL ? GL.GL_SHORT : GL.GL_FLOAT;
+    }
+
+    /**
+     * Replaces the parts, the buffers of the old ones are reused where the new ones fit them.
+     */
+    public void upload(MeshData[] data) {
+        cancelUpload();
+        setParts(data);
+        if (useVBOs) {
+            bindBuffers();
+        }
+        sharedLevel = -1;
+    }
+
+    /**
+     * Uploads the shared buffers. They stay on the GPU next to the parts, so going back to a
+     * shared level after upload(MeshData[]) is free too.
+     */
+    public void uploadSharedLevels(SharedLevelData data) {
+        cancelUpload();
+        sharedLevels = data;
+        sharedDrawListType = data.data.drawListElementSize == 4 ? GL.GL_UNSIGNED_INT : GL.GL_UNSIGNED_SHORT;
+        if (useVBOs) {
+            BufferPool pool = BufferPool.get();
+            sharedBufferHandles[0] = pool.upload(GL.GL_ARRAY_BUFFER, sharedBufferHandles[0],
+                    data.data.vertices, data.data.vertices.capacity());
+            sharedBufferHandles[1] = pool.upload(GL.GL_ELEMENT_ARRAY_BUFFER, sharedBufferHandles[1],
+                    data.data.drawList, data.data.drawList.capacity());
+        }
+        sharedLevel = -1;
+    }
+
+    /**
+     * The old parts are drawn until continueUpload() has the new ones in.
+     */
+    public void beginUpload(MeshData[] data) {
+        cancelUpload();
+        if (!useVBOs) {
+            upload(data);
+            return;
+        }
+        BufferPool pool = BufferPool.get();
+        streaming = new StreamingUpload();
+        streamingParts = data;
+        streamingHandles = new int[data.length * 2];
+        for (int i = 0; i < data.length; i++) {
+            MeshData part = data[i];
+            int size = part.vertices.capacity();
+            streamingHandles[i * 2] = pool.allocate(GL.GL_ARRAY_BUFFER, size);
+            streaming.add(GL.GL_ARRAY_BUFFER, streamingHandles[i * 2], part.vertices, 0, size, -1);
+            if (part.hasDrawList()) {
+                size = part.drawList.capacity();
+                streamingHandles[i * 2 + 1] = pool.allocate(GL.GL_ELEMENT_ARRAY_BUFFER, size);
+                streaming.add(GL.GL_ELEMENT_ARRAY_BUFFER, streamingHandles[i * 2 + 1], part.drawList, 0, size, -1);
+            }
+        }
+    }
+
+    /**
+     * The level is drawn once continueUpload() has it in, see setDrawPartialUploads().
+     */
+    public void beginUploadSharedLevels(SharedLevelData data, int level) {
+        cancelUpload();
+        if (!useVBOs) {
+            uploadSharedLevels(data);
+            setSharedLevel(level);
+            return;
+        }
+        BufferPool pool = BufferPool.get();
+        ByteBuffer vertices = data.data.vertices;
+        ByteBuffer drawList = data.data.drawList;
+        int vertexSize = vertexFormat.getByteSize();
+        int elementSize = data.data.drawListElementSize;
+        streaming = new StreamingUpload();
+        streamingLevels = data;
+        streamingLevel = level;
+        streamingHandles = new int[]{pool.allocate(GL.GL_ARRAY_BUFFER, vertices.capacity()),
+                pool.allocate(GL.GL_ELEMENT_ARRAY_BUFFER, drawList.capacity())};
+        // the vertices a level adds, then its draw list
+        int vertexEnd = 0;
+        for (int l = 0; l <= data.getMaxLevel(); l++) {
+            int end = IcosphereGenerator.getVertexCount(l) * vertexSize;
+            streaming.add(GL.GL_ARRAY_BUFFER, streamingHandles[0], vertices, vertexEnd, end - vertexEnd, -1);
+            streaming.add(GL.GL_ELEMENT_ARRAY_BUFFER, streamingHandles[1], drawList,
+                    data.getOffset(l) * elementSize, data.getLength(l) * elementSize, l);
+            vertexEnd = end;
+        }
+    }
+
+    /**
+     * True once nothing is left of the upload.
+     */
+    public boolean continueUpload(long budgetNanos) {
+        if (streaming == null) {
+            return true;
+        }
+        if (!streaming.step(budgetNanos)) {
+            return false;
+        }
+        finishUpload();
+        return true;
+    }
+
+    /**
+     * Whether draw() draws anything.
+     */
+    public boolean canDraw() {
+        return partCount > 0 || sharedLevel >= 0 || isDrawingPartialUpload();
+    }
+
+    public boolean isUploading() {
+        return streaming != null;
+    }
+
+    /**
+     * Gives the buffers back to the BufferPool, nothing is drawn until the next upload.
+     */
+    public void release() {
+        cancelUpload();
+        BufferPool pool = BufferPool.get();
+        for (int i = 0; i < vertexBufferHandles.length; i++) {
+            pool.release(GL.GL_ARRAY_BUFFER, vertexBufferHandles[i]);
+            pool.release(GL.GL_ELEMENT_ARRAY_BUFFER, drawListBufferHandles[i]);
+        }
+        vertexBufferHandles = new int[0];
+        drawListBufferHandles = new int[0];
+        pool.release(GL.GL_ARRAY_BUFFER, sharedBufferHandles[0]);
+        pool.release(GL.GL_ELEMENT_ARRAY_BUFFER, sharedBufferHandles[1]);
+        sharedBufferHandles[0] = 0;
+        sharedBufferHandles[1] = 0;
+        sharedLevels = null;
+        sharedLevel = -1;
+        parts = null;
+        partCount = 0;
+    }
+
+    /**
+     * Uploads everything again into a new context and draws what was drawn before. The old
+     * buffers went with the old context, the BufferPool has to be reset already. False if the
+     * parts weren't retained, the mesh has to be uploaded again then.
+     */
+    public boolean restore() {
+        if (streaming != null) {
+            // what was on its way goes up right away, its buffers are gone too
+            if (streamingParts != null) {
+                setParts(streamingParts);
+                sharedLevel = -1;
+            } else {
+                sharedLevels = streamingLevels;
+                sharedLevel = streamingLevel;
+            }
+            clearUpload();
+        }
+        vertexBufferHandles = new int[0];
+        drawListBufferHandles = new int[0];
+        sharedBufferHandles[0] = 0;
+        sharedBufferHandles[1] = 0;
+        if (partCount > 0 && parts == null) {
+            return false;
+        }
+        if (useVBOs && partCount > 0) {
+            bindBuffers();
+        }
+        if (sharedLevels != null) {
+            int level = sharedLevel;
+            uploadSharedLevels(sharedLevels);
+            if (level >= 0) {
+                setSharedLevel(level);
+            }
+        }
+        return true;
+    }
+
+    public boolean hasSharedLevel(int level) {
+        SharedLevelData levels = streamingLevels != null ? streamingLevels : sharedLevels;
+        return levels != null && level <= levels.getMaxLevel();
+    }
+
+    /**
+     * Draws the level from the shared buffers from now on, or once they are streamed in.
+     */
+    public void setSharedLevel(int level) {
+        if (streamingLevels != null) {
+            streamingLevel = level;
+            return;
+        }
+        // the parts on their way would replace the level
+        cancelUpload();
+        sharedLevel = level;
+        if (!useVBOs) {
+            ByteBuffer drawList = sharedLevels.data.drawList.duplicate();
+            drawList.position(sharedLevels.getOffset(level) * sharedLevels.data.drawListElementSize);
+            sharedDrawList = drawList;
+        }
+    }
+
+    /**
+     * Draws the indexed mesh with the current program, its positions go to the attribute.
+     */
+    public void draw(int positionHandle, float[] mvpMatrix, float[] mvMatrix) {
+        resetDrawCounts();
+        GLState state = GLState.get();
+        GL gl = state.getGL();
+        Patches.getFrustumPlanes(mvpMatrix, frustumPlanes);
+        Patches.getCameraPosition(mvMatrix, camera);
+        int size = vertexFormat.getComponentCount();
+        int type = getVertexType(vertexFormat);
+        if (isDrawingPartialUpload()) {
+            drawLevel(state, positionHandle, size, type, streamingLevels, streamingHandles,
+                    Math.min(streamingLevel, streaming.getMark()));
+            return;
+        }
+        if (sharedLevel >= 0) {
+            drawSharedLevel(state, positionHandle, size, type);
+            return;
+        }
+        for (int i = 0; i < partCount; i++) {
+            if (useVBOs) {
+                state.vertexAttribPointer(vertexBufferHandles[i], positionHandle, size, type, false, 0, 0);
+                state.bindElementArrayBuffer(drawListBufferHandles[i]);
+                if (patches[i] != null) {
+                    drawPatches(gl, patches[i], drawListTypes[i], 0);
+                } else {
+                    drawElements(gl, drawListLengths[i], drawListTypes[i], 0);
+                }
+            } else {
+                state.vertexAttribPointer(positionHandle, size, type, false, 0, parts[i].vertices);
+                state.bindElementArrayBuffer(0);
+                gl.glDrawElements(GL.GL_TRIANGLES, drawListLengths[i], drawListTypes[i], parts[i].drawList);
+                countDraw(drawListLengths[i]);
+            }
+        }
+    }
+
+    private void drawSharedLevel(GLState state, int positionHandle, int size, int type) {
+        if (useVBOs) {
+            drawLevel(state, positionHandle, size, type, sharedLevels, sharedBufferHandles, sharedLevel);
+        } else {
+            int length = sharedLevels.getLength(sharedLevel);
+            state.vertexAttribPointer(positionHandle, size, type, false, 0, sharedLevels.data.vertices);
+            state.bindElementArrayBuffer(0);
+            state.getGL().glDrawElements(GL.GL_TRIANGLES, length, sharedDrawListType, sharedDrawList);
+            countDraw(length);
+        }
+    }
+
+    // from the vertex and element buffer in handles
+    private void drawLevel(GLState state, int positionHandle, int size, int type, SharedLevelData levels,
+                           int[] handles, int level) {
+        GL gl = state.getGL();
+        int elementSize = levels.data.drawListElementSize;
+        int drawListType = elementSize == 4 ? GL.GL_UNSIGNED_INT : GL.GL_UNSIGNED_SHORT;
+        state.vertexAttribPointer(handles[0], positionHandle, size, type, false, 0, 0);
+        state.bindElementArrayBuffer(handles[1]);
+        Patches levelPatches = levels.getPatches(level);
+        if (levelPatches != null) {
+            drawPatches(gl, levelPatches, drawListType, levels.getOffset(level));
+        } else {
+            drawElements(gl, levels.getLength(level), drawListType, levels.getOffset(level) * elementSize);
+        }
+    }
+
+    // only the patches facing the camera inside the frustum, the element buffer must be bound
+    private void drawPatches(GL gl, Patches patches, int type, int firstIndex) {
+        if (ranges.length < patches.getCount() * 2) {
+            ranges = new int[patches.getCount() * 2];
+        }
+        int elementSize = type == GL.GL_UNSIGNED_INT ? 4 : 2;
+        int rangeCount = patches.cull(camera, frustumPlanes, ranges);
+        for (int r = 0; r < rangeCount; r++) {
+            drawElements(gl, ranges[r * 2 + 1], type, (firstIndex + ranges[r * 2]) * elementSize);
+        }
+    }
+
+    private void drawElements(GL gl, int count, int type, int offset) {
+        gl.glDrawElements(GL.GL_TRIANGLES, count, type, offset);
+        countDraw(count);
+    }
+
+    public int getDrawCallCount() {
+        return drawCallCount;
+    }
+
+    public int getTriangleCount() {
+        return triangleCount;
+    }
+
+    public void resetDrawCounts() {
+        drawCallCount = 0;
+        triangleCount = 0;
+    }
+
+    public void countDraw(int vertexCount) {
+        drawCallCount++;
+        triangleCount += vertexCount / 3;
+    }
+
+    public int getPartCount() {
+        return partCount;
+    }
+
+    /**
+     * Only there without buffer objects or with retained data, otherwise the data is dropped
+     * once it is on the GPU.
+     */
+    public MeshData getPart(int i) {
+        return parts[i];
+    }
+
+    public int getVertexCount(int i) {
+        return vertexCounts[i];
+    }
+
+    public int getVertexBufferHandle(int i) {
+        return vertexBufferHandles[i];
+    }
+
+    private void setParts(MeshData[] data) {
+        parts = data;
+        partCount = data.length;
+        vertexCounts = new int[partCount];
+        drawListLengths = new int[partCount];
+        drawListTypes = new int[partCount];
+        patches = new Patches[partCount];
+        for (int i = 0; i < partCount; i++) {
+            // the client array path draws everything, it would need a buffer per range
+            patches[i] = useVBOs ? data[i].patches : null;
+            vertexCounts[i] = data[i].vertexCount;
+            drawListLengths[i] = data[i].drawListLength;
+            drawListTypes[i] = data[i].drawListElementSize == 4 ? GL.GL_UNSIGNED_INT : GL.GL_UNSIGNED_SHORT;
+        }
+    }
+
+    private boolean isDrawingPartialUpload() {
+        return drawPartialUploads && streamingLevels != null && streaming.getMark() >= 0;
+    }
+
+    // swaps in the streamed buffers, the replaced ones go back to the pool
+    private void finishUpload() {
+        BufferPool pool = BufferPool.get();
+        if (streamingParts != null) {
+            for (int i = 0; i < vertexBufferHandles.length; i++) {
+                pool.release(GL.GL_ARRAY_BUFFER, vertexBufferHandles[i]);
+                pool.release(GL.GL_ELEMENT_ARRAY_BUFFER, drawListBufferHandles[i]);
+            }
+            setParts(streamingParts);
+            vertexBufferHandles = new int[partCount];
+            drawListBufferHandles = new int[partCount];
+            for (int i = 0; i < partCount; i++) {
+                vertexBufferHandles[i] = streamingHandles[i * 2];
+                drawListBufferHandles[i] = streamingHandles[i * 2 + 1];
+            }
+            sharedLevel = -1;
+            if (!retainData) {
+                parts = null;
+            }
+        } else {
+            pool.release(GL.GL_ARRAY_BUFFER, sharedBufferHandles[0]);
+            pool.release(GL.GL_ELEMENT_ARRAY_BUFFER, sharedBufferHandles[1]);
+            sharedBufferHandles[0] = streamingHandles[0];
+            sharedBufferHandles[1] = streamingHandles[1];
+            sharedLevels = streamingLevels;
+            sharedDrawListType = sharedLevels.data.drawListElementSize == 4 ? GL.GL_UNSIGNED_INT : GL.GL_UNSIGNED_SHORT;
+            sharedLevel = streamingLevel;
+        }
+        clearUpload();
+    }
+
+    // drops the upload in progress and its buffers
+    private void cancelUpload() {
+        if (streaming == null) {
+            return;
+        }
+        BufferPool pool = BufferPool.get();
+        for (int i = 0; i < streamingHandles.length; i++) {
+            pool.release(i % 2 == 0 ? GL.GL_ARRAY_BUFFER : GL.GL_ELEMENT_ARRAY_BUFFER, streamingHandles[i]);
+        }
+        clearUpload();
+    }
+
+    private void clearUpload() {
+        streaming = null;
+        streamingParts = null;
+        streamingLevels = null;
+        streamingHandles = null;
+    }
+
+    private void bindBuffers() {
+        BufferPool pool = BufferPool.get();
+        int[] oldVertexHandles = vertexBufferHandles;
+        int[] oldDrawListHandles = drawListBufferHandles;
+        vertexBufferHandles = new int[partCount];
+        drawListBufferHandles = new int[partCount];
+        for (int i = 0; i < Math.max(partCount, oldVertexHandles.length); i++) {
+            int oldVertexHandle = i < oldVertexHandles.length ? oldVertexHandles[i] : 0;
+            int oldDrawListHandle = i < oldDrawListHandles.length ? oldDrawListHandles[i] : 0;
+            if (i >= partCount) {
+                pool.release(GL.GL_ARRAY_BUFFER, oldVertexHandle);
+                pool.release(GL.GL_ELEMENT_ARRAY_BUFFER, oldDrawListHandle);
+                continue;
+            }
+            MeshData part = parts[i];
+            vertexBufferHandles[i] = pool.upload(GL.GL_ARRAY_BUFFER, oldVertexHandle, part.vertices, part.vertices.capacity());
+            if (part.hasDrawList()) {
+                drawListBufferHandles[i] = pool.upload(GL.GL_ELEMENT_ARRAY_BUFFER, oldDrawListHandle,
+                        part.drawList, part.drawList.capacity());
+            } else {
+                pool.release(GL.GL_ELEMENT_ARRAY_BUFFER, oldDrawListHandle);
+            }
+        }
+        // the data is on the GPU now, the cache keeps it if it has room
+        if (!retainData) {
+            parts = null;
+        }
+    }
+
+}
@@ -0,0 +1,12 @@
+/*
+ * Copyright (c) 2015 10cars Software
+ */
+
+package com.tencarssoftware.icosphere.render;
+
+/**
+ * Compiles and links programs for the current context, GL thread only.
+ */
+public interface ProgramLinker {
+    int getProgram(String vertexShaderCode, String fragmentShaderCode);
+}
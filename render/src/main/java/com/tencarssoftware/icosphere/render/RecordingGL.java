@@ -0,0 +1,445 @@
+/*
+ * Copyright (c) 2015 10cars Software
+ */
+
+package com.tencarssoftware.icosphere.render;
+
+import java.nio.Buffer;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A GL without a GPU: counts the calls per function, the bytes handed to glBufferData,
+ * glBufferSubData and the uniforms and the vertices submitted by draws, and does nothing else.
+ * Object names count up from 1, shaders compile and programs link, attributes and uniforms get a
+ * location per name and program. Lets the draw path run on a plain JVM, to benchmark its CPU side
+ * and to see what it sends to GL.
+ */
+public class RecordingGL implements GL {
+    private static final String[] NAMES = {
+            "glClear", "glClearColor", "glEnable", "glViewport", "glGetString", "glGetIntegerv",
+            "glCreateShader", "glShaderSource", "glCompileShader", "glGetShaderiv", "glGetShaderInfoLog",
+            "glDeleteShader", "glCreateProgram", "glAttachShader", "glDetachShader", "glLinkProgram",
+            "glGetProgramiv", "glGetProgramInfoLog", "glDeleteProgram", "glUseProgram", "glGetAttribLocation",
+            "glGetUniformLocation", "glUniform3f", "glUniform4fv", "glUniformMatrix4fv", "glGenBuffers",
+            "glDeleteBuffers", "glBindBuffer", "glBufferData", "glBufferSubData", "glEnableVertexAttribArray",
+            "glDisableVertexAttribArray", "glVertexAttribPointer", "glDrawArrays", "glDrawElements",
+            "glVertexAttribDivisor", "glDrawElementsInstanced", "glGenQueries", "glBeginQuery", "glEndQuery",
+            "glGetQueryObjectuiv", "glProgramParameteri", "glGetProgramBinary", "glProgramBinary"};
+    private static final int CLEAR = 0;
+    private static final int CLEAR_COLOR = 1;
+    private static final int ENABLE = 2;
+    private static final int VIEWPORT = 3;
+    private static final int GET_STRING = 4;
+    private static final int GET_INTEGERV = 5;
+    private static final int CREATE_SHADER = 6;
+    private static final int SHADER_SOURCE = 7;
+    private static final int COMPILE_SHADER = 8;
+    private static final int GET_SHADERIV = 9;
+    private static final int GET_SHADER_INFO_LOG = 10;
+    private static final int DELETE_SHADER = 11;
+    private static final int CREATE_PROGRAM = 12;
+    private static final int ATTACH_SHADER = 13;
+    private static final int DETACH_SHADER = 14;
+    private static final int LINK_PROGRAM = 15;
+    private static final int GET_PROGRAMIV = 16;
+    private static final int GET_PROGRAM_INFO_LOG = 17;
+    private static final int DELETE_PROGRAM = 18;
+    private static final int USE_PROGRAM = 19;
+    private static final int GET_ATTRIB_LOCATION = 20;
+    private static final int GET_UNIFORM_LOCATION = 21;
+    private static final int UNIFORM_3F = 22;
+    private static final int UNIFORM_4FV = 23;
+    private static final int UNIFORM_MATRIX_4FV = 24;
+    private static final int GEN_BUFFERS = 25;
+    private static final int DELETE_BUFFERS = 26;
+    private static final int BIND_BUFFER = 27;
+    private static final int BUFFER_DATA = 28;
+    private static final int BUFFER_SUB_DATA = 29;
+    private static final int ENABLE_VERTEX_ATTRIB_ARRAY = 30;
+    private static final int DISABLE_VERTEX_ATTRIB_ARRAY = 31;
+    private static final int VERTEX_ATTRIB_POINTER = 32;
+    private static final int DRAW_ARRAYS = 33;
+    private static final int DRAW_ELEMENTS = 34;
+    private static final int VERTEX_ATTRIB_DIVISOR = 35;
+    private static final int DRAW_ELEMENTS_INSTANCED = 36;
+    private static final int GEN_QUERIES = 37;
+    private static final int BEGIN_QUERY = 38;
+    private static final int END_QUERY = 39;
+    private static final int GET_QUERY_OBJECTUIV = 40;
+    private static final int PROGRAM_PARAMETERI = 41;
+    private static final int GET_PROGRAM_BINARY = 42;
+    private static final int PROGRAM_BINARY = 43;
+    private static final int MAX_VERTEX_UNIFORM_VECTORS = 256;
+
+    private final long[] counts = new long[NAMES.length];
+    private final String version;
+    private final String extensions;
+    // by program and name
+    private final Map<String, Integer> locations = new HashMap<String, Integer>();
+    private int nextName = 1;
+    private long bytesUploaded;
+    private long uniformBytes;
+    private long verticesDrawn;
+
+    /**
+     * An ES 2.0 context with the usual extensions for 32 bit indices and derivatives.
+     */
+    public RecordingGL() {
+        this("OpenGL ES 2.0 RecordingGL", "GL_OES_element_index_uint GL_OES_standard_derivatives");
+    }
+
+    public RecordingGL(String version, String extensions) {
+        this.version = version;
+        this.extensions = extensions;
+    }
+
+    public long getCount(String function) {
+        for (int i = 0; i < NAMES.length; i++) {
+            if (NAMES[i].equals(function)) {
+                return counts[i];
+            }
+        }
+        throw new IllegalArgumentException("Not a GL function: " + function);
+    }
+
+    public long getCallCount() {
+        long sum = 0;
+        for (long count : counts) {
+            sum += count;
+        }
+        return sum;
+    }
+
+    public long getDrawCallCount() {
+        return counts[DRAW_ARRAYS] + counts[DRAW_ELEMENTS] + counts[DRAW_ELEMENTS_INSTANCED];
+    }
+
+    public long getBytesUploaded() {
+        return bytesUploaded;
+    }
+
+    public long getUniformBytes() {
+        return uniformBytes;
+    }
+
+    public long getVerticesDrawn() {
+        return verticesDrawn;
+    }
+
+    /**
+     * Zeroes the counts, the objects and locations handed out stay.
+     */
+    public void resetCounts() {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = 0;
+        }
+        bytesUploaded = 0;
+        uniformBytes = 0;
+        verticesDrawn = 0;
+    }
+
+    /**
+     * The functions that were called with their counts, one per line.
+     */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < NAMES.length; i++) {
+            if (counts[i] > 0) {
+                sb.append(String.format(Locale.US, "%-28s %d%n", NAMES[i], counts[i]));
+            }
+        }
+        sb.append(String.format(Locale.US, "%d calls, %d draws, %d vertices, %d bytes uploaded, %d uniform bytes",
+                getCallCount(), getDrawCallCount(), verticesDrawn, bytesUploaded, uniformBytes));
+        return sb.toString();
+    }
+
+    @Override
+    public void glClear(int mask) {
+        counts[CLEAR]++;
+    }
+
+    @Override
+    public void glClearColor(float red, float green, float blue, float alpha) {
+        counts[CLEAR_COLOR]++;
+    }
+
+    @Override
+    public void glEnable(int cap) {
+        counts[ENABLE]++;
+    }
+
+    @Override
+    public void glViewport(int x, int y, int width, int height) {
+        counts[VIEWPORT]++;
+    }
+
+    @Override
+    public String glGetString(int name) {
+        counts[GET_STRING]++;
+        switch (name) {
+            case GL_VERSION:
+                return version;
+            case GL_EXTENSIONS:
+                return extensions;
+            case GL_RENDERER:
+                return "RecordingGL";
+            default:
+                return null;
+        }
+    }
+
+    @Override
+    public void glGetIntegerv(int pname, int[] params, int offset) {
+        counts[GET_INTEGERV]++;
+        params[offset] = pname == GL_MAX_VERTEX_UNIFORM_VECTORS ? MAX_VERTEX_UNIFORM_VECTORS : 0;
+    }
+
+    @Override
+    public int glCreateShader(int type) {
+        counts[CREATE_SHADER]++;
+        return nextName++;
+    }
+
+    @Override
+    public void glShaderSource(int shader, String string) {
+        counts[SHADER_SOURCE]++;
+    }
+
+    @Override
+    public void glCompileShader(int shader) {
+        counts[COMPILE_SHADER]++;
+    }
+
+    @Override
+    public void glGetShaderiv(int shader, int pname, int[] params, int offset) {
+        counts[GET_SHADERIV]++;
+        params[offset] = pname == GL_COMPILE_STATUS ? GL_TRUE : 0;
+    }
+
+    @Override
+    public String glGetShaderInfoLog(int shader) {
+        counts[GET_SHADER_INFO_LOG]++;
+        return "";
+    }
+
+    @Override
+    public void glDeleteShader(int shader) {
+        counts[DELETE_SHADER]++;
+    }
+
+    @Override
+    public int glCreateProgram() {
+        counts[CREATE_PROGRAM]++;
+        return nextName++;
+    }
+
+    @Override
+    public void glAttachShader(int program, int shader) {
+        counts[ATTACH_SHADER]++;
+    }
+
+    @Override
+    public void glDetachShader(int program, int shader) {
+        counts[DETACH_SHADER]++;
+    }
+
+    @Override
+    public void glLinkProgram(int program) {
+        counts[LINK_PROGRAM]++;
+    }
+
+    @Override
+    public void glGetProgramiv(int program, int pname, int[] params, int offset) {
+        counts[GET_PROGRAMIV]++;
+        params[offset] = pname == GL_LINK_STATUS ? GL_TRUE : 0;
+    }
+
+    @Override
+    public String glGetProgramInfoLog(int program) {
+        counts[GET_PROGRAM_INFO_LOG]++;
+        return "";
+    }
+
+    @Override
+    public void glDeleteProgram(int program) {
+        counts[DELETE_PROGRAM]++;
+    }
+
+    @Override
+    public void glUseProgram(int program) {
+        counts[USE_PROGRAM]++;
+    }
+
+    @Override
+    public int glGetAttribLocation(int program, String name) {
+        counts[GET_ATTRIB_LOCATION]++;
+        return getLocation(program, "attribute " + name);
+    }
+
+    @Override
+    public int glGetUniformLocation(int program, String name) {
+        counts[GET_UNIFORM_LOCATION]++;
+        return getLocation(program, "uniform " + name);
+    }
+
+    @Override
+    public void glUniform3f(int location, float x, float y, float z) {
+        counts[UNIFORM_3F]++;
+        uniformBytes += 12;
+    }
+
+    @Override
+    public void glUniform4fv(int location, int count, float[] v, int offset) {
+        counts[UNIFORM_4FV]++;
+        uniformBytes += count * 16;
+    }
+
+    @Override
+    public void glUniformMatrix4fv(int location, int count, boolean transpose, float[] value, int offset) {
+        counts[UNIFORM_MATRIX_4FV]++;
+        uniformBytes += count * 64;
+    }
+
+    @Override
+    public void glGenBuffers(int n, int[] buffers, int offset) {
+        counts[GEN_BUFFERS]++;
+        for (int i = 0; i < n; i++) {
+            buffers[offset + i] = nextName++;
+        }
+    }
+
+    @Override
+    public void glDeleteBuffers(int n, int[] buffers, int offset) {
+        counts[DELETE_BUFFERS]++;
+    }
+
+    @Override
+    public void glBindBuffer(int target, int buffer) {
+        counts[BIND_BUFFER]++;
+    }
+
+    @Override
+    public void glBufferData(int target, int size, Buffer data, int usage) {
+        counts[BUFFER_DATA]++;
+        if (data != null) {
+            bytesUploaded += size;
+        }
+    }
+
+    @Override
+    public void glBufferSubData(int target, int offset, int size, Buffer data) {
+        counts[BUFFER_SUB_DATA]++;
+        bytesUploaded += size;
+    }
+
+    @Override
+    public void glEnableVertexAttribArray(int index) {
+        counts[ENABLE_VERTEX_ATTRIB_ARRAY]++;
+    }
+
+    @Override
+    public void glDisableVertexAttribArray(int index) {
+        counts[DISABLE_VERTEX_ATTRIB_ARRAY]++;
+    }
+
+    @Override
+    public void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, int offset) {
+        counts[VERTEX_ATTRIB_POINTER]++;
+    }
+
+    @Override
+    public void glVertexAttribPointer(int index, int size, int type, boolean normalized, int stride, Buffer ptr) {
+        counts[VERTEX_ATTRIB_POINTER]++;
+    }
+
+    @Override
+    public void glDrawArrays(int mode, int first, int count) {
+        counts[DRAW_ARRAYS]++;
+        verticesDrawn += count;
+    }
+
+    @Override
+    public void glDrawElements(int mode, int count, int type, int offset) {
+        counts[DRAW_ELEMENTS]++;
+        verticesDrawn += count;
+    }
+
+    @Override
+    public void glDrawElements(int mode, int count, int type, Buffer indices) {
+        counts[DRAW_ELEMENTS]++;
+        verticesDrawn += count;
+    }
+
+    @Override
+    public void glVertexAttribDivisor(int index, int divisor) {
+        counts[VERTEX_ATTRIB_DIVISOR]++;
+    }
+
+    @Override
+    public void glDrawElementsInstanced(int mode, int count, int type, int offset, int instanceCount) {
+        counts[DRAW_ELEMENTS_INSTANCED]++;
+        verticesDrawn += (long) count * instanceCount;
+    }
+
+    @Override
+    public void glGenQueries(int n, int[] ids, int offset) {
+        counts[GEN_QUERIES]++;
+        for (int i = 0; i < n; i++) {
+            ids[offset + i] = nextName++;
+        }
+    }
+
+    @Override
+    public void glBeginQuery(int target, int id) {
+        counts[BEGIN_QUERY]++;
+    }
+
+    @Override
+    public void glEndQuery(int target) {
+        counts[END_QUERY]++;
+    }
+
+    // every query is done at once and took no time
+    @Override
+    public void glGetQueryObjectuiv(int id, int pname, int[] params, int offset) {
+        counts[GET_QUERY_OBJECTUIV]++;
+        params[offset] = pname == GL_QUERY_RESULT_AVAILABLE ? GL_TRUE : 0;
+    }
+
+    @Override
+    public void glProgramParameteri(int program, int pname, int value) {
+        counts[PROGRAM_PARAMETERI]++;
+    }
+
+    @Override
+    public void glGetProgramBinary(int program, int bufSize, int[] length, int lengthOffset, int[] binaryFormat,
+                                   int binaryFormatOffset, Buffer binary) {
+        counts[GET_PROGRAM_BINARY]++;
+        length[lengthOffset] = 0;
+    }
+
+    @Override
+    public void glProgramBinary(int program, int binaryFormat, Buffer binary, int length) {
+        counts[PROGRAM_BINARY]++;
+    }
+
+    private int getLocation(int program, String name) {
+        String key = program + " " + name;
+        Integer location = locations.get(key);
+        if (location == null) {
+            location = 0;
+            String prefix = program + " " + name.substring(0, name.indexOf(' ') + 1);
+            for (String k : locations.keySet()) {
+                if (k.startsWith(prefix)) {
+                    location++;
+                }
+            }
+            locations.put(key, location);
+        }
+        return location;
+    }
+
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2015 10cars Software
+ */
+
+package com.tencarssoftware.icosphere.render;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+/**
+ * Fills allocated buffers slice by slice, at least one slice per step. GL thread only.
+ */
+public class StreamingUpload {
+    // small enough to stay well inside a frame's budget on slow drivers
+    public static final int SLICE_SIZE = 256 * 1024;
+
+    private final ArrayList<Slice> slices = new ArrayList<Slice>();
+    private int next;
+    private int mark = -1;
+    private long totalBytes;
+    private long uploadedBytes;
+
+    private static class Slice {
+        final int target;
+        final int buffer;
+        final ByteBuffer data;
+        final int offset;
+        final int size;
+        final int mark;
+
+        Slice(int target, int buffer, ByteBuffer data, int offset, int size, int mark) {
+            this.target = target;
+            this.buffer = buffer;
+            this.data = data;
+            this.offset = offset;
+            this.size = size;
+            this.mark = mark;
+        }
+    }
+
+    /**
+     * The bytes go to the same offset in the buffer, the mark (-1 for none) is reached with the last.
+     */
+    public void add(int target, int buffer, ByteBuffer data, int offset, int size, int mark) {
+        int end = offset + size;
+        for (int start = offset; start < end; start += SLICE_SIZE) {
+            int n = Math.min(SLICE_SIZE, end - start);
+            slices.add(new Slice(target, buffer, data, start, n, start + n == end ? mark : -1));
+        }
+        totalBytes += size;
+    }
+
+    /**
+     * True once all slices are in.
+     */
+    public boolean step(long budgetNanos) {
+        long start = System.nanoTime();
+        GL gl = GLState.get().getGL();
+        while (next < slices.size()) {
+            Slice slice = slices.get(next++);
+            ByteBuffer data = slice.data.duplicate();
+            data.limit(slice.offset + slice.size);
+            data.position(slice.offset);
+            BufferPool.bind(slice.target, slice.buffer);
+            gl.glBufferSubData(slice.target, slice.offset, slice.size, data);
+            uploadedBytes += slice.size;
+            if (slice.mark >= 0) {
+                mark = slice.mark;
+            }
+            if (System.nanoTime() - start >= budgetNanos) {
+                break;
+            }
+        }
+        return isDone();
+    }
+
+    public boolean isDone() {
+        return next == slices.size();
+    }
+
+    public int getMark() {
+        return mark;
+    }
+
+    public long getUploadedBytes() {
+        return uploadedBytes;
+    }
+
+    public long getTotalBytes() {
+        return totalBytes;
+    }
+
+}